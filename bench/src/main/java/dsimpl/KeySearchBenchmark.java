@@ -0,0 +1,66 @@
+package dsimpl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search within a node of keys keys, {@link KeySearch} against the plain
+ * binary search the trees used before. Probes go to 1024 nodes in random
+ * order, so that the outcome of every comparison is unpredictable, as it is
+ * in a descent to random keys.
+ * <p>
+ * This lives in package dsimpl to reach KeySearch; BPlusTreeBenchmark.get
+ * shows the effect on whole lookups for each M.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeySearchBenchmark {
+    private static final int NODES = 1 << 10, PROBES = 1 << 16;
+
+    @Param({"3", "7", "15", "31", "63", "127", "255"})
+    public int keys;
+
+    private int[][] nodes;
+    private int[] probes;
+    private int next;
+
+    @Setup
+    public void generate() {
+        SplittableRandom random = new SplittableRandom(1);
+        nodes = new int[NODES][];
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = random.ints(keys, 0, 1 << 20).toArray();
+            Arrays.sort(nodes[i]);
+        }
+        probes = random.ints(PROBES, 0, 1 << 20).toArray();
+    }
+
+    private static int binarySearch(int[] keys, int size, int k) {
+        int l = 0, r = size;
+        while (l < r) {
+            int m = (l + r) >> 1;
+            if (keys[m] < k) l = m + 1;
+            else r = m;
+        }
+        return l;
+    }
+
+    @Benchmark
+    public int binary() {
+        int i = next++ & (PROBES - 1);
+        return binarySearch(nodes[i & (NODES - 1)], keys, probes[i]);
+    }
+
+    @Benchmark
+    public int adaptive() {
+        int i = next++ & (PROBES - 1);
+        return KeySearch.lowerBound(nodes[i & (NODES - 1)], keys, probes[i]);
+    }
+}
@@ -0,0 +1,96 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * Operations on a {@link BPlusTree} of each order M; {@link TreeMapBenchmark}
+ * runs the same workloads on a TreeMap. The tree is bulk loaded to the fill
+ * of a tree built by random insertions, about ln 2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BPlusTreeBenchmark {
+    private static final double FILL_FACTOR = 0.69;
+
+    public static class Tree extends Workload {
+        @Param({"4", "16", "64", "256"})
+        public int M;
+
+        BPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() {
+            int[] keys = generate();
+            double[] values = new double[keys.length];
+            for (int i = 0; i < keys.length; i++)
+                values[i] = keys[i];
+            tree = BPlusTree.bulkLoad(M, keys, values, FILL_FACTOR);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Insertions {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = absent(tree.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            tree.tree.deleteAll(keys);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Deletions {
+        final int[] keys = new int[BATCH];
+        final double[] values = new double[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                values[i] = keys[i] = present(tree.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            tree.tree.insertAll(keys, values);
+        }
+    }
+
+    @Benchmark
+    public double get(Tree tree) {
+        return tree.tree.get(present(tree.nextRank()));
+    }
+
+    @Benchmark
+    public int range(Tree tree) {
+        int l = present(tree.nextRank());
+        return tree.tree.range(l, rangeEnd(l), tree.rangeBuffer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert(Tree tree, Insertions batch) {
+        for (int k : batch.keys)
+            tree.tree.insert(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void delete(Tree tree, Deletions batch) {
+        for (int k : batch.keys)
+            tree.tree.delete(k);
+    }
+}
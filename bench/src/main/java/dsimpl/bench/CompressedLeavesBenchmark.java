@@ -0,0 +1,57 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * Lookups and scans over plain leaves against leaves after
+ * {@link BPlusTree#compressLeaves}, with values kept exact or XOR-compressed.
+ * The leaf bytes per pair of each layout are printed once the tree is
+ * loaded. Values equal their keys, as in {@link BPlusTreeBenchmark}, so
+ * that neighbours share their exponent and the top of their mantissa.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressedLeavesBenchmark {
+    public enum Layout {PLAIN, PACKED, PACKED_GORILLA}
+
+    public static class Tree extends Workload {
+        @Param({"16", "64", "256"})
+        public int M;
+
+        @Param
+        public Layout layout;
+
+        BPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() {
+            int[] keys = generate();
+            double[] values = new double[keys.length];
+            for (int i = 0; i < keys.length; i++)
+                values[i] = keys[i];
+            tree = BPlusTree.bulkLoad(M, keys, values, 1.0);
+            if (layout != Layout.PLAIN)
+                tree.compressLeaves(layout == Layout.PACKED_GORILLA);
+            System.out.printf("%n%s: %.1f leaf bytes per pair%n", layout, tree.stats().getLeafBytesPerPair());
+        }
+    }
+
+    @Benchmark
+    public double get(Tree tree) {
+        return tree.tree.get(present(tree.nextRank()));
+    }
+
+    @Benchmark
+    public int range(Tree tree) {
+        int l = present(tree.nextRank());
+        return tree.tree.range(l, rangeEnd(l), tree.rangeBuffer);
+    }
+}
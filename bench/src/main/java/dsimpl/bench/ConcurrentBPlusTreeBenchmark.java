@@ -0,0 +1,71 @@
+package dsimpl.bench;
+
+import dsimpl.ConcurrentBPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 90% read, 10% write mix on one {@link ConcurrentBPlusTree} shared by all
+ * benchmark threads, next to a {@link ConcurrentSkipListMap} as the reference.
+ * Half of the keys in [0, KEY_SPACE) are present to begin with. Sweep the
+ * thread count with -t, e.g. {@code -t 1}, {@code -t 2}, {@code -t 4}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBPlusTreeBenchmark {
+    private static final int KEY_SPACE = 1 << 20;
+
+    static double valueOf(int k) {
+        return k + 0.25;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        ConcurrentBPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() {
+            tree = new ConcurrentBPlusTree(64);
+            for (int k = 0; k < KEY_SPACE; k += 2)
+                tree.insert(k, valueOf(k));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SkipList {
+        ConcurrentSkipListMap<Integer, Double> map;
+
+        @Setup(Level.Trial)
+        public void load() {
+            map = new ConcurrentSkipListMap<>();
+            for (int k = 0; k < KEY_SPACE; k += 2)
+                map.put(k, valueOf(k));
+        }
+    }
+
+    @Benchmark
+    public double tree(Tree tree) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(KEY_SPACE);
+        if (random.nextInt(10) == 0) {
+            tree.tree.insert(k, valueOf(k));
+            return 0;
+        }
+        return tree.tree.get(k);
+    }
+
+    @Benchmark
+    public Double skipList(SkipList skipList) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(KEY_SPACE);
+        if (random.nextInt(10) == 0)
+            return skipList.map.put(k, valueOf(k));
+        return skipList.map.get(k);
+    }
+}
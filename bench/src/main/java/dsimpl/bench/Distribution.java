@@ -0,0 +1,75 @@
+package dsimpl.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Which of size keys, by rank, a sequence of operations touches.
+ */
+public enum Distribution {
+    /**
+     * Ascending ranks from a random start, wrapping around.
+     */
+    SEQUENTIAL {
+        @Override
+        int[] ranks(int count, int size, long seed) {
+            int[] ranks = new int[count];
+            int rank = new SplittableRandom(seed).nextInt(size);
+            for (int i = 0; i < count; i++) {
+                ranks[i] = rank;
+                if (++rank == size) rank = 0;
+            }
+            return ranks;
+        }
+    },
+    UNIFORM {
+        @Override
+        int[] ranks(int count, int size, long seed) {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] ranks = new int[count];
+            for (int i = 0; i < count; i++)
+                ranks[i] = random.nextInt(size);
+            return ranks;
+        }
+    },
+    /**
+     * Zipfian with exponent 0.99, as in YCSB: a few hot keys take most
+     * operations. Popularity is scattered over the key space by a hash, so
+     * the hot keys do not share leaves.
+     */
+    ZIPFIAN {
+        private static final double THETA = 0.99;
+
+        @Override
+        int[] ranks(int count, int size, long seed) {
+            // Gray et al., "Quickly Generating Billion-Record Synthetic Databases"
+            double zetaN = 0;
+            for (int i = 1; i <= size; i++)
+                zetaN += 1 / Math.pow(i, THETA);
+            double zeta2 = 1 + Math.pow(0.5, THETA);
+            double alpha = 1 / (1 - THETA);
+            double eta = (1 - Math.pow(2.0 / size, 1 - THETA)) / (1 - zeta2 / zetaN);
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] ranks = new int[count];
+            for (int i = 0; i < count; i++) {
+                double u = random.nextDouble(), uz = u * zetaN;
+                long item = uz < 1 ? 0
+                        : uz < zeta2 ? 1
+                        : Math.min(size - 1, (long) (size * Math.pow(eta * u - eta + 1, alpha)));
+                ranks[i] = (int) Long.remainderUnsigned(fnv(item), size);
+            }
+            return ranks;
+        }
+
+        private long fnv(long item) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < 8; i++, item >>>= 8)
+                hash = (hash ^ (item & 0xff)) * 0x100000001b3L;
+            return hash;
+        }
+    };
+
+    /**
+     * @return count ranks in [0, size)
+     */
+    abstract int[] ranks(int count, int size, long seed);
+}
@@ -0,0 +1,80 @@
+package dsimpl.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The driver end to end, from reading an instruction file to writing
+ * output_file.txt, which lands in the working directory as usual.
+ * <p>
+ * The file initializes a tree of order M and then mixes 40% inserts, 10%
+ * deletes, 40% searches and 10% range searches over instructions / 2 keys,
+ * chosen by distribution.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DriverBenchmark {
+    private static final int RANGE_WIDTH = 20;
+
+    @Param({"100000", "1000000"})
+    public int instructions;
+
+    @Param({"16", "64", "256"})
+    public int M;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    public Distribution distribution;
+
+    private Path file;
+    private MethodHandle main;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        // the driver lives in the default package, out of reach of imports
+        main = MethodHandles.publicLookup().findStatic(Class.forName("bplustree"), "main",
+                MethodType.methodType(void.class, String[].class));
+        file = Files.createTempFile("instructions", ".txt");
+        int keys = Math.max(1, instructions / 2);
+        int[] ranks = distribution.ranks(instructions, keys, 42);
+        SplittableRandom random = new SplittableRandom(7);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("Initialize(" + M + ")");
+            out.newLine();
+            for (int k : ranks) {
+                int op = random.nextInt(10);
+                if (op < 4)
+                    out.write("Insert(" + k + ", " + (random.nextDouble() - 0.5) * 2e6 + ")");
+                else if (op < 5)
+                    out.write("Delete(" + k + ")");
+                else if (op < 9)
+                    out.write("Search(" + k + ")");
+                else
+                    out.write("Search(" + k + ", " + (k + RANGE_WIDTH) + ")");
+                out.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void run() throws Throwable {
+        main.invokeExact(new String[]{file.toString()});
+    }
+}
@@ -0,0 +1,126 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import dsimpl.DurableBPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static dsimpl.bench.Workload.BATCH;
+
+/**
+ * What durability costs updates: BATCH inserts and deletes of keys drawn
+ * uniformly from [0, KEY_SPACE), applied to a plain {@link BPlusTree} and
+ * to a {@link DurableBPlusTree} in a temporary directory, which group
+ * commits every groupBytes of log or 10 ms and checkpoints every 64 MiB.
+ * groupBytes 13, the size of one insert, syncs after nearly every update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurableBPlusTreeBenchmark {
+    private static final int KEY_SPACE = 1 << 20;
+
+    static void load(Random random, Updates updates) throws IOException {
+        for (int i = 0; i < KEY_SPACE / 2; i++) {
+            int k = random.nextInt(KEY_SPACE);
+            updates.insert(k, k);
+        }
+    }
+
+    interface Updates {
+        void insert(int k, double v) throws IOException;
+
+        void delete(int k) throws IOException;
+    }
+
+    @State(Scope.Thread)
+    public static class Plain implements Updates {
+        final Random random = new Random(42);
+        BPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            tree = new BPlusTree(64);
+            DurableBPlusTreeBenchmark.load(random, this);
+        }
+
+        @Override
+        public void insert(int k, double v) {
+            tree.insert(k, v);
+        }
+
+        @Override
+        public void delete(int k) {
+            tree.delete(k);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Durable implements Updates {
+        @Param({"13", "4096", "65536"})
+        public int groupBytes;
+
+        final Random random = new Random(42);
+        Path directory;
+        DurableBPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            directory = Files.createTempDirectory("bplustree-bench");
+            tree = new DurableBPlusTree(directory, groupBytes, 10_000_000L, 1L << 26);
+            tree.initialize(64);
+            DurableBPlusTreeBenchmark.load(random, this);
+            tree.sync();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            tree.close();
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                    Files.delete(path);
+            }
+        }
+
+        @Override
+        public void insert(int k, double v) throws IOException {
+            tree.insert(k, v);
+        }
+
+        @Override
+        public void delete(int k) throws IOException {
+            tree.delete(k);
+        }
+    }
+
+    private static void update(Random random, Updates updates) throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            int k = random.nextInt(KEY_SPACE);
+            if ((i & 1) == 0)
+                updates.insert(k, k);
+            else
+                updates.delete(k);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void plain(Plain tree) throws IOException {
+        update(tree.random, tree);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void durable(Durable tree) throws IOException {
+        update(tree.random, tree);
+    }
+}
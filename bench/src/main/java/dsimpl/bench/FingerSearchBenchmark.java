@@ -0,0 +1,105 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import dsimpl.TreeStats;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * Operations on a {@link BPlusTree} with and without finger search. SEQUENTIAL
+ * is the local workload it is for, UNIFORM and ZIPFIAN show what it costs
+ * when it misses, and append adds keys past the largest one, as a time-ordered
+ * log does.
+ * <p>
+ * Hit rates are printed after each trial when run with
+ * {@code -jvmArgsAppend -Ddsimpl.stats=true}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FingerSearchBenchmark {
+    private static final double FILL_FACTOR = 0.69;
+
+    public static class Tree extends Workload {
+        @Param({"16", "64", "256"})
+        public int M;
+
+        @Param({"false", "true"})
+        public boolean finger;
+
+        BPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() {
+            int[] keys = generate();
+            double[] values = new double[keys.length];
+            for (int i = 0; i < keys.length; i++)
+                values[i] = keys[i];
+            tree = BPlusTree.bulkLoad(M, keys, values, FILL_FACTOR);
+            tree.setFingerSearch(finger);
+        }
+
+        @TearDown(Level.Trial)
+        public void report() {
+            TreeStats stats = tree.stats();
+            if (stats.getFingerHits() + stats.getFingerMisses() > 0)
+                System.out.printf("%nfinger hit rate %.3f%n", stats.getFingerHitRate());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Insertions {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = absent(tree.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            tree.tree.deleteAll(keys);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Appends {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = present(tree.size + i);
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            tree.tree.deleteAll(keys);
+        }
+    }
+
+    @Benchmark
+    public double get(Tree tree) {
+        return tree.tree.get(present(tree.nextRank()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert(Tree tree, Insertions batch) {
+        for (int k : batch.keys)
+            tree.tree.insert(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void append(Tree tree, Appends batch) {
+        for (int k : batch.keys)
+            tree.tree.insert(k, k);
+    }
+}
@@ -0,0 +1,95 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * Deletes on a {@link BPlusTree} that removes pairs right away, ratio 0,
+ * against one that leaves tombstones until a leaf is ratio tombstones, or,
+ * at 1, until it is compacted. churn deletes a key and inserts it again a
+ * few operations later, which makes an eager tree merge and split the same
+ * leaves over and over.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyDeleteBenchmark {
+    /**
+     * Operations between deleting a key and inserting it again in churn.
+     */
+    private static final int CHURN_DELAY = 8;
+
+    public static class Tree extends Workload {
+        @Param({"16", "64"})
+        public int M;
+
+        @Param({"0", "0.5", "1"})
+        public double ratio;
+
+        /**
+         * 0.5 leaves every leaf one delete away from a merge.
+         */
+        @Param({"0.5", "0.69"})
+        public double fill;
+
+        BPlusTree tree;
+        final int[] churned = new int[CHURN_DELAY];
+        int churnNext;
+
+        @Setup(Level.Trial)
+        public void load() {
+            int[] keys = generate();
+            double[] values = new double[keys.length];
+            for (int i = 0; i < keys.length; i++)
+                values[i] = keys[i];
+            tree = BPlusTree.bulkLoad(M, keys, values, fill);
+            tree.setLazyDeletes(ratio);
+            for (int i = 0; i < CHURN_DELAY; i++)
+                churned[i] = -1;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Deletions {
+        final int[] keys = new int[BATCH];
+        final double[] values = new double[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                values[i] = keys[i] = present(tree.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            tree.tree.insertAll(keys, values);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void delete(Tree tree, Deletions batch) {
+        for (int k : batch.keys)
+            tree.tree.delete(k);
+    }
+
+    /**
+     * One delete and one insert.
+     */
+    @Benchmark
+    public void churn(Tree tree) {
+        int k = present(tree.nextRank());
+        tree.tree.delete(k);
+        int back = tree.churned[tree.churnNext];
+        if (back >= 0)
+            tree.tree.insert(back, back);
+        tree.churned[tree.churnNext] = k;
+        tree.churnNext = (tree.churnNext + 1) % CHURN_DELAY;
+    }
+}
@@ -0,0 +1,197 @@
+package dsimpl.bench;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drives a server started with {@code java bplustree --serve PORT}, or
+ * {@code --serve-all PORT} to be reached from another host, over several
+ * connections, each keeping up to PIPELINE instructions in flight,
+ * and reports instructions per second and latency percentiles:
+ * <pre>
+ * java -cp bench/target/benchmarks.jar dsimpl.bench.LoadGenerator HOST PORT \
+ *     [CONNECTIONS [SECONDS [PIPELINE [WRITES [KEYS]]]]]
+ * </pre>
+ * WRITES of the instructions are Inserts and Deletes, half each, and the
+ * rest are Searches of single keys, all drawn uniformly from [0, KEYS).
+ * Only Searches get a reply, and replies come in order, so an update is
+ * taken as done when the reply to the next Search after it arrives; a
+ * Search is sent at least every PIPELINE instructions. The first second is
+ * not measured.
+ */
+public class LoadGenerator {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    private static final class Connection {
+        final Socket socket;
+        final int pipeline;
+        final double writes;
+        final int keys;
+        final Random random;
+        final Semaphore window;
+        // send times of the instructions in flight, by sequence number modulo
+        // pipeline, shifted left by one with the low bit set for a Search
+        final AtomicLongArray sent;
+        long[] latencies = new long[1 << 16];
+        int measured;
+        volatile boolean running = true;
+        IOException failure;
+
+        Connection(String host, int port, int pipeline, double writes, int keys, long seed) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            this.pipeline = pipeline;
+            this.writes = writes;
+            this.keys = keys;
+            random = new Random(seed);
+            window = new Semaphore(pipeline);
+            sent = new AtomicLongArray(pipeline);
+        }
+
+        /**
+         * Send instructions until told to stop, then one last Search so that
+         * everything sent gets a reply.
+         */
+        void send(long start) {
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                        StandardCharsets.US_ASCII), 1 << 16);
+                for (long seq = 0; ; seq++) {
+                    if (!window.tryAcquire()) {
+                        out.flush();
+                        window.acquire();
+                    }
+                    boolean stop = !running;
+                    int k = random.nextInt(keys);
+                    double r = random.nextDouble();
+                    boolean search = stop || r >= writes || seq % pipeline == pipeline - 1;
+                    sent.set((int) (seq % pipeline), (System.nanoTime() - start) << 1 | (search ? 1 : 0));
+                    if (search)
+                        out.write("Search(" + k + ")\n");
+                    else if (r < writes / 2)
+                        out.write("Insert(" + k + ", " + k + ")\n");
+                    else
+                        out.write("Delete(" + k + ")\n");
+                    if (stop)
+                        break;
+                }
+                out.flush();
+                socket.shutdownOutput();
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Read replies until the server closes the connection, timing every
+         * instruction a reply acknowledges.
+         */
+        void receive(long start) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.US_ASCII), 1 << 16);
+                long acknowledged = 0;
+                while (in.readLine() != null) {
+                    long now = System.nanoTime() - start;
+                    int n = 0;
+                    for (boolean search = false; !search; n++) {
+                        long s = sent.get((int) (acknowledged++ % pipeline));
+                        search = (s & 1) != 0;
+                        if ((s >> 1) >= WARMUP_NANOS && running) {
+                            if (measured == latencies.length)
+                                latencies = Arrays.copyOf(latencies, measured << 1);
+                            latencies[measured++] = now - (s >> 1);
+                        }
+                    }
+                    window.release(n);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Insert every other key, so that Searches find half of them.
+     */
+    private static void preload(String host, int port, int keys) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.US_ASCII), 1 << 16);
+            // a server that has a tree already replies that it cannot be reinitialized
+            out.write("Initialize(64)\n");
+            for (int k = 0; k < keys; k += 2)
+                out.write("Insert(" + k + ", " + k + ")\n");
+            out.flush();
+            socket.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII));
+            while (in.readLine() != null) ;
+        }
+    }
+
+    private static long percentile(long[] sorted, int n, double p) {
+        return sorted[Math.min(n - 1, (int) (p * n))];
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator HOST PORT [CONNECTIONS [SECONDS [PIPELINE [WRITES [KEYS]]]]]");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int pipeline = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        double writes = args.length > 5 ? Double.parseDouble(args[5]) : 0.5;
+        int keys = args.length > 6 ? Integer.parseInt(args[6]) : 1_000_000;
+
+        preload(host, port, keys);
+        Connection[] clients = new Connection[connections];
+        Thread[] threads = new Thread[2 * connections];
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            Connection c = clients[i] = new Connection(host, port, pipeline, writes, keys, i);
+            threads[2 * i] = new Thread(() -> c.send(start), "load-send-" + i);
+            threads[2 * i + 1] = new Thread(() -> c.receive(start), "load-receive-" + i);
+        }
+        for (Thread thread : threads)
+            thread.start();
+        Thread.sleep(WARMUP_NANOS / 1_000_000 + seconds * 1000L);
+        long measuredNanos = System.nanoTime() - start - WARMUP_NANOS;
+        for (Connection c : clients)
+            c.running = false;
+        for (Thread thread : threads)
+            thread.join();
+
+        int n = 0;
+        for (Connection c : clients) {
+            if (c.failure != null)
+                throw c.failure;
+            c.socket.close();
+            n += c.measured;
+        }
+        long[] all = new long[n];
+        n = 0;
+        for (Connection c : clients) {
+            System.arraycopy(c.latencies, 0, all, n, c.measured);
+            n += c.measured;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d connections, pipeline %d, %.0f%% writes, %d keys%n",
+                connections, pipeline, writes * 100, keys);
+        System.out.printf("%.0f instructions/s%n", n * 1e9 / measuredNanos);
+        if (n > 0)
+            System.out.printf("latency us: p50 %.1f, p99 %.1f, p999 %.1f, max %.1f%n",
+                    percentile(all, n, 0.5) / 1e3, percentile(all, n, 0.99) / 1e3,
+                    percentile(all, n, 0.999) / 1e3, all[n - 1] / 1e3);
+    }
+}
@@ -0,0 +1,134 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import dsimpl.OffHeapBPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * Operations on an {@link OffHeapBPlusTree} against a {@link BPlusTree} of
+ * the same order. Both are loaded by inserting the keys in random order, as
+ * the off-heap tree has no bulk load, so that their nodes are equally full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffHeapBPlusTreeBenchmark {
+    public enum Storage {HEAP, OFF_HEAP}
+
+    public static class Tree extends Workload {
+        @Param({"16", "64", "256"})
+        public int M;
+
+        @Param
+        public Storage storage;
+
+        BPlusTree heap;
+        OffHeapBPlusTree offHeap;
+
+        @Setup(Level.Trial)
+        public void load() {
+            int[] keys = generate();
+            SplittableRandom random = new SplittableRandom(7);
+            for (int i = keys.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1), k = keys[i];
+                keys[i] = keys[j];
+                keys[j] = k;
+            }
+            if (storage == Storage.HEAP) {
+                heap = new BPlusTree(M);
+                for (int k : keys)
+                    heap.insert(k, k);
+            } else {
+                offHeap = new OffHeapBPlusTree(M);
+                for (int k : keys)
+                    offHeap.insert(k, k);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            if (offHeap != null)
+                offHeap.close();
+        }
+
+        double get(int k) {
+            return heap != null ? heap.get(k) : offHeap.get(k);
+        }
+
+        void insert(int k, double v) {
+            if (heap != null) heap.insert(k, v);
+            else offHeap.insert(k, v);
+        }
+
+        void delete(int k) {
+            if (heap != null) heap.delete(k);
+            else offHeap.delete(k);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Insertions {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = absent(tree.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            for (int k : keys)
+                tree.delete(k);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Deletions {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Tree tree) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = present(tree.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Tree tree) {
+            for (int k : keys)
+                tree.insert(k, k);
+        }
+    }
+
+    @Benchmark
+    public double get(Tree tree) {
+        return tree.get(present(tree.nextRank()));
+    }
+
+    @Benchmark
+    public int range(Tree tree) {
+        int l = present(tree.nextRank()), r = rangeEnd(l);
+        return tree.heap != null ? tree.heap.range(l, r, tree.rangeBuffer) : tree.offHeap.range(l, r, tree.rangeBuffer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert(Tree tree, Insertions batch) {
+        for (int k : batch.keys)
+            tree.insert(k, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void delete(Tree tree, Deletions batch) {
+        for (int k : batch.keys)
+            tree.delete(k);
+    }
+}
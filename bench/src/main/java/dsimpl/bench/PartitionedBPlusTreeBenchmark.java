@@ -0,0 +1,61 @@
+package dsimpl.bench;
+
+import dsimpl.PartitionedBPlusTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.BATCH;
+
+/**
+ * Writes to a {@link PartitionedBPlusTree} shared by all benchmark threads,
+ * for sweeping partitions against writer threads, e.g. {@code -t 1},
+ * {@code -t 4}. Each invocation queues BATCH inserts and deletes of keys
+ * drawn uniformly from the whole int range, which spreads them over every
+ * partition, then waits for them to be applied.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionedBPlusTreeBenchmark {
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        @Param({"1", "2", "4", "8"})
+        public int partitions;
+
+        PartitionedBPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() {
+            tree = new PartitionedBPlusTree(64, partitions);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < INITIAL_SIZE; i++)
+                tree.insert(random.nextInt(), i);
+            tree.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            tree.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void update(Tree tree) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < BATCH; i++) {
+            int k = random.nextInt();
+            if ((i & 1) == 0)
+                tree.tree.insert(k, k);
+            else
+                tree.tree.delete(k);
+        }
+        tree.tree.flush();
+    }
+}
@@ -0,0 +1,68 @@
+package dsimpl.bench;
+
+import dsimpl.BPlusTree;
+import dsimpl.SplitPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * Scans of a {@link BPlusTree} grown by inserting its keys one at a time,
+ * in increasing order for SEQUENTIAL and shuffled otherwise, under each
+ * {@link SplitPolicy#forName split policy}. The fill factor of the leaves
+ * is printed after each trial. scan visits every pair, and range visits
+ * RANGE_LENGTH keys from one drawn from distribution.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitPolicyBenchmark {
+    public static class Tree extends Workload {
+        @Param({"16", "64", "256"})
+        public int M;
+
+        @Param({"even", "append", "0.9"})
+        public String policy;
+
+        BPlusTree tree;
+
+        @Setup(Level.Trial)
+        public void load() {
+            int[] keys = generate();
+            if (distribution != Distribution.SEQUENTIAL) {
+                Random random = new Random(42);
+                for (int i = keys.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1), t = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = t;
+                }
+            }
+            tree = new BPlusTree(M);
+            tree.setSplitPolicy(SplitPolicy.forName(policy));
+            for (int k : keys)
+                tree.insert(k, k);
+        }
+
+        @TearDown(Level.Trial)
+        public void report() {
+            System.out.printf("%nfill factor %.3f%n", tree.stats().getFillFactor());
+        }
+    }
+
+    @Benchmark
+    public void scan(Tree tree, Blackhole bh) {
+        tree.tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE, (k, v) -> bh.consume(v));
+    }
+
+    @Benchmark
+    public void range(Tree tree, Blackhole bh) {
+        int l = present(tree.nextRank());
+        tree.tree.range(l, rangeEnd(l), (k, v) -> bh.consume(v));
+    }
+}
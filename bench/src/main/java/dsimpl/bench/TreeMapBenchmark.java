@@ -0,0 +1,91 @@
+package dsimpl.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static dsimpl.bench.Workload.*;
+
+/**
+ * The workloads of {@link BPlusTreeBenchmark} on a {@link TreeMap}, as the
+ * baseline to beat.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeMapBenchmark {
+    public static class Map extends Workload {
+        TreeMap<Integer, Double> map;
+
+        @Setup(Level.Trial)
+        public void load() {
+            map = new TreeMap<>();
+            for (int k : generate())
+                map.put(k, (double) k);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Insertions {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Map map) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = absent(map.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Map map) {
+            for (int k : keys)
+                map.map.remove(k);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Deletions {
+        final int[] keys = new int[BATCH];
+
+        @Setup(Level.Invocation)
+        public void next(Map map) {
+            for (int i = 0; i < BATCH; i++)
+                keys[i] = present(map.nextRank());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo(Map map) {
+            for (int k : keys)
+                map.map.put(k, (double) k);
+        }
+    }
+
+    @Benchmark
+    public Double get(Map map) {
+        return map.map.get(present(map.nextRank()));
+    }
+
+    @Benchmark
+    public int range(Map map) {
+        int l = present(map.nextRank()), n = 0;
+        for (double v : map.map.subMap(l, true, rangeEnd(l), true).values())
+            map.rangeBuffer[n++] = v;
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insert(Map map, Insertions batch) {
+        for (int k : batch.keys)
+            map.map.putIfAbsent(k, (double) k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void delete(Map map, Deletions batch) {
+        for (int k : batch.keys)
+            map.map.remove(k);
+    }
+}
@@ -0,0 +1,74 @@
+package dsimpl.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A map holding size keys, the even numbers 0, 2, ..., 2 * (size - 1), each
+ * mapped to itself, and the keys operations go to, drawn from distribution.
+ * Odd keys are never present, so inserting one always adds a pair.
+ * <p>
+ * Sizes up to 10^8 work given the heap, e.g.
+ * {@code -p size=100000000 -jvmArgsAppend -Xmx16g}.
+ */
+@State(Scope.Thread)
+public abstract class Workload {
+    /**
+     * Operations per invocation of insert and delete, which are undone
+     * between invocations so the map keeps its size.
+     */
+    public static final int BATCH = 1 << 10;
+    /**
+     * Keys a range visits.
+     */
+    public static final int RANGE_LENGTH = 100;
+
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    public Distribution distribution;
+
+    private int[] ranks;
+    private int next;
+
+    final double[] rangeBuffer = new double[RANGE_LENGTH];
+
+    /**
+     * @return the sorted keys the map starts with
+     */
+    int[] generate() {
+        ranks = distribution.ranks(QUERIES, size, 42);
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = present(i);
+        return keys;
+    }
+
+    /**
+     * @return the rank of the key the next operation goes to
+     */
+    int nextRank() {
+        int rank = ranks[next];
+        next = (next + 1) & (QUERIES - 1);
+        return rank;
+    }
+
+    static int present(int rank) {
+        return rank << 1;
+    }
+
+    static int absent(int rank) {
+        return rank << 1 | 1;
+    }
+
+    /**
+     * @return the largest key of a range starting at key l
+     */
+    static int rangeEnd(int l) {
+        return l + 2 * (RANGE_LENGTH - 1);
+    }
+}
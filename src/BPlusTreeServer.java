@@ -0,0 +1,157 @@
+import dsimpl.DurableBPlusTree;
+import dsimpl.InstructionReader;
+import dsimpl.OutputBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the instructions of {@link bplustree} over TCP, as
+ * {@code java bplustree --serve|--serve-all PORT [WAL_DIRECTORY]}. A connection sends
+ * instructions line by line and gets back what the driver would have printed
+ * for them, error messages included, in order.
+ * <p>
+ * Anyone who can connect may update the tree, so the server listens on the
+ * loopback address only, unless started with {@code --serve-all} instead,
+ * which listens on every interface.
+ * <p>
+ * All connections share one tree, initialized by the first Initialize any
+ * of them sends. Each connection has a thread of its own, which parses
+ * whatever has arrived, applies it holding the tree and writes the replies;
+ * they are flushed once nothing more has arrived, so a client that pipelines
+ * instructions gets their replies in as few packets. A range scan lets go of
+ * the tree whenever it hands off a full Results, so a client slow to read a
+ * long scan does not hold up the others, and the scan, resuming past the last
+ * key it reached, sees updates made meanwhile.
+ */
+final class BPlusTreeServer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock; only ever has the handoff of the connection holding it
+    private final bplustree.Applier applier;
+
+    /**
+     * @param address where to listen, or null for every interface
+     */
+    BPlusTreeServer(InetAddress address, int port, DurableBPlusTree durable) throws IOException {
+        serverSocket = new ServerSocket(port, 0, address);
+        AtomicInteger connections = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(task ->
+                bplustree.daemon("bplustree-connection-" + connections.incrementAndGet(), task));
+        applier = new bplustree.Applier(durable, null);
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept connections until closed.
+     */
+    void serve() throws IOException {
+        try {
+            while (true) {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                executor.execute(() -> new Connection(client).run());
+            }
+        } catch (SocketException e) {
+            if (!serverSocket.isClosed())
+                throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdown();
+        for (Socket client : clients)
+            client.close();
+        lock.lock();
+        try {
+            applier.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private final class Connection implements bplustree.Applier.Handoff {
+        private final Socket client;
+        private OutputBuffer out;
+        private boolean midLine;
+
+        Connection(Socket client) {
+            this.client = client;
+        }
+
+        void run() {
+            try (
+                    client;
+                    InstructionReader reader = new InstructionReader(client.getInputStream(), BUFFER_SIZE);
+                    OutputBuffer out = new OutputBuffer(client.getOutputStream(), BUFFER_SIZE)
+            ) {
+                this.out = out;
+                client.setTcpNoDelay(true);
+                bplustree.Instructions batch = new bplustree.Instructions();
+                bplustree.Results results = new bplustree.Results();
+                do {
+                    bplustree.parse(reader, batch, true);
+                    results.clear();
+                    lock.lockInterruptibly();
+                    try {
+                        applier.handoff = this;
+                        results = applier.apply(batch, results);
+                    } finally {
+                        lock.unlock();
+                    }
+                    midLine = bplustree.print(results, out, midLine, out);
+                    if (batch.last || !reader.ready())
+                        out.flush();
+                } while (!batch.last);
+            } catch (IOException e) {
+                // the client went away, or the server is closing
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                clients.remove(client);
+            }
+        }
+
+        /**
+         * Write out a Results a scan filled up, without holding the tree.
+         */
+        @Override
+        public bplustree.Results exchange(bplustree.Results full) throws IOException, InterruptedException {
+            lock.unlock();
+            try {
+                midLine = bplustree.print(full, out, midLine, out);
+            } finally {
+                lock.lock();
+                applier.handoff = this;
+            }
+            full.clear();
+            return full;
+        }
+    }
+
+    static void run(InetAddress address, int port, DurableBPlusTree durable) throws IOException {
+        try (BPlusTreeServer server = new BPlusTreeServer(address, port, durable)) {
+            System.err.println("Serving on " + server.serverSocket.getLocalSocketAddress() + ".");
+            server.serve();
+        }
+    }
+}
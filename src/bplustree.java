@@ -1,6 +1,19 @@
 import dsimpl.BPlusTree;
+import dsimpl.DurableBPlusTree;
+import dsimpl.InstructionReader;
+import dsimpl.IntDoubleConsumer;
+import dsimpl.OutputBuffer;
+import dsimpl.SplitPolicy;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class bplustree {
     static class MalformedInstructionException extends Exception {
@@ -18,78 +31,619 @@ public class bplustree {
 
     public static final String OUTPUT_FILENAME = "output_file.txt";
 
-    public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Usage: java bplustree FILENAME");
-            return;
+    /**
+     * Instructions per batch handed between pipeline stages, and batches per
+     * stage; together they bound the memory of the pipeline.
+     */
+    static final int BATCH_SIZE = 1 << 12, QUEUE_DEPTH = 4;
+    /**
+     * Values of range scans a Results holds at most; a scan that goes on is
+     * continued in the next one, so no result is ever held whole.
+     */
+    static final int STREAM_LIMIT = 1 << 12;
+
+    /**
+     * A batch of parsed instructions, as columns. badNumber marks an
+     * instruction with an argument that is not a number; whether that gets
+     * reported depends on the checks that come before it.
+     */
+    static final class Instructions {
+        final byte[] command = new byte[BATCH_SIZE], argCount = new byte[BATCH_SIZE];
+        final boolean[] badNumber = new boolean[BATCH_SIZE];
+        final int[] key = new int[BATCH_SIZE], key2 = new int[BATCH_SIZE], limit = new int[BATCH_SIZE];
+        final double[] value = new double[BATCH_SIZE];
+        int size;
+        boolean last;
+    }
+
+    /**
+     * What a batch of instructions prints, line by line: either values,
+     * count[i] of them taken in turn from values, an integer, held exactly by
+     * the next value, or an error. A line of values may start as PARTIAL
+     * values in one Results and go on in the next ones.
+     */
+    static final class Results {
+        static final byte VALUES = 0, MALFORMED = 1, REINITIALIZATION = 2, NOT_INITIALIZED = 3, NUMBER_FORMAT = 4,
+                INTEGER = 5, PARTIAL = 6;
+
+        final byte[] kind = new byte[BATCH_SIZE];
+        final int[] count = new int[BATCH_SIZE];
+        double[] values = new double[BATCH_SIZE];
+        int size, valueCount, streamed;
+        boolean last;
+
+        void clear() {
+            size = valueCount = streamed = 0;
+            last = false;
         }
-        try (
-                BufferedReader br = new BufferedReader(new FileReader(args[0]));
-                PrintStream ps = new PrintStream(OUTPUT_FILENAME)
-        ) {
-            String line;
-            BPlusTree bPlusTree = null;
-            while ((line = br.readLine()) != null) {
-                String[] tokens = line.split("[\\(,\\)]");
-                for (int i = 0; i < tokens.length; i++) {
-                    tokens[i] = tokens[i].trim();
+
+        /**
+         * @return values, grown so that n more values fit after valueCount
+         */
+        double[] reserve(int n) {
+            if (values.length - valueCount < n) {
+                double[] grown = new double[Math.max(values.length << 1, valueCount + n)];
+                System.arraycopy(values, 0, grown, 0, valueCount);
+                values = grown;
+            }
+            return values;
+        }
+
+        void line(int n) {
+            kind[size] = VALUES;
+            count[size++] = n;
+            valueCount += n;
+        }
+
+        /**
+         * Add n values that the next line of values goes on from.
+         */
+        void part(int n) {
+            kind[size] = PARTIAL;
+            count[size++] = n;
+            valueCount += n;
+        }
+
+        void value(double v) {
+            reserve(1)[valueCount] = v;
+            line(1);
+        }
+
+        void integer(int n) {
+            reserve(1)[valueCount++] = n;
+            kind[size++] = INTEGER;
+        }
+
+        void error(byte kind) {
+            this.kind[size++] = kind;
+        }
+    }
+
+    static void parse(InstructionReader reader, Instructions batch) throws IOException {
+        parse(reader, batch, false);
+    }
+
+    /**
+     * @param burst whether to stop early, before a line that has not arrived
+     *              yet, once the batch holds an instruction
+     */
+    static void parse(InstructionReader reader, Instructions batch, boolean burst) throws IOException {
+        batch.size = 0;
+        boolean more = true;
+        while (batch.size < BATCH_SIZE && (!burst || batch.size == 0 || reader.ready()) && (more = reader.next())) {
+            int i = batch.size++;
+            int command = reader.command(), argCount = reader.argCount();
+            batch.command[i] = (byte) command;
+            batch.argCount[i] = (byte) Math.min(argCount, 4);
+            batch.badNumber[i] = false;
+            try {
+                switch (command) {
+                    case InstructionReader.INITIALIZE:
+                    case InstructionReader.DELETE:
+                        if (argCount == 1)
+                            batch.key[i] = reader.intArg(0);
+                        break;
+                    case InstructionReader.INSERT:
+                        if (argCount == 2) {
+                            batch.key[i] = reader.intArg(0);
+                            batch.value[i] = reader.doubleArg(1);
+                        }
+                        break;
+                    case InstructionReader.SEARCH:
+                        if (argCount == 1 || argCount == 2)
+                            batch.key[i] = reader.intArg(0);
+                        if (argCount == 2)
+                            batch.key2[i] = reader.intArg(1);
+                        break;
+                    case InstructionReader.SEARCH_LIMIT:
+                        if (argCount == 3) {
+                            batch.key[i] = reader.intArg(0);
+                            batch.key2[i] = reader.intArg(1);
+                            batch.limit[i] = reader.intArg(2);
+                        }
+                        break;
+                    case InstructionReader.SEARCH_DESC:
+                    case InstructionReader.RANGE_COUNT:
+                    case InstructionReader.RANGE_SUM:
+                    case InstructionReader.RANGE_MIN:
+                    case InstructionReader.RANGE_MAX:
+                        if (argCount == 2) {
+                            batch.key[i] = reader.intArg(0);
+                            batch.key2[i] = reader.intArg(1);
+                        }
+                        break;
+                    case InstructionReader.RANK:
+                    case InstructionReader.SELECT:
+                        if (argCount == 1)
+                            batch.key[i] = reader.intArg(0);
+                        break;
                 }
+            } catch (NumberFormatException e) {
+                batch.badNumber[i] = true;
+            }
+        }
+        batch.last = !more;
+    }
+
+    /**
+     * Applies instructions to the tree, checking them in the same order as
+     * they always were, so the same error is reported for every instruction.
+     */
+    static final class Applier {
+        private static final boolean FINGER_SEARCH = Boolean.getBoolean("dsimpl.finger");
+        private static final String SPLIT_POLICY = System.getProperty("dsimpl.split");
+        private static final AtomicInteger TREES = new AtomicInteger();
+
+        /**
+         * Takes a Results that filled up in the middle of a batch on to the
+         * printer, in exchange for an empty one.
+         */
+        interface Handoff {
+            Results exchange(Results full) throws IOException, InterruptedException;
+        }
+
+        final DurableBPlusTree durable;
+        final Sink sink = new Sink();
+        Handoff handoff;
+        BPlusTree bPlusTree;
+        // the name the tree is registered with JMX under, if it is
+        private ObjectName registered;
+
+        Applier(DurableBPlusTree durable, Handoff handoff) {
+            this.durable = durable;
+            this.handoff = handoff;
+            bPlusTree = durable == null ? null : durable.tree();
+            setUp(bPlusTree);
+        }
+
+        /**
+         * With -Ddsimpl.finger=true, start updates and searches from the leaf
+         * the last one went to, which suits sorted input, and with
+         * -Ddsimpl.split=append, or even or a ratio, split nodes as
+         * {@link SplitPolicy#forName} says. With instrumentation on, let JMX
+         * clients watch the tree, as bplustree-N for the Nth tree of the
+         * process, until the applier is closed.
+         */
+        private void setUp(BPlusTree tree) {
+            if (tree == null) return;
+            if (FINGER_SEARCH) tree.setFingerSearch(true);
+            if (SPLIT_POLICY != null) tree.setSplitPolicy(SplitPolicy.forName(SPLIT_POLICY));
+            if (!BPlusTree.INSTRUMENTED) return;
+            try {
+                ObjectName name = new ObjectName("dsimpl:type=BPlusTree,name=bplustree-" + TREES.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(tree.mxBean(), name);
+                registered = name;
+            } catch (JMException e) {
+                System.err.println("Cannot register the tree with JMX: " + e);
+            }
+        }
+
+        /**
+         * Let go of the JMX registration of the tree, if any.
+         */
+        void close() {
+            if (registered == null) return;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+            } catch (JMException e) {
+                // already unregistered
+            }
+            registered = null;
+        }
+
+        private static void checkNumbers(Instructions in, int i) {
+            if (in.badNumber[i]) throw new NumberFormatException();
+        }
+
+        /**
+         * Copies the values a scan reports into dst, from at on.
+         */
+        static final class Sink implements IntDoubleConsumer {
+            double[] dst;
+            int at, lastKey;
+
+            @Override
+            public void accept(int k, double v) {
+                dst[at++] = v;
+                lastKey = k;
+            }
+        }
+
+        /**
+         * Add the values of the first limit entries with l <= k <= r, in
+         * ascending or descending key order, as one line. Whenever out holds
+         * STREAM_LIMIT scanned values it is handed off, and the scan resumes
+         * past the last key it reached.
+         *
+         * @return the Results the line ends in
+         */
+        private Results scan(Results out, int l, int r, int limit, boolean descending)
+                throws IOException, InterruptedException {
+            limit = Math.max(limit, 0);
+            while (true) {
+                if (out.streamed == STREAM_LIMIT)
+                    out = handoff.exchange(out);
+                int chunk = Math.min(limit, STREAM_LIMIT - out.streamed);
+                sink.dst = out.reserve(chunk);
+                sink.at = out.valueCount;
+                int n = descending ? bPlusTree.rangeDescending(l, r, chunk, sink)
+                        : bPlusTree.rangeLimit(l, r, chunk, sink);
+                limit -= n;
+                out.streamed += n;
+                if (n < chunk || limit == 0 || sink.lastKey == (descending ? l : r)) {
+                    out.line(n);
+                    return out;
+                }
+                out.part(n);
+                if (descending)
+                    r = sink.lastKey - 1;
+                else
+                    l = sink.lastKey + 1;
+            }
+        }
+
+        /**
+         * @return the Results the output of the batch ends in, out unless a
+         * range scan filled it up and handed it off
+         */
+        Results apply(Instructions in, Results out) throws IOException, InterruptedException {
+            for (int i = 0; i < in.size; i++) {
                 try {
-                    switch (tokens[0]) {
-                        case "Initialize":
-                            if (tokens.length != 2) throw new MalformedInstructionException();
+                    switch (in.command[i]) {
+                        case InstructionReader.INITIALIZE:
+                            if (in.argCount[i] != 1) throw new MalformedInstructionException();
                             if (bPlusTree == null) {
-                                bPlusTree = new BPlusTree(Integer.valueOf(tokens[1]));
+                                checkNumbers(in, i);
+                                if (durable != null) {
+                                    durable.initialize(in.key[i]);
+                                    bPlusTree = durable.tree();
+                                } else {
+                                    bPlusTree = new BPlusTree(in.key[i]);
+                                }
+                                setUp(bPlusTree);
                             } else {
                                 throw new ReinitializationException();
                             }
                             break;
-                        case "Insert":
+                        case InstructionReader.INSERT:
                             if (bPlusTree == null) throw new NotInitializedException();
-                            if (tokens.length != 3) throw new MalformedInstructionException();
-                            bPlusTree.insert(Integer.valueOf(tokens[1]), Double.valueOf(tokens[2]));
+                            if (in.argCount[i] != 2) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            if (durable != null)
+                                durable.insert(in.key[i], in.value[i]);
+                            else
+                                bPlusTree.insert(in.key[i], in.value[i]);
                             break;
-                        case "Delete":
+                        case InstructionReader.DELETE:
                             if (bPlusTree == null) throw new NotInitializedException();
-                            if (tokens.length != 2) throw new MalformedInstructionException();
-                            bPlusTree.delete(Integer.valueOf(tokens[1]));
+                            if (in.argCount[i] != 1) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            if (durable != null)
+                                durable.delete(in.key[i]);
+                            else
+                                bPlusTree.delete(in.key[i]);
                             break;
-                        case "Search":
+                        case InstructionReader.SEARCH:
                             if (bPlusTree == null) throw new NotInitializedException();
-                            if (tokens.length == 2) {
-                                Double res = bPlusTree.get(Integer.valueOf(tokens[1]));
-                                ps.println(res);
-                            } else if (tokens.length == 3) {
-                                double[] resArr = bPlusTree.range(
-                                        Integer.valueOf(tokens[1]), Integer.valueOf(tokens[2]));
-                                StringBuilder sb = new StringBuilder();
-                                for (int i = 0; i < resArr.length; i++) {
-                                    if (i != 0)
-                                        sb.append(',');
-                                    sb.append(resArr[i]);
-                                }
-                                ps.println(sb.toString());
+                            if (in.argCount[i] == 1) {
+                                checkNumbers(in, i);
+                                out.value(bPlusTree.get(in.key[i]));
+                            } else if (in.argCount[i] == 2) {
+                                checkNumbers(in, i);
+                                out = scan(out, in.key[i], in.key2[i], Integer.MAX_VALUE, false);
                             } else {
                                 throw new MalformedInstructionException();
                             }
                             break;
+                        case InstructionReader.SEARCH_LIMIT:
+                            if (bPlusTree == null) throw new NotInitializedException();
+                            if (in.argCount[i] != 3) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            out = scan(out, in.key[i], in.key2[i], in.limit[i], false);
+                            break;
+                        case InstructionReader.SEARCH_DESC:
+                            if (bPlusTree == null) throw new NotInitializedException();
+                            if (in.argCount[i] != 2) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            out = scan(out, in.key[i], in.key2[i], Integer.MAX_VALUE, true);
+                            break;
+                        case InstructionReader.RANGE_COUNT:
+                        case InstructionReader.RANGE_SUM:
+                        case InstructionReader.RANGE_MIN:
+                        case InstructionReader.RANGE_MAX: {
+                            if (bPlusTree == null) throw new NotInitializedException();
+                            if (in.argCount[i] != 2) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            int l = in.key[i], r = in.key2[i];
+                            switch (in.command[i]) {
+                                case InstructionReader.RANGE_COUNT:
+                                    out.integer(bPlusTree.rangeCount(l, r));
+                                    break;
+                                case InstructionReader.RANGE_SUM:
+                                    out.value(bPlusTree.rangeSum(l, r));
+                                    break;
+                                case InstructionReader.RANGE_MIN:
+                                    out.value(bPlusTree.rangeMin(l, r));
+                                    break;
+                                default:
+                                    out.value(bPlusTree.rangeMax(l, r));
+                            }
+                            break;
+                        }
+                        case InstructionReader.RANK:
+                            if (bPlusTree == null) throw new NotInitializedException();
+                            if (in.argCount[i] != 1) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            out.integer(bPlusTree.rank(in.key[i]));
+                            break;
+                        case InstructionReader.SELECT:
+                            if (bPlusTree == null) throw new NotInitializedException();
+                            if (in.argCount[i] != 1) throw new MalformedInstructionException();
+                            checkNumbers(in, i);
+                            // like a Search for a missing key, a rank out of range prints NaN
+                            if (in.key[i] >= 0 && in.key[i] < bPlusTree.size())
+                                out.integer(bPlusTree.select(in.key[i]));
+                            else
+                                out.value(Double.NaN);
+                            break;
                         default:
                             throw new MalformedInstructionException();
                     }
                 } catch (MalformedInstructionException e) {
-                    System.err.println("Malformed Instruction.");
+                    out.error(Results.MALFORMED);
                 } catch (ReinitializationException e) {
-                    System.err.println("Reinitialization is not allowed.");
+                    out.error(Results.REINITIALIZATION);
                 } catch (NotInitializedException e) {
-                    System.err.println("B+Tree has not been initialized yet.");
+                    out.error(Results.NOT_INITIALIZED);
                 } catch (NumberFormatException e) {
-                    System.err.println("Number format is wrong.");
+                    out.error(Results.NUMBER_FORMAT);
                 }
             }
+            return out;
+        }
+    }
+
+    static boolean print(Results results, OutputBuffer out, boolean midLine) throws IOException {
+        return print(results, out, midLine, null);
+    }
+
+    /**
+     * @param midLine whether the last Results printed ended within a line of
+     *                values that has values already
+     * @param errors  where error messages go, or null for System.err
+     * @return whether results ends within such a line
+     */
+    static boolean print(Results results, OutputBuffer out, boolean midLine, OutputBuffer errors) throws IOException {
+        for (int i = 0, v = 0; i < results.size; i++) {
+            switch (results.kind[i]) {
+                case Results.VALUES:
+                case Results.PARTIAL:
+                    for (int j = 0; j < results.count[i]; j++, midLine = true) {
+                        if (midLine)
+                            out.print(',');
+                        out.print(results.values[v++]);
+                    }
+                    if (results.kind[i] == Results.VALUES) {
+                        out.println();
+                        midLine = false;
+                    }
+                    break;
+                case Results.INTEGER:
+                    out.print((long) results.values[v++]).println();
+                    break;
+                case Results.MALFORMED:
+                    error("Malformed Instruction.", errors);
+                    break;
+                case Results.REINITIALIZATION:
+                    error("Reinitialization is not allowed.", errors);
+                    break;
+                case Results.NOT_INITIALIZED:
+                    error("B+Tree has not been initialized yet.", errors);
+                    break;
+                case Results.NUMBER_FORMAT:
+                    error("Number format is wrong.", errors);
+                    break;
+                default:
+                    throw new Error("IMPOSSIBLE ERROR");
+            }
+        }
+        return midLine;
+    }
+
+    private static void error(String message, OutputBuffer errors) throws IOException {
+        if (errors == null)
+            System.err.println(message);
+        else
+            errors.print(message).println();
+    }
+
+    static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) throw (IOException) t;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        throw new Error(t);
+    }
+
+    /**
+     * Parse on one thread, apply to the tree on the calling thread and print
+     * on a third, so that the three overlap. Batches go from stage to stage
+     * through bounded queues, in order, and come back empty through free
+     * queues; as exactly QUEUE_DEPTH batches of each kind exist, handing a
+     * batch on never blocks.
+     */
+    static void run(InstructionReader reader, OutputBuffer out, DurableBPlusTree durable) throws IOException {
+        BlockingQueue<Instructions> freeInstructions = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+        BlockingQueue<Instructions> parsed = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+        BlockingQueue<Results> freeResults = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+        BlockingQueue<Results> applied = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+        for (int i = 0; i < QUEUE_DEPTH; i++) {
+            freeInstructions.add(new Instructions());
+            freeResults.add(new Results());
+        }
+        // what stopped the parser or the printer early; published by the queues
+        Throwable[] failures = new Throwable[2];
+
+        Thread parser = daemon("bplustree-parser", () -> {
+            try {
+                for (boolean last = false; !last; ) {
+                    Instructions batch = freeInstructions.take();
+                    try {
+                        parse(reader, batch);
+                    } catch (Throwable t) {
+                        failures[0] = t;
+                        batch.last = true;
+                    }
+                    last = batch.last;
+                    parsed.add(batch);
+                }
+            } catch (InterruptedException e) {
+                // the applier gave up
+            }
+        });
+        Thread printer = daemon("bplustree-printer", () -> {
+            try {
+                boolean midLine = false;
+                for (boolean last = false; !last; ) {
+                    Results batch = applied.take();
+                    // after a failure, keep recycling batches so the applier never stalls
+                    if (failures[1] == null)
+                        try {
+                            midLine = print(batch, out, midLine);
+                        } catch (Throwable t) {
+                            failures[1] = t;
+                        }
+                    last = batch.last;
+                    freeResults.add(batch);
+                }
+            } catch (InterruptedException e) {
+                // the applier gave up
+            }
+        });
+        parser.start();
+        printer.start();
+
+        // the Results the applier is filling, null between batches
+        Results[] results = new Results[1];
+        Applier applier = new Applier(durable, full -> {
+            applied.add(full);
+            results[0] = freeResults.take();
+            results[0].clear();
+            return results[0];
+        });
+        boolean printerDone = false;
+        try {
+            for (boolean last = false; !last; ) {
+                Instructions batch = parsed.take();
+                results[0] = freeResults.take();
+                results[0].clear();
+                results[0] = applier.apply(batch, results[0]);
+                last = results[0].last = batch.last;
+                freeInstructions.add(batch);
+                applied.add(results[0]);
+                results[0] = null;
+            }
+            printer.join();
+            printerDone = true;
+            if (BPlusTree.INSTRUMENTED && applier.bPlusTree != null)
+                System.err.println(applier.bPlusTree.stats());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            applier.close();
+            parser.interrupt();
+            if (!printerDone) {
+                if (results[0] != null) {
+                    // the tree failed midway through a batch; still print what came before
+                    results[0].last = true;
+                    applied.add(results[0]);
+                    joinUninterruptibly(printer);
+                } else {
+                    printer.interrupt();
+                }
+            }
+        }
+        for (Throwable failure : failures)
+            if (failure != null)
+                rethrow(failure);
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public static void main(String[] args) {
+        boolean serve = args.length > 0 && (args[0].equals("--serve") || args[0].equals("--serve-all"));
+        if (serve ? args.length != 2 && args.length != 3 : args.length != 1 && args.length != 2) {
+            System.err.println("Usage: java bplustree FILENAME [WAL_DIRECTORY]");
+            System.err.println("       java bplustree --serve|--serve-all PORT [WAL_DIRECTORY]");
+            System.err.println("--serve listens on the loopback address only, --serve-all on every interface.");
+            return;
+        }
+        if (serve) {
+            serve(args);
+            return;
+        }
+        try (
+                InstructionReader reader = new InstructionReader(new FileInputStream(args[0]));
+                OutputBuffer out = new OutputBuffer(new FileOutputStream(OUTPUT_FILENAME));
+                // with a WAL directory, the tree survives crashes and restarts
+                DurableBPlusTree durable = args.length == 2 ? new DurableBPlusTree(Paths.get(args[1])) : null
+        ) {
+            run(reader, out, durable);
         } catch (FileNotFoundException e) {
             System.err.println("File doesn't exist.");
         } catch (IOException e) {
             System.err.println("I/O exception!");
         }
     }
+
+    private static void serve(String[] args) {
+        int port;
+        try {
+            port = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Number format is wrong.");
+            return;
+        }
+        try (DurableBPlusTree durable = args.length == 3 ? new DurableBPlusTree(Paths.get(args[2])) : null) {
+            BPlusTreeServer.run(args[0].equals("--serve") ? InetAddress.getLoopbackAddress() : null, port, durable);
+        } catch (IOException e) {
+            System.err.println("I/O exception!");
+        }
+    }
 }
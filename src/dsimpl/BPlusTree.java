@@ -1,38 +1,63 @@
 package dsimpl;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
 
 public class BPlusTree {
-    static class Pair {
-        final int k;
-        final double v;
-
-        Pair(int k, double v) {
-            this.k = k;
-            this.v = v;
-        }
-    }
-
     abstract class Node {
         NonLeafNode parent;
 
         public Node() {
             parent = null;
         }
+
+        /**
+         * Store the count, sum, min and max of the pairs under this node as
+         * the aggregates of child i of p.
+         */
+        abstract void summarizeInto(NonLeafNode p, int i);
     }
 
     /**
      * Abstraction for navigating nodes.
+     * <p>
+     * Keys and children are kept in fixed-capacity arrays sized from M. A node
+     * may transiently hold M keys (M + 1 children) right before it splits.
+     * <p>
+     * Next to each child are the count, sum, min and max of the pairs under
+     * it, which answer aggregate queries without visiting the child. They
+     * move with their child, and whatever changes the pairs under a child
+     * refreshes them, see {@link #refreshUp(Node)}.
      */
     class NonLeafNode extends Node {
 
-        private ArrayList<Integer> keys;
-        private ArrayList<Node> children;
+        private final int[] keys;
+        private final Node[] children;
+        private final int[] counts;
+        private final double[] sums, mins, maxs;
+        private int size; // number of keys; there are always size + 1 children
 
-        NonLeafNode(List<Integer> keys, List<Node> children) {
-            this.keys = new ArrayList<>(keys);
-            this.children = new ArrayList<>(children);
+        private NonLeafNode() {
+            keys = new int[M];
+            children = new Node[M + 1];
+            counts = new int[M + 1];
+            sums = new double[M + 1];
+            mins = new double[M + 1];
+            maxs = new double[M + 1];
+            size = 0;
         }
 
         /**
@@ -44,35 +69,73 @@ public class BPlusTree {
          * @param righChild
          */
         NonLeafNode(int k, Node leftChild, Node righChild) {
-            keys = new ArrayList<>();
-            children = new ArrayList<>();
-            keys.add(k);
-            children.add(leftChild);
-            children.add(righChild);
+            this();
+            keys[0] = k;
+            children[0] = leftChild;
+            children[1] = righChild;
+            size = 1;
+            leftChild.summarizeInto(this, 0);
+            righChild.summarizeInto(this, 1);
+        }
+
+        @Override
+        void summarizeInto(NonLeafNode p, int i) {
+            int count = 0;
+            double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j <= size; j++) {
+                count += counts[j];
+                sum += sums[j];
+                min = Math.min(min, mins[j]);
+                max = Math.max(max, maxs[j]);
+            }
+            p.counts[i] = count;
+            p.sums[i] = sum;
+            p.mins[i] = min;
+            p.maxs[i] = max;
+        }
+
+        /**
+         * Recompute the aggregates of child.
+         */
+        void refresh(Node child) {
+            int i = 0;
+            while (children[i] != child) i++;
+            child.summarizeInto(this, i);
+        }
+
+        /**
+         * Copy n children, with their aggregates, from index from of this
+         * node to index to of dst; the ranges may overlap.
+         */
+        private void copyChildren(int from, NonLeafNode dst, int to, int n) {
+            System.arraycopy(children, from, dst.children, to, n);
+            System.arraycopy(counts, from, dst.counts, to, n);
+            System.arraycopy(sums, from, dst.sums, to, n);
+            System.arraycopy(mins, from, dst.mins, to, n);
+            System.arraycopy(maxs, from, dst.maxs, to, n);
         }
 
         Node promisingChild(int k) {
-            return children.get(upperBound(k));
+            return children[upperBound(k)];
         }
 
         private int upperBound(int k) {
-            int l = 0, r = keys.size();
-            while (l < r) {
-                int m = (l + r) >> 1;
-                if (keys.get(m) > k) r = m;
-                else l = m + 1;
-            }
-            return l;
+            return KeySearch.upperBound(keys, size, k);
         }
 
         private int lowerBound(int k) {
-            int l = 0, r = keys.size();
-            while (l < r) {
-                int m = (l + r) >> 1;
-                if (keys.get(m) < k) l = m + 1;
-                else r = m;
-            }
-            return l;
+            return KeySearch.lowerBound(keys, size, k);
+        }
+
+        private void removeKey(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        }
+
+        private Node removeChild(int i) {
+            Node removed = children[i];
+            copyChildren(i + 1, this, i, size - i);
+            children[size] = null;
+            return removed;
         }
 
         /**
@@ -83,26 +146,36 @@ public class BPlusTree {
          */
         void insert(int k, Node rightChild) {
             int i = upperBound(k);
-            keys.add(i, k);
-            children.add(i + 1, rightChild);
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            copyChildren(i + 1, this, i + 2, size - i);
+            keys[i] = k;
+            children[i + 1] = rightChild;
+            size++;
             rightChild.parent = this;
-            if (keys.size() > MAX_NODE_SIZE) {
-                NonLeafNode newNonLeafNode = new NonLeafNode(
-                        keys.subList(MIN_NODE_SIZE + 1, M),
-                        children.subList(MIN_NODE_SIZE + 1, M + 1)
-                );
+            // the pairs of children[i] are now split between it and rightChild
+            children[i].summarizeInto(this, i);
+            rightChild.summarizeInto(this, i + 1);
+            if (size > MAX_NODE_SIZE) {
+                if (INSTRUMENTED) nonLeafSplits++;
+                // keep the first kept keys, move the next one up and the rest right
+                int kept = Math.max(1, Math.min(M - 2, splitPolicy.split(M, i, isLast())));
+                NonLeafNode newNonLeafNode = new NonLeafNode();
+                int moved = M - kept - 1;
+                System.arraycopy(keys, kept + 1, newNonLeafNode.keys, 0, moved);
+                copyChildren(kept + 1, newNonLeafNode, 0, moved + 1);
+                newNonLeafNode.size = moved;
 
-                for (Node child : newNonLeafNode.children)
-                    child.parent = newNonLeafNode;
+                for (int j = 0; j <= moved; j++)
+                    newNonLeafNode.children[j].parent = newNonLeafNode;
 
-                int mid = keys.get(MIN_NODE_SIZE);
+                int mid = keys[kept];
 
-                for (int j = 0; j < M - MIN_NODE_SIZE; j++) {
-                    keys.remove(keys.size() - 1);
-                    children.remove(children.size() - 1);
-                }
+                for (int j = kept + 1; j <= M; j++)
+                    children[j] = null;
+                size = kept;
 
                 if (parent == null) {
+                    if (INSTRUMENTED) rootChanges++;
                     root = parent = new NonLeafNode(mid, this, newNonLeafNode);
                     newNonLeafNode.parent = parent;//safe publication
                 } else {
@@ -111,6 +184,16 @@ public class BPlusTree {
             }
         }
 
+        /**
+         * @return whether this is the last node of its level
+         */
+        private boolean isLast() {
+            for (NonLeafNode n = this; n.parent != null; n = n.parent)
+                if (n.parent.children[n.parent.size] != n)
+                    return false;
+            return true;
+        }
+
         /**
          * Delete the greatest key k' <= k ,and the right child of k'.
          *
@@ -118,52 +201,86 @@ public class BPlusTree {
          */
         void delete(int k) {
             int i = upperBound(k);
-            int removedKey = keys.remove(i - 1);
-            children.remove(i);
+            int removedKey = keys[i - 1];
+            removeKey(i - 1);
+            removeChild(i);
+            size--;
 
             if (this == root) {
-                if (keys.size() < 1) {
-                    children.get(0).parent = null;
-                    root = children.get(0);
+                if (size < 1) {
+                    if (INSTRUMENTED) rootChanges++;
+                    children[0].parent = null;
+                    root = children[0];
                 }
             } else {
-                if (keys.size() < MIN_NODE_SIZE) {
+                if (size < MIN_NODE_SIZE) {
                     int iRightSep = parent.lowerBound(removedKey);
                     int iRightSib = iRightSep + 1;
                     int iLeftSib = iRightSep - 1;
-                    if (iRightSib < parent.children.size()
-                            && ((NonLeafNode) parent.children.get(iRightSib)).keys.size() > MIN_NODE_SIZE) {
-                        //borrow from right
-                        //todo: balancing borrow
-                        NonLeafNode rightSib = (NonLeafNode) parent.children.get(iRightSib);
-                        keys.add(parent.keys.set(iRightSep, rightSib.keys.remove(0)));
-                        Node borrowedChild = rightSib.children.remove(0);
-                        children.add(borrowedChild);
-                        borrowedChild.parent = this;
-                    } else if (iLeftSib >= 0 && ((NonLeafNode) parent.children.get(iLeftSib)).keys.size() > MIN_NODE_SIZE) {
-                        //borrow from left
-                        NonLeafNode leftSib = (NonLeafNode) parent.children.get(iLeftSib);
-                        keys.add(0, parent.keys.set(iRightSep - 1, leftSib.keys.remove(leftSib.keys.size() - 1)));
-                        Node borrowedChild = leftSib.children.remove(leftSib.children.size() - 1);
-                        children.add(0, borrowedChild);
-                        borrowedChild.parent = this;
-                    } else if (iRightSib < parent.children.size()) {
+                    if (iRightSib <= parent.size
+                            && ((NonLeafNode) parent.children[iRightSib]).size > MIN_NODE_SIZE) {
+                        //borrow from right, evening out the two
+                        if (INSTRUMENTED) nonLeafBorrows++;
+                        NonLeafNode rightSib = (NonLeafNode) parent.children[iRightSib];
+                        int n = (rightSib.size - size) / 2;
+                        keys[size] = parent.keys[iRightSep];
+                        System.arraycopy(rightSib.keys, 0, keys, size + 1, n - 1);
+                        parent.keys[iRightSep] = rightSib.keys[n - 1];
+                        rightSib.copyChildren(0, this, size + 1, n);
+                        for (int j = size + 1; j <= size + n; j++)
+                            children[j].parent = this;
+                        size += n;
+                        int left = rightSib.size - n;
+                        System.arraycopy(rightSib.keys, n, rightSib.keys, 0, left);
+                        rightSib.copyChildren(n, rightSib, 0, left + 1);
+                        for (int j = left + 1; j <= rightSib.size; j++)
+                            rightSib.children[j] = null;
+                        rightSib.size = left;
+                        parent.refresh(this);
+                        rightSib.summarizeInto(parent, iRightSib);
+                    } else if (iLeftSib >= 0 && ((NonLeafNode) parent.children[iLeftSib]).size > MIN_NODE_SIZE) {
+                        //borrow from left, evening out the two
+                        if (INSTRUMENTED) nonLeafBorrows++;
+                        NonLeafNode leftSib = (NonLeafNode) parent.children[iLeftSib];
+                        int n = (leftSib.size - size) / 2;
+                        int left = leftSib.size - n;
+                        System.arraycopy(keys, 0, keys, n, size);
+                        copyChildren(0, this, n, size + 1);
+                        keys[n - 1] = parent.keys[iRightSep - 1];
+                        System.arraycopy(leftSib.keys, left + 1, keys, 0, n - 1);
+                        parent.keys[iRightSep - 1] = leftSib.keys[left];
+                        leftSib.copyChildren(left + 1, this, 0, n);
+                        for (int j = left + 1; j <= leftSib.size; j++)
+                            leftSib.children[j] = null;
+                        leftSib.size = left;
+                        for (int j = 0; j < n; j++)
+                            children[j].parent = this;
+                        size += n;
+                        parent.refresh(this);
+                        leftSib.summarizeInto(parent, iLeftSib);
+                    } else if (iRightSib <= parent.size) {
                         // merge right sibling into this
-                        NonLeafNode rightSib = (NonLeafNode) parent.children.get(iRightSib);
-                        keys.add(parent.keys.get(iRightSep));
-                        keys.addAll(rightSib.keys);
-                        children.addAll(rightSib.children);
-                        for (Node node : rightSib.children)
-                            node.parent = this;
-                        parent.delete(rightSib.keys.get(0));
+                        if (INSTRUMENTED) nonLeafMerges++;
+                        NonLeafNode rightSib = (NonLeafNode) parent.children[iRightSib];
+                        keys[size++] = parent.keys[iRightSep];
+                        System.arraycopy(rightSib.keys, 0, keys, size, rightSib.size);
+                        rightSib.copyChildren(0, this, size, rightSib.size + 1);
+                        for (int j = 0; j <= rightSib.size; j++)
+                            rightSib.children[j].parent = this;
+                        size += rightSib.size;
+                        parent.refresh(this);
+                        parent.delete(rightSib.keys[0]);
                     } else if (iLeftSib >= 0) {
                         // merge this into left sibling
-                        NonLeafNode leftSib = (NonLeafNode) parent.children.get(iLeftSib);
-                        leftSib.keys.add(parent.keys.get(iRightSep - 1));
-                        leftSib.keys.addAll(keys);
-                        leftSib.children.addAll(children);
-                        for (Node node : children)
-                            node.parent = leftSib;
+                        if (INSTRUMENTED) nonLeafMerges++;
+                        NonLeafNode leftSib = (NonLeafNode) parent.children[iLeftSib];
+                        leftSib.keys[leftSib.size++] = parent.keys[iRightSep - 1];
+                        System.arraycopy(keys, 0, leftSib.keys, leftSib.size, size);
+                        copyChildren(0, leftSib, leftSib.size, size + 1);
+                        for (int j = 0; j <= size; j++)
+                            children[j].parent = leftSib;
+                        leftSib.size += size;
+                        leftSib.summarizeInto(parent, iLeftSib);
                         parent.delete(removedKey);
                     } else {
                         throw new Error("IMPOSSIBLE ERROR");
@@ -175,115 +292,450 @@ public class BPlusTree {
 
     /**
      * Abstraction for bottom layer nodes storing dictionary pairs.
+     * <p>
+     * Pairs are kept in two parallel arrays sized from M, so that searching a
+     * leaf touches only primitive ints. After {@link #compressLeaves} they are
+     * kept packed instead, until the leaf is next written to.
      */
     class LeafNode extends Node {
         private LeafNode prev = null, next = null;
-        private ArrayList<Pair> data;
+        private int[] keys;
+        private double[] values;
+        private PackedLeaf packed;// non-null iff keys and values are null
+        private int size;
+        // dead[i] marks pair i as deleted but not yet removed; non-null iff deadCount > 0
+        private boolean[] dead;
+        private int deadCount;
 
         LeafNode() {
-            data = new ArrayList<>();
+            keys = new int[M];
+            values = new double[M];
+            size = 0;
         }
 
-        LeafNode(List<Pair> data) {
-            this.data = new ArrayList<>(data);
+        void insert(int k, double v) {
+            int i = lowerBound(k);
+            if (i < size && key(i) == k) {
+                if (!isDead(i)) return;//duplicate insertion
+                // a deleted key comes back in place
+                values[i] = v;
+                dead[i] = false;
+                if (--deadCount == 0) dead = null;
+                tombstones--;
+                pairCount++;
+                refreshUp(this);
+                return;
+            }
+            unpack();
+            boolean purged = false;
+            if (size == MAX_NODE_SIZE && deadCount > 0) {
+                // make room by dropping tombstones rather than splitting
+                purged = purge();
+                i = lowerBound(k);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            if (dead != null) {
+                System.arraycopy(dead, i, dead, i + 1, size - i);
+                dead[i] = false;
+            }
+            keys[i] = k;
+            values[i] = v;
+            size++;
+            pairCount++;
+            if (size > MAX_NODE_SIZE) {
+                if (INSTRUMENTED) leafSplits++;
+                int kept = Math.max(1, Math.min(M - 1, splitPolicy.split(M, i, next == null)));
+                LeafNode newLeaf = new LeafNode();
+                newLeaf.size = M - kept;
+                System.arraycopy(keys, kept, newLeaf.keys, 0, newLeaf.size);
+                System.arraycopy(values, kept, newLeaf.values, 0, newLeaf.size);
+                size = kept;
+                addRightSibling(newLeaf);
+            }
+            if (purged && size < MIN_NODE_SIZE)
+                rebalance(k);
+            else
+                refreshUp(this);
+        }
+
+        @Override
+        void summarizeInto(NonLeafNode p, int i) {
+            double[] values = values(scratchValues);
+            double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < size; j++) {
+                if (isDead(j)) continue;
+                sum += values[j];
+                min = Math.min(min, values[j]);
+                max = Math.max(max, values[j]);
+            }
+            p.counts[i] = size - deadCount;
+            p.sums[i] = sum;
+            p.mins[i] = min;
+            p.maxs[i] = max;
         }
 
-        void insert(Pair pair) {
-            int i = lowerBound(pair.k);
-            if (i < data.size() && data.get(i).k == pair.k) return;//duplicate insertion
-            data.add(i, pair);
-            if (data.size() > MAX_NODE_SIZE) {
-                LeafNode newLeaf = new LeafNode(data.subList(MIN_NODE_SIZE, M));
-                for (int j = 0; j < M - MIN_NODE_SIZE; j++) {
-                    data.remove(data.size() - 1);
+        /**
+         * Link a freshly split-off leaf as the right sibling of this leaf and
+         * register it in the parent, growing a new root if needed.
+         *
+         * @param newLeaf non-empty leaf whose keys all follow the keys of this
+         */
+        private void addRightSibling(LeafNode newLeaf) {
+            finger = null;// the bounds of this leaf shrink
+            if (next != null)
+                next.prev = newLeaf;
+            newLeaf.next = next;
+            newLeaf.prev = this;
+            next = newLeaf;
+
+            if (parent == null) {
+                if (INSTRUMENTED) rootChanges++;
+                root = parent = new NonLeafNode(newLeaf.keys[0], this, newLeaf);
+                newLeaf.parent = parent;//safe publication
+            } else {
+                parent.insert(newLeaf.keys[0], newLeaf);
+            }
+        }
+
+        /**
+         * Insert the sorted, duplicate-free pairs ks[from, to), all of which
+         * route to this leaf. Pairs are merged first and the result is split
+         * into as many leaves as needed at once.
+         */
+        void insertRun(int[] ks, double[] vs, int from, int to) {
+            unpack();
+            // tombstones are dropped first, which may leave this leaf too small
+            int anyKey = keys[0];
+            boolean purged = purge();
+            int fresh = 0;
+            for (int i = 0, j = from; j < to; ) {
+                if (i < size && keys[i] < ks[j]) i++;
+                else {
+                    if (i >= size || keys[i] != ks[j]) fresh++;
+                    j++;
                 }
-                if (next != null)
-                    next.prev = newLeaf;
-                newLeaf.next = next;
-                newLeaf.prev = this;
-                next = newLeaf;
+            }
+            if (fresh == 0) {
+                if (purged) rebalance(anyKey);
+                return;
+            }
+            pairCount += fresh;
+            if (size + fresh <= MAX_NODE_SIZE) {
+                // fits: merge in place from the back, existing keys win
+                int i = size - 1, j = to - 1;
+                for (int w = size + fresh - 1; j >= from; w--) {
+                    if (i >= 0 && keys[i] >= ks[j]) {
+                        if (keys[i] == ks[j]) j--;//duplicate insertion
+                        keys[w] = keys[i];
+                        values[w] = values[i--];
+                    } else {
+                        keys[w] = ks[j];
+                        values[w] = vs[j--];
+                    }
+                }
+                size += fresh;
+                if (purged)
+                    rebalance(anyKey);
+                else
+                    refreshUp(this);
+                return;
+            }
 
-                if (parent == null) {
-                    root = parent = new NonLeafNode(newLeaf.data.get(0).k, this, newLeaf);
-                    newLeaf.parent = parent;//safe publication
+            int[] mk = new int[size + fresh];
+            double[] mv = new double[mk.length];
+            int total = 0, i = 0, j = from;
+            while (i < size || j < to) {
+                if (j == to || (i < size && keys[i] <= ks[j])) {
+                    if (j < to && keys[i] == ks[j]) j++;//duplicate insertion
+                    mk[total] = keys[i];
+                    mv[total++] = values[i++];
                 } else {
-                    parent.insert(newLeaf.data.get(0).k, newLeaf);
+                    mk[total] = ks[j];
+                    mv[total++] = vs[j++];
                 }
             }
+
+            int leaves = total > MAX_NODE_SIZE ? groupCount(total, MAX_NODE_SIZE, MIN_NODE_SIZE) : 1;
+            if (INSTRUMENTED) leafSplits += leaves - 1;
+            LeafNode leaf = this;
+            for (int g = 0, offset = 0; g < leaves; g++) {
+                int n = total / leaves + (g < total % leaves ? 1 : 0);
+                LeafNode target = g == 0 ? this : new LeafNode();
+                System.arraycopy(mk, offset, target.keys, 0, n);
+                System.arraycopy(mv, offset, target.values, 0, n);
+                target.size = n;
+                if (g > 0) {
+                    leaf.addRightSibling(target);
+                    leaf = target;
+                }
+                offset += n;
+            }
+            // later splits may have moved earlier leaves under new parents
+            leaf = this;
+            for (int g = 0; g < leaves; g++, leaf = leaf.next)
+                refreshUp(leaf);
         }
 
         /**
-         * Get the pair associated with k.
+         * Get the value associated with k.
          *
          * @param k
-         * @return the pair associated with key k, if exists; null otherwise
+         * @return the value associated with key k, if exists; NaN otherwise
          */
-        Pair get(int k) {
+        double get(int k) {
             int i = lowerBound(k);
-            if (i < data.size() && data.get(i).k == k)
-                return data.get(i);
-            return null;
+            if (i < size && key(i) == k && !isDead(i))
+                return packed == null ? values[i] : packed.value(i);
+            return Double.NaN;
         }
 
         private int lowerBound(int k) {
-            int l = 0, r = data.size();
-            while (l < r) {
-                int m = (l + r) >> 1;
-                if (data.get(m).k < k) l = m + 1;
-                else r = m;
-            }
-            return l;
+            return packed == null ? KeySearch.lowerBound(keys, size, k) : packed.lowerBound(k);
         }
 
         private int upperBound(int k) {
-            int l = 0, r = data.size();
-            while (l < r) {
-                int m = (l + r) >> 1;
-                if (data.get(m).k > k) r = m;
-                else l = m + 1;
+            return packed == null ? KeySearch.upperBound(keys, size, k) : packed.upperBound(k);
+        }
+
+        private int key(int i) {
+            return packed == null ? keys[i] : packed.key(i);
+        }
+
+        /**
+         * @return the keys of this leaf, decoded into buffer if packed
+         */
+        private int[] keys(int[] buffer) {
+            if (packed == null) return keys;
+            packed.keys(buffer);
+            return buffer;
+        }
+
+        /**
+         * @return the values of this leaf, decoded into buffer if packed
+         */
+        private double[] values(double[] buffer) {
+            return values(buffer, 0, size);
+        }
+
+        /**
+         * @return an array holding values [from, to) of this leaf at [from, to)
+         */
+        private double[] values(double[] buffer, int from, int to) {
+            if (packed == null) return values;
+            packed.values(buffer, from, to);
+            return buffer;
+        }
+
+        private boolean isDead(int i) {
+            return deadCount > 0 && dead[i];
+        }
+
+        /**
+         * @return the number of live pairs among pairs [0, to)
+         */
+        private int live(int to) {
+            int n = to;
+            for (int j = 0; deadCount > 0 && j < to; j++)
+                if (dead[j]) n--;
+            return n;
+        }
+
+        /**
+         * @return the index of the live pair with i live pairs before it
+         */
+        private int liveIndex(int i) {
+            int j = 0;
+            for (; deadCount > 0 && (i > 0 || dead[j]); j++)
+                if (!dead[j]) i--;
+            return j + i;
+        }
+
+        /**
+         * Remove the pairs marked dead, which leaves the live pairs, and so
+         * the aggregates, as they were but may leave this leaf too small.
+         *
+         * @return whether there were any
+         */
+        private boolean purge() {
+            if (deadCount == 0) return false;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (dead[i]) continue;
+                keys[kept] = keys[i];
+                values[kept++] = values[i];
             }
-            return l;
+            size = kept;
+            tombstones -= deadCount;
+            deadCount = 0;
+            dead = null;
+            return true;
+        }
+
+        /**
+         * Drop the tombstones of this leaf and rebalance it.
+         */
+        private void compact() {
+            int anyKey = keys[0];
+            purge();
+            rebalance(anyKey);
+        }
+
+        private void pack(boolean compressValues) {
+            unpack();
+            packed = PackedLeaf.pack(keys, values, size, compressValues);
+            keys = null;
+            values = null;
+        }
+
+        /**
+         * Go back to plain arrays, as every write needs.
+         */
+        private void unpack() {
+            if (packed == null) return;
+            keys = new int[M];
+            values = new double[M];
+            packed.keys(keys);
+            packed.values(values, 0, size);
+            packed = null;
+        }
+
+        private void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+        }
+
+        private void appendAll(LeafNode other) {
+            System.arraycopy(other.keys, 0, keys, size, other.size);
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
         }
 
         void delete(int k) {
             int i = lowerBound(k);
-            if (i >= data.size() || data.get(i).k != k)
+            if (i >= size || key(i) != k || isDead(i))
+                return;
+            unpack();
+            pairCount--;
+            if (maxTombstoneRatio > 0) {
+                if (dead == null) dead = new boolean[M];
+                dead[i] = true;
+                deadCount++;
+                tombstones++;
+                if (deadCount > maxTombstoneRatio * size)
+                    compact();
+                else
+                    refreshUp(this);
                 return;
-            data.remove(i);
-            if (this != root && data.size() < MIN_NODE_SIZE) {
-                if (prev != null && prev.parent == parent && prev.data.size() > MIN_NODE_SIZE) {
-                    // borrow from left sibling
-                    data.add(0, prev.data.remove(prev.data.size() - 1));
-                    parent.keys.set(parent.lowerBound(data.get(0).k), data.get(0).k);
-                } else if (next != null && next.parent == parent && next.data.size() > MIN_NODE_SIZE) {
-                    // borrow from right sibling
-                    //todo:balancing borrow
-                    data.add(next.data.remove(0));
-                    parent.keys.set(parent.lowerBound(next.data.get(0).k) - 1, next.data.get(0).k);
+            }
+            if (purge())
+                i = lowerBound(k);
+            removeAt(i);
+            rebalance(k);
+        }
+
+        /**
+         * Delete every key of the sorted, duplicate-free ks[from, to), all of
+         * which route to this leaf, then rebalance once.
+         */
+        void deleteRun(int[] ks, int from, int to) {
+            unpack();
+            int kept = 0, j = from, anyKey = keys[0], removedLive = 0;
+            boolean removed = false;
+            // tombstones go too
+            for (int i = 0; i < size; i++) {
+                while (j < to && ks[j] < keys[i]) j++;
+                boolean isDead = isDead(i);
+                if (isDead || (j < to && ks[j] == keys[i])) {
+                    if (!isDead) removedLive++;
+                    removed = true;
+                    continue;
+                }
+                keys[kept] = keys[i];
+                values[kept++] = values[i];
+            }
+            pairCount -= removedLive;
+            tombstones -= deadCount;
+            deadCount = 0;
+            dead = null;
+            size = kept;
+            if (removed)
+                rebalance(anyKey);
+        }
+
+        /**
+         * Borrow from or merge with a sibling until this leaf is no longer
+         * underflowing. This leaf must have no tombstones; a sibling drops its
+         * own before it gives or takes pairs.
+         *
+         * @param k a key that used to be in this leaf
+         */
+        private void rebalance(int k) {
+            while (this != root && size < MIN_NODE_SIZE) {
+                finger = null;// borrows and merges move the bounds of leaves
+                if (prev != null && prev.parent == parent && prev.size - prev.deadCount > MIN_NODE_SIZE) {
+                    // borrow from left sibling, evening out the two
+                    if (INSTRUMENTED) leafBorrows++;
+                    prev.unpack();
+                    prev.purge();
+                    int n = (prev.size - size) / 2;
+                    System.arraycopy(keys, 0, keys, n, size);
+                    System.arraycopy(values, 0, values, n, size);
+                    prev.size -= n;
+                    System.arraycopy(prev.keys, prev.size, keys, 0, n);
+                    System.arraycopy(prev.values, prev.size, values, 0, n);
+                    size += n;
+                    parent.keys[parent.lowerBound(keys[0])] = keys[0];
+                    parent.refresh(prev);
+                } else if (next != null && next.parent == parent && next.size - next.deadCount > MIN_NODE_SIZE) {
+                    // borrow from right sibling, evening out the two
+                    if (INSTRUMENTED) leafBorrows++;
+                    next.unpack();
+                    next.purge();
+                    int n = (next.size - size) / 2;
+                    System.arraycopy(next.keys, 0, keys, size, n);
+                    System.arraycopy(next.values, 0, values, size, n);
+                    size += n;
+                    next.size -= n;
+                    System.arraycopy(next.keys, n, next.keys, 0, next.size);
+                    System.arraycopy(next.values, n, next.values, 0, next.size);
+                    parent.keys[parent.lowerBound(next.keys[0]) - 1] = next.keys[0];
+                    parent.refresh(next);
                 } else if (prev != null && prev.parent == parent) {
                     // merge this into leftSibling
-                    prev.data.addAll(data);
+                    if (INSTRUMENTED) leafMerges++;
+                    prev.unpack();
+                    int prevKey = prev.keys[0];
+                    prev.purge();
+                    prev.appendAll(this);
                     if (next != null)
                         next.prev = prev;
                     prev.next = next;
+                    parent.refresh(prev);
                     parent.delete(k);
+                    // without the tombstones both may have been small
+                    prev.rebalance(prevKey);
+                    return;
                 } else if (next != null && next.parent == parent) {
                     //merge right sibling into this
-                    data.addAll(next.data);
+                    if (INSTRUMENTED) leafMerges++;
                     LeafNode originalRightSib = next;
+                    originalRightSib.unpack();
+                    int rightKey = originalRightSib.keys[0];
+                    originalRightSib.purge();
+                    appendAll(originalRightSib);
                     if (next.next != null)
                         next.next.prev = this;
                     next = next.next;
-                    parent.delete(originalRightSib.data.get(0).k);
+                    parent.refresh(this);
+                    parent.delete(rightKey);
+                    // without the tombstones both may have been small; go on
                 } else {
                     throw new Error("IMPOSSIBLE ERROR");
                 }
             }
-        }
-
-        List<Double> between(int l, int r) {
-            return data.subList(lowerBound(l), upperBound(r))
-                    .stream().map(pair -> pair.v).collect(Collectors.toList());
+            refreshUp(this);
         }
     }
 
@@ -293,6 +745,32 @@ public class BPlusTree {
     private final int MIN_NODE_SIZE;
 
     private Node root;
+    private int pairCount;// live pairs, not counting tombstones
+    private int tombstones;
+    // see setLazyDeletes; 0 deletes right away
+    private double maxTombstoneRatio;
+    private SplitPolicy splitPolicy = SplitPolicy.EVEN;
+    // for decoding packed leaves; allocated by the first compressLeaves
+    private int[] scratchKeys;
+    private double[] scratchValues;
+
+    /**
+     * Whether trees count what their operations do, as reported by
+     * {@link #stats()}. Turned on with -Ddsimpl.stats=true; being a constant,
+     * the JIT drops all counting when it is off.
+     */
+    public static final boolean INSTRUMENTED = Boolean.getBoolean("dsimpl.stats");
+
+    // only counted if INSTRUMENTED
+    private long operations, nodesVisited;
+    private long leafSplits, nonLeafSplits, leafBorrows, nonLeafBorrows, leafMerges, nonLeafMerges;
+    private long rootChanges;
+    private long fingerHits, fingerMisses;
+
+    // see setFingerSearch; keys in [fingerLow, fingerHigh) are known to route to finger
+    private boolean fingerSearch;
+    private LeafNode finger;
+    private long fingerLow, fingerHigh;
 
     public BPlusTree(int m) {
         M = m;
@@ -301,52 +779,1004 @@ public class BPlusTree {
         root = new LeafNode();
     }
 
-    public void insert(int k, double v) {
+    /**
+     * Build a tree bottom-up from pairs sorted by strictly increasing key.
+     * Leaves are packed left to right, then each internal level is built in
+     * one pass over the level below, so the whole load is linear.
+     *
+     * @param m          order of the tree
+     * @param keys       keys in strictly increasing order
+     * @param values     values, values[i] is associated with keys[i]
+     * @param fillFactor fraction of the maximum node size to fill, in (0, 1]
+     * @return the loaded tree
+     * @throws IllegalArgumentException if keys are not strictly increasing,
+     *                                  the arrays differ in length or the
+     *                                  fill factor is out of range
+     */
+    public static BPlusTree bulkLoad(int m, int[] keys, double[] values, double fillFactor) {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException("keys and values differ in length");
+        if (!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        for (int i = 1; i < keys.length; i++)
+            if (keys[i - 1] >= keys[i])
+                throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+        BPlusTree tree = new BPlusTree(m);
+        tree.load(keys, values, keys.length, fillFactor);
+        return tree;
+    }
+
+    public static BPlusTree bulkLoad(int m, int[] keys, double[] values) {
+        return bulkLoad(m, keys, values, 1.0);
+    }
+
+    /**
+     * Number of nodes to spread count entries over, so that every node holds
+     * between min and the maximum size, and as close to target as possible.
+     */
+    private static int groupCount(int count, int target, int min) {
+        int n = (count + target - 1) / target;
+        if (n > 1 && count / n < min)
+            n = Math.max(1, count / min);
+        return n;
+    }
+
+    /**
+     * Replace the content of this tree with the first n pairs of the sorted
+     * arrays keys and values.
+     */
+    void load(int[] keys, double[] values, int n, double fillFactor) {
+        int[] from = {0};
+        load(n, fillFactor, (leafKeys, leafValues, size) -> {
+            System.arraycopy(keys, from[0], leafKeys, 0, size);
+            System.arraycopy(values, from[0], leafValues, 0, size);
+            from[0] += size;
+        });
+    }
+
+    /**
+     * Supplies sorted pairs to {@link #load(int, double, PairSource)}, one
+     * leaf at a time.
+     */
+    private interface PairSource {
+        /**
+         * Copy the next size pairs into keys[0, size) and values[0, size).
+         */
+        void next(int[] keys, double[] values, int size);
+    }
+
+    /**
+     * Replace the content of this tree with the n pairs drawn from source,
+     * building it bottom-up without descending once per key.
+     */
+    private void load(int n, double fillFactor, PairSource source) {
+        pairCount = n;
+        tombstones = 0;
+        finger = null;
+        if (n == 0) {
+            root = new LeafNode();
+            return;
+        }
+        int leafTarget = Math.max(MIN_NODE_SIZE, Math.min(MAX_NODE_SIZE,
+                (int) Math.round(fillFactor * MAX_NODE_SIZE)));
+        int leafCount = groupCount(n, Math.max(1, leafTarget), MIN_NODE_SIZE);
+        Node[] level = new Node[leafCount];
+        int[] lowKeys = new int[leafCount];
+        LeafNode prevLeaf = null;
+        for (int i = 0; i < leafCount; i++) {
+            int size = n / leafCount + (i < n % leafCount ? 1 : 0);
+            LeafNode leaf = new LeafNode();
+            source.next(leaf.keys, leaf.values, size);
+            leaf.size = size;
+            leaf.prev = prevLeaf;
+            if (prevLeaf != null)
+                prevLeaf.next = leaf;
+            prevLeaf = leaf;
+            level[i] = leaf;
+            lowKeys[i] = leaf.keys[0];
+        }
+
+        int fanoutTarget = Math.max(MIN_NODE_SIZE + 1, Math.min(M,
+                (int) Math.round(fillFactor * M)));
+        int count = leafCount;
+        while (count > 1) {
+            int parents = groupCount(count, fanoutTarget, MIN_NODE_SIZE + 1);
+            for (int i = 0, from = 0; i < parents; i++) {
+                int fanout = count / parents + (i < count % parents ? 1 : 0);
+                NonLeafNode node = new NonLeafNode();
+                for (int j = 0; j < fanout; j++) {
+                    node.children[j] = level[from + j];
+                    node.children[j].parent = node;
+                    if (j > 0)
+                        node.keys[j - 1] = lowKeys[from + j];
+                }
+                node.size = fanout - 1;
+                for (int j = 0; j < fanout; j++)
+                    node.children[j].summarizeInto(node, j);
+                lowKeys[i] = lowKeys[from];
+                level[i] = node;
+                from += fanout;
+            }
+            count = parents;
+        }
+        root = level[0];
+        root.parent = null;
+    }
+
+    private static final int SNAPSHOT_MAGIC = 0x42505331;// "BPS1"
+    private static final int SNAPSHOT_BLOCK_PAIRS = 1 << 13;
+    private static final long SNAPSHOT_WINDOW_BYTES = 1L << 30;
+
+    /**
+     * Write every pair, in key order, to file as a snapshot that
+     * {@link #loadSnapshot(Path)} reads back, and force it to disk. The file
+     * is laid out in little endian as
+     * <pre>
+     * int magic | int M | long count | block...
+     * block: int n | n int keys | n double values | int crc32(keys, values)
+     * </pre>
+     * with at most 8192 pairs per block.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(8 + 12 * SNAPSHOT_BLOCK_PAIRS).order(ByteOrder.LITTLE_ENDIAN);
+        int[] keys = new int[SNAPSHOT_BLOCK_PAIRS];
+        double[] values = new double[SNAPSHOT_BLOCK_PAIRS];
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buf.putInt(SNAPSHOT_MAGIC).putInt(M).putLong(pairCount).flip();
+            while (buf.hasRemaining())
+                channel.write(buf);
+            int n = 0;
+            int[] liveKeys = tombstones == 0 ? null : new int[M];
+            double[] liveValues = tombstones == 0 ? null : new double[M];
+            for (LeafNode leaf = leafFor(Integer.MIN_VALUE); leaf != null; leaf = leaf.next) {
+                int[] leafKeys = leaf.keys(scratchKeys);
+                double[] leafValues = leaf.values(scratchValues);
+                int size = leaf.size;
+                if (leaf.deadCount > 0) {
+                    size = 0;
+                    for (int i = 0; i < leaf.size; i++)
+                        if (!leaf.dead[i]) {
+                            liveKeys[size] = leafKeys[i];
+                            liveValues[size++] = leafValues[i];
+                        }
+                    leafKeys = liveKeys;
+                    leafValues = liveValues;
+                }
+                for (int i = 0; i < size; ) {
+                    int length = Math.min(size - i, SNAPSHOT_BLOCK_PAIRS - n);
+                    System.arraycopy(leafKeys, i, keys, n, length);
+                    System.arraycopy(leafValues, i, values, n, length);
+                    i += length;
+                    n += length;
+                    if (n == SNAPSHOT_BLOCK_PAIRS) {
+                        writeSnapshotBlock(channel, buf, crc, keys, values, n);
+                        n = 0;
+                    }
+                }
+            }
+            if (n > 0)
+                writeSnapshotBlock(channel, buf, crc, keys, values, n);
+            channel.force(true);
+        }
+    }
+
+    private static void writeSnapshotBlock(FileChannel channel, ByteBuffer buf, CRC32 crc,
+                                           int[] keys, double[] values, int n) throws IOException {
+        buf.clear();
+        buf.putInt(0, n);
+        buf.position(4);
+        buf.asIntBuffer().put(keys, 0, n);
+        buf.position(4 + 4 * n);
+        buf.asDoubleBuffer().put(values, 0, n);
+        crc.reset();
+        crc.update(buf.slice(4, 12 * n));
+        buf.putInt(4 + 12 * n, (int) crc.getValue());
+        buf.position(0).limit(8 + 12 * n);
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
+
+    /**
+     * Read back a tree written by {@link #saveSnapshot(Path)}. The file is
+     * memory-mapped and its blocks are copied straight into fresh leaves,
+     * which are then linked up bottom-up, with no per-key descent.
+     *
+     * @throws IOException if file is not an intact snapshot
+     */
+    public static BPlusTree loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            SnapshotSource source = new SnapshotSource(file, channel);
+            ByteBuffer header = source.map(0, 16);
+            int m = header.getInt(4);
+            long count = header.getLong(8);
+            if (header.getInt(0) != SNAPSHOT_MAGIC)
+                throw new IOException(file + " is not a snapshot");
+            if (m < 3 || count < 0 || count > Integer.MAX_VALUE)
+                throw new IOException(file + " is corrupt");
+            BPlusTree tree = new BPlusTree(m);
+            try {
+                tree.load((int) count, 1.0, source);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (source.remaining != 0 || source.position != source.size)
+                throw new IOException(file + " is corrupt");
+            return tree;
+        }
+    }
+
+    /**
+     * Hands out the pairs of a snapshot block by block, checking each block
+     * against its checksum before any of it is used.
+     */
+    private static class SnapshotSource implements PairSource {
+        final Path file;
+        final FileChannel channel;
+        final long size;
+        MappedByteBuffer window;
+        long windowStart;
+        long position = 16;// of the next block
+        IntBuffer keys;
+        DoubleBuffer values;
+        int remaining;
+        long lastKey = Long.MIN_VALUE;
+        final CRC32 crc = new CRC32();
+
+        SnapshotSource(Path file, FileChannel channel) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * @return the length bytes at offset at of the file, mapping a new
+         * window of the file if the current one does not cover them
+         */
+        ByteBuffer map(long at, int length) throws IOException {
+            if (at + length > size)
+                throw new IOException(file + " is truncated");
+            if (window == null || at < windowStart || at + length > windowStart + window.capacity()) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(size - at, SNAPSHOT_WINDOW_BYTES));
+                windowStart = at;
+            }
+            return window.slice((int) (at - windowStart), length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void nextBlock() throws IOException {
+            int n = map(position, 4).getInt(0);
+            if (n <= 0 || n > SNAPSHOT_BLOCK_PAIRS)
+                throw new IOException(file + " is corrupt");
+            ByteBuffer block = map(position, 8 + 12 * n);
+            crc.reset();
+            crc.update(block.slice(4, 12 * n));
+            if (block.getInt(4 + 12 * n) != (int) crc.getValue())
+                throw new IOException(file + " is corrupt");
+            keys = block.slice(4, 4 * n).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            values = block.slice(4 + 4 * n, 8 * n).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            remaining = n;
+            position += 8 + 12 * n;
+        }
+
+        @Override
+        public void next(int[] leafKeys, double[] leafValues, int size) {
+            try {
+                for (int filled = 0; filled < size; ) {
+                    if (remaining == 0)
+                        nextBlock();
+                    int length = Math.min(size - filled, remaining);
+                    keys.get(leafKeys, filled, length);
+                    values.get(leafValues, filled, length);
+                    remaining -= length;
+                    filled += length;
+                }
+                for (int i = 0; i < size; i++) {
+                    if (leafKeys[i] <= lastKey)
+                        throw new IOException(file + " is corrupt");
+                    lastKey = leafKeys[i];
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private LeafNode leafFor(int k) {
         Node node = root;
-        while (!(node instanceof LeafNode)) {
+        int visited = 1;
+        for (; !(node instanceof LeafNode); visited++)
             node = ((NonLeafNode) node).promisingChild(k);
-        }
-        ((LeafNode) node).insert(new Pair(k, v));
+        if (INSTRUMENTED) nodesVisited += visited;
+        return (LeafNode) node;
     }
 
-    public void delete(int k) {
+    /**
+     * @return the leaf after leaf, counted as visited by a scan
+     */
+    private LeafNode nextLeaf(LeafNode leaf) {
+        if (INSTRUMENTED && leaf.next != null) nodesVisited++;
+        return leaf.next;
+    }
+
+    /**
+     * @return the leaf before leaf, counted as visited by a scan
+     */
+    private LeafNode prevLeaf(LeafNode leaf) {
+        if (INSTRUMENTED && leaf.prev != null) nodesVisited++;
+        return leaf.prev;
+    }
+
+    /**
+     * Recompute the aggregates of node and of each of its ancestors, once the
+     * pairs under node have changed.
+     */
+    private void refreshUp(Node node) {
+        for (; node.parent != null; node = node.parent)
+            node.parent.refresh(node);
+    }
+
+    /**
+     * Exclusive upper bound of the keys routed to the leaf last returned by
+     * {@link #route(int)}; Long.MAX_VALUE if that leaf is the rightmost one.
+     */
+    private long routeFence;
+    /**
+     * Inclusive lower bound of the same; Long.MIN_VALUE for the leftmost leaf.
+     */
+    private long routeFloor;
+
+    private LeafNode route(int k) {
+        routeFence = Long.MAX_VALUE;
+        routeFloor = Long.MIN_VALUE;
         Node node = root;
+        if (INSTRUMENTED) nodesVisited++;
         while (!(node instanceof LeafNode)) {
-            node = ((NonLeafNode) node).promisingChild(k);
+            if (INSTRUMENTED) nodesVisited++;
+            NonLeafNode nonLeaf = (NonLeafNode) node;
+            int i = nonLeaf.upperBound(k);
+            if (i < nonLeaf.size)
+                routeFence = nonLeaf.keys[i];
+            if (i > 0)
+                routeFloor = nonLeaf.keys[i - 1];
+            node = nonLeaf.children[i];
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * Find the leaf k routes to, starting from the finger if finger search is
+     * on: its own bounds, then its neighbours, then the root.
+     */
+    private LeafNode locate(int k) {
+        if (!fingerSearch)
+            return leafFor(k);
+        LeafNode leaf = finger;
+        if (leaf != null) {
+            if (k >= fingerLow && k < fingerHigh) {
+                if (INSTRUMENTED) {
+                    fingerHits++;
+                    nodesVisited++;
+                }
+                return leaf;
+            }
+            // a neighbour's own keys bound the keys routed to it from inside
+            LeafNode next = leaf.next, prev = leaf.prev;
+            if (k >= fingerHigh && next != null && k >= next.key(0)
+                    && (next.next == null || k <= next.key(next.size - 1))) {
+                finger = next;
+                fingerLow = next.key(0);
+                fingerHigh = next.next == null ? Long.MAX_VALUE : next.key(next.size - 1) + 1L;
+                if (INSTRUMENTED) {
+                    fingerHits++;
+                    nodesVisited += 2;
+                }
+                return next;
+            }
+            if (k < fingerLow && prev != null && k <= prev.key(prev.size - 1)
+                    && (prev.prev == null || k >= prev.key(0))) {
+                finger = prev;
+                fingerLow = prev.prev == null ? Long.MIN_VALUE : prev.key(0);
+                fingerHigh = prev.key(prev.size - 1) + 1L;
+                if (INSTRUMENTED) {
+                    fingerHits++;
+                    nodesVisited += 2;
+                }
+                return prev;
+            }
         }
-        ((LeafNode) node).delete(k);
+        if (INSTRUMENTED) fingerMisses++;
+        finger = leaf = route(k);
+        fingerLow = routeFloor;
+        fingerHigh = routeFence;
+        return leaf;
+    }
+
+    /**
+     * Start {@link #insert(int, double)}, {@link #delete(int)} and
+     * {@link #get(int)} at the leaf the last of them went to, or at one of
+     * its neighbours, when the key belongs there; descend from the root only
+     * otherwise. Sequential and clustered workloads then take O(1) per
+     * operation but for the splits and merges they cause, after which the
+     * next operation descends again. Hits and misses are counted in
+     * {@link #stats()}.
+     */
+    public void setFingerSearch(boolean on) {
+        fingerSearch = on;
+        finger = null;
+    }
+
+    /**
+     * Split nodes that overflow from now on where policy says, instead of
+     * evenly. {@link SplitPolicy#APPEND} suits keys inserted mostly in
+     * increasing order.
+     *
+     * @throws IllegalArgumentException if policy is null
+     */
+    public void setSplitPolicy(SplitPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("split policy must not be null");
+        splitPolicy = policy;
+    }
+
+    /**
+     * Make {@link #delete(int)} only mark the pair as a tombstone, which
+     * searches and scans skip, instead of removing it and borrowing or
+     * merging at once. A leaf drops its tombstones and rebalances, in one
+     * go, once more than maxTombstoneRatio of its pairs are tombstones, when
+     * it would otherwise split, or on {@link #compact()}. A key deleted and
+     * inserted again before then comes back in place.
+     *
+     * @param maxTombstoneRatio in [0, 1]; 0, the default, deletes right away
+     *                          and 1 leaves tombstones to compact()
+     */
+    public void setLazyDeletes(double maxTombstoneRatio) {
+        if (!(maxTombstoneRatio >= 0 && maxTombstoneRatio <= 1))
+            throw new IllegalArgumentException("tombstone ratio " + maxTombstoneRatio + " not in [0, 1]");
+        this.maxTombstoneRatio = maxTombstoneRatio;
+    }
+
+    /**
+     * Drop all tombstones, rebalancing the leaves that held them.
+     */
+    public void compact() {
+        if (INSTRUMENTED) operations++;
+        compactLeaves();
+    }
+
+    private void compactLeaves() {
+        if (tombstones == 0) return;
+        // leaves merge away as others rebalance, but never with tombstones left
+        List<LeafNode> dirty = new ArrayList<>();
+        for (LeafNode leaf = leafFor(Integer.MIN_VALUE); leaf != null; leaf = leaf.next)
+            if (leaf.deadCount > 0)
+                dirty.add(leaf);
+        for (LeafNode leaf : dirty)
+            if (leaf.deadCount > 0)
+                leaf.compact();
+    }
+
+    /**
+     * Sort keys, keeping the index of each key's first occurrence. Each
+     * element is packed as (key << 32 | index) so a primitive sort suffices.
+     */
+    private static long[] sortedWithIndex(int[] keys) {
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            packed[i] = (long) keys[i] << 32 | i;
+        Arrays.sort(packed);
+        return packed;
+    }
+
+    /**
+     * Insert a batch of pairs. The batch is sorted and every leaf it touches
+     * is descended to once; all pairs for that leaf are merged in before the
+     * leaf is split. As with {@link #insert(int, double)}, keys already in the
+     * tree keep their value, and within the batch the first occurrence wins.
+     *
+     * @param keys   keys in any order
+     * @param values values, values[i] is associated with keys[i]
+     */
+    public void insertAll(int[] keys, double[] values) {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException("keys and values differ in length");
+        if (INSTRUMENTED) operations++;
+        long[] packed = sortedWithIndex(keys);
+        int[] ks = new int[keys.length];
+        double[] vs = new double[keys.length];
+        int n = 0;
+        for (long p : packed) {
+            int k = (int) (p >> 32);
+            if (n > 0 && ks[n - 1] == k) continue;
+            ks[n] = k;
+            vs[n++] = values[(int) p];
+        }
+        for (int i = 0; i < n; ) {
+            LeafNode leaf = route(ks[i]);
+            int j = i + 1;
+            while (j < n && ks[j] < routeFence) j++;
+            leaf.insertRun(ks, vs, i, j);
+            i = j;
+        }
+    }
+
+    /**
+     * Delete a batch of keys. The batch is sorted and every leaf it touches is
+     * descended to once; all keys for that leaf are removed before the leaf
+     * borrows from or merges with its siblings.
+     *
+     * @param keys keys in any order
+     */
+    public void deleteAll(int[] keys) {
+        if (INSTRUMENTED) operations++;
+        int[] ks = keys.clone();
+        Arrays.sort(ks);
+        int n = 0;
+        for (int k : ks)
+            if (n == 0 || ks[n - 1] != k)
+                ks[n++] = k;
+        for (int i = 0; i < n; ) {
+            LeafNode leaf = route(ks[i]);
+            int j = i + 1;
+            while (j < n && ks[j] < routeFence) j++;
+            leaf.deleteRun(ks, i, j);
+            i = j;
+        }
+    }
+
+    public int order() {
+        return M;
+    }
+
+    /**
+     * Store every leaf compressed, to hold more pairs in less memory: keys as
+     * bit-packed offsets from the first key of their leaf, and values exactly
+     * sized or, if compressValues, XOR-compressed against the value before.
+     * <p>
+     * Lookups and scans read compressed leaves in place, at some cost per
+     * key; compressed values are decoded from the start of their leaf. A leaf
+     * that is written to goes back to plain arrays until the next call.
+     */
+    public void compressLeaves(boolean compressValues) {
+        if (scratchKeys == null) {
+            scratchKeys = new int[M];
+            scratchValues = new double[M];
+        }
+        compactLeaves();// packed leaves hold no tombstones
+        for (LeafNode leaf = leafFor(Integer.MIN_VALUE); leaf != null; leaf = leaf.next)
+            leaf.pack(compressValues);
+    }
+
+    /**
+     * @return the number of pairs in the tree
+     */
+    public int size() {
+        return pairCount;
+    }
+
+    /**
+     * Measure the shape of this tree by walking all of its nodes and, if
+     * {@link #INSTRUMENTED}, take the counters since it was created or
+     * {@link #resetCounters() reset}.
+     */
+    public TreeStats stats() {
+        int height = 1;
+        for (Node node = root; node instanceof NonLeafNode; node = ((NonLeafNode) node).children[0])
+            height++;
+        long[] nodes = new long[4];// leaves, non-leaves, packed leaves, leaf bytes
+        long[] occupancy = new long[M];
+        countNodes(root, nodes, occupancy);
+        return new TreeStats(M, pairCount, height, nodes[0], nodes[1], occupancy, nodes[2], nodes[3], tombstones,
+                operations, nodesVisited, leafSplits, nonLeafSplits, leafBorrows, nonLeafBorrows,
+                leafMerges, nonLeafMerges, rootChanges, fingerHits, fingerMisses);
+    }
+
+    // sizes are clamped and missing children skipped, as a JMX client may
+    // look at the tree while another thread is changing it
+    private void countNodes(Node node, long[] nodes, long[] occupancy) {
+        if (node instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            nodes[0]++;
+            occupancy[Math.min(leaf.size, M - 1)]++;
+            PackedLeaf packed = leaf.packed;
+            if (packed != null) nodes[2]++;
+            nodes[3] += LEAF_BYTES + (packed != null ? packed.bytes() : plainPairsBytes());
+            if (leaf.dead != null) nodes[3] += 16 + M + 7 & ~7;
+        } else if (node instanceof NonLeafNode) {
+            nodes[1]++;
+            NonLeafNode nonLeaf = (NonLeafNode) node;
+            for (int i = 0, n = Math.min(nonLeaf.size, M - 1); i <= n; i++)
+                countNodes(nonLeaf.children[i], nodes, occupancy);
+        }
+    }
+
+    // a LeafNode with compressed references, then its arrays, rounded up to 8
+    private static final long LEAF_BYTES = 48;
+
+    private long plainPairsBytes() {
+        return (16 + 4L * M + 7 & ~7) + 16 + 8L * M;
+    }
+
+    public void resetCounters() {
+        operations = nodesVisited = 0;
+        leafSplits = nonLeafSplits = leafBorrows = nonLeafBorrows = leafMerges = nonLeafMerges = 0;
+        rootChanges = 0;
+        fingerHits = fingerMisses = 0;
+    }
+
+    /**
+     * @return a view of {@link #stats()} to register with an MBean server,
+     * e.g. {@code ManagementFactory.getPlatformMBeanServer().registerMBean(
+     * tree.mxBean(), new ObjectName("dsimpl:type=BPlusTree"))}
+     */
+    public TreeStatsMXBean mxBean() {
+        return new TreeStatsMXBean() {
+            @Override
+            public TreeStats getStats() {
+                return stats();
+            }
+
+            @Override
+            public void resetCounters() {
+                BPlusTree.this.resetCounters();
+            }
+        };
+    }
+
+    public void insert(int k, double v) {
+        if (INSTRUMENTED) operations++;
+        locate(k).insert(k, v);
+    }
+
+    public void delete(int k) {
+        if (INSTRUMENTED) operations++;
+        locate(k).delete(k);
     }
 
     public double get(int k) {
-        Node node = root;
-        while (!(node instanceof LeafNode))
-            node = ((NonLeafNode) node).promisingChild(k);
-        Pair pair = ((LeafNode) node).get(k);
-        if (pair == null) return Double.NaN;
-        return pair.v;
+        if (INSTRUMENTED) operations++;
+        return locate(k).get(k);
+    }
+
+    /**
+     * Walk the entries with l <= k <= r in key order, reporting each of them
+     * to consumer. Nothing is allocated per entry.
+     */
+    public void range(int l, int r, IntDoubleConsumer consumer) {
+        rangeLimit(l, r, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Walk the first n entries with l <= k <= r in key order, as
+     * {@link #range(int, int, IntDoubleConsumer)} does. A scan that has to go
+     * on can resume from the key after the last one reported.
+     *
+     * @return the number of entries reported
+     */
+    public int rangeLimit(int l, int r, int n, IntDoubleConsumer consumer) {
+        if (INSTRUMENTED) operations++;
+        if (l > r || n <= 0) return 0;
+        // own buffers, as consumer may scan this tree too
+        int[] keyBuffer = scratchKeys == null ? null : new int[M];
+        double[] valueBuffer = scratchKeys == null ? null : new double[M];
+        int count = 0;
+        LeafNode leaf = leafFor(l);
+        for (int i = leaf.lowerBound(l); leaf != null; leaf = nextLeaf(leaf), i = 0) {
+            int[] keys = leaf.keys(keyBuffer);
+            double[] values = leaf.values(valueBuffer);
+            for (; i < leaf.size; i++) {
+                if (keys[i] > r || count == n) return count;
+                if (leaf.isDead(i)) continue;
+                consumer.accept(keys[i], values[i]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Walk the first n entries with l <= k <= r in descending key order,
+     * following the prev links of the leaves.
+     *
+     * @return the number of entries reported
+     */
+    public int rangeDescending(int l, int r, int n, IntDoubleConsumer consumer) {
+        if (INSTRUMENTED) operations++;
+        if (l > r || n <= 0) return 0;
+        int[] keyBuffer = scratchKeys == null ? null : new int[M];
+        double[] valueBuffer = scratchKeys == null ? null : new double[M];
+        int count = 0;
+        LeafNode leaf = leafFor(r);
+        for (int i = leaf.upperBound(r); ; i = leaf.size) {
+            int[] keys = leaf.keys(keyBuffer);
+            double[] values = leaf.values(valueBuffer);
+            while (--i >= 0) {
+                if (keys[i] < l || count == n) return count;
+                if (leaf.isDead(i)) continue;
+                consumer.accept(keys[i], values[i]);
+                count++;
+            }
+            if ((leaf = prevLeaf(leaf)) == null) return count;
+        }
+    }
+
+    /**
+     * Copy the values of the entries with l <= k <= r, in key order, into dst
+     * until either the range or dst is exhausted.
+     *
+     * @return the number of values written to dst
+     */
+    public int range(int l, int r, double[] dst) {
+        if (INSTRUMENTED) operations++;
+        if (l > r) return 0;
+        int n = 0;
+        LeafNode leaf = leafFor(l);
+        for (int from = leaf.lowerBound(l); leaf != null && n < dst.length; leaf = nextLeaf(leaf), from = 0) {
+            int to = leaf.upperBound(r);
+            if (leaf.deadCount > 0) {
+                for (int i = from; i < to && n < dst.length; i++)
+                    if (!leaf.dead[i])
+                        dst[n++] = leaf.values[i];
+            } else {
+                int cnt = Math.min(to - from, dst.length - n);
+                if (cnt > 0) {
+                    System.arraycopy(leaf.values(scratchValues, from, from + cnt), from, dst, n, cnt);
+                    n += cnt;
+                }
+            }
+            if (to < leaf.size) break;
+        }
+        return n;
     }
 
     // l <= k <= r
     public double[] range(int l, int r) {
-        Node lNode = root, rNode = root;
-        ArrayList<Double> ans = new ArrayList<>();
+        double[] ans = new double[countRange(l, r)];
+        range(l, r, ans);
+        return ans;
+    }
+
+    /**
+     * @return the values of the first n entries with l <= k <= r, in key order
+     */
+    public double[] rangeLimit(int l, int r, int n) {
+        double[] ans = new double[Math.min(Math.max(n, 0), countRange(l, r))];
+        range(l, r, ans);
+        return ans;
+    }
+
+    /**
+     * @return the values of the entries with l <= k <= r, in descending key
+     * order
+     */
+    public double[] rangeDescending(int l, int r) {
+        double[] ans = new double[countRange(l, r)];
+        int[] n = {0};
+        rangeDescending(l, r, ans.length, (k, v) -> ans[n[0]++] = v);
+        return ans;
+    }
+
+    /**
+     * @return the number of keys smaller than k
+     */
+    public int rank(int k) {
+        if (INSTRUMENTED) operations++;
+        return countBelow(k);
+    }
+
+    private int countBelow(int k) {
+        int rank = 0;
+        Node node = root;
+        for (; node instanceof NonLeafNode; ) {
+            if (INSTRUMENTED) nodesVisited++;
+            NonLeafNode nonLeaf = (NonLeafNode) node;
+            // children left of the one k routes to hold only smaller keys
+            int i = nonLeaf.upperBound(k);
+            for (int j = 0; j < i; j++)
+                rank += nonLeaf.counts[j];
+            node = nonLeaf.children[i];
+        }
+        if (INSTRUMENTED) nodesVisited++;
+        LeafNode leaf = (LeafNode) node;
+        return rank + leaf.live(leaf.lowerBound(k));
+    }
+
+    private int countRange(int l, int r) {
+        if (l > r) return 0;
+        return (r == Integer.MAX_VALUE ? pairCount : countBelow(r + 1)) - countBelow(l);
+    }
+
+    /**
+     * @return the key of rank i, the i-th smallest counting from 0
+     * @throws IndexOutOfBoundsException unless 0 <= i < size()
+     */
+    public int select(int i) {
+        if (i < 0 || i >= pairCount)
+            throw new IndexOutOfBoundsException("rank " + i + " of " + pairCount + " keys");
+        if (INSTRUMENTED) operations++;
+        Node node = root;
+        for (; node instanceof NonLeafNode; ) {
+            if (INSTRUMENTED) nodesVisited++;
+            NonLeafNode nonLeaf = (NonLeafNode) node;
+            int j = 0;
+            for (; i >= nonLeaf.counts[j]; j++)
+                i -= nonLeaf.counts[j];
+            node = nonLeaf.children[j];
+        }
+        if (INSTRUMENTED) nodesVisited++;
+        LeafNode leaf = (LeafNode) node;
+        return leaf.key(leaf.liveIndex(i));
+    }
+
+    /**
+     * @return the number of entries with l <= k <= r
+     */
+    public int rangeCount(int l, int r) {
+        if (INSTRUMENTED) operations++;
+        return countRange(l, r);
+    }
+
+    /**
+     * @return the sum of the values of the entries with l <= k <= r, or 0 if
+     * there are none. Values are summed subtree by subtree, so the result may
+     * differ in the last bits from a sum in key order.
+     */
+    public double rangeSum(int l, int r) {
+        return aggregate(l, r).sum;
+    }
+
+    /**
+     * @return the least value of the entries with l <= k <= r, or NaN if
+     * there are none; as with Math.min, NaN if any of the values is NaN
+     */
+    public double rangeMin(int l, int r) {
+        Aggregate a = aggregate(l, r);
+        return a.count == 0 ? Double.NaN : a.min;
+    }
+
+    /**
+     * @return the greatest value of the entries with l <= k <= r, or NaN if
+     * there are none; as with Math.max, NaN if any of the values is NaN
+     */
+    public double rangeMax(int l, int r) {
+        Aggregate a = aggregate(l, r);
+        return a.count == 0 ? Double.NaN : a.max;
+    }
 
-        while (!(lNode instanceof LeafNode)) {
-            lNode = ((NonLeafNode) lNode).promisingChild(l);
-            rNode = ((NonLeafNode) rNode).promisingChild(r);
+    private static final class Aggregate {
+        int count;
+        double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    }
+
+    private Aggregate aggregate(int l, int r) {
+        if (INSTRUMENTED) operations++;
+        Aggregate a = new Aggregate();
+        if (l <= r)
+            aggregate(root, l, r, a);
+        return a;
+    }
+
+    /**
+     * Add the entries under node with l <= k <= r to a. A bound of
+     * Integer.MIN_VALUE or MAX_VALUE cuts nothing off, so that children
+     * entirely within the range are taken from the aggregates of their parent
+     * and only the two paths to the ends of the range are descended.
+     */
+    private void aggregate(Node node, int l, int r, Aggregate a) {
+        if (INSTRUMENTED) nodesVisited++;
+        if (node instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            int from = leaf.lowerBound(l), to = leaf.upperBound(r);
+            double[] values = leaf.values(scratchValues, from, to);
+            for (int i = from; i < to; i++) {
+                if (leaf.isDead(i)) continue;
+                a.sum += values[i];
+                a.min = Math.min(a.min, values[i]);
+                a.max = Math.max(a.max, values[i]);
+                a.count++;
+            }
+            return;
+        }
+        NonLeafNode nonLeaf = (NonLeafNode) node;
+        boolean cutLeft = l != Integer.MIN_VALUE, cutRight = r != Integer.MAX_VALUE;
+        int lo = cutLeft ? nonLeaf.upperBound(l) : 0;
+        int hi = cutRight ? nonLeaf.upperBound(r) : nonLeaf.size;
+        for (int j = lo; j <= hi; j++) {
+            if ((j == lo && cutLeft) || (j == hi && cutRight)) {
+                aggregate(nonLeaf.children[j], j == lo ? l : Integer.MIN_VALUE,
+                        j == hi ? r : Integer.MAX_VALUE, a);
+            } else {
+                a.count += nonLeaf.counts[j];
+                a.sum += nonLeaf.sums[j];
+                a.min = Math.min(a.min, nonLeaf.mins[j]);
+                a.max = Math.max(a.max, nonLeaf.maxs[j]);
+            }
         }
-        LeafNode lCast = (LeafNode) lNode;
-        LeafNode rCast = (LeafNode) rNode;
+    }
 
-        for (; ; ) {
-            ans.addAll(lCast.between(l, r));
-            if (lCast == rCast) break;
-            lCast = lCast.next;
+    /**
+     * @return a cursor over this tree, positioned at the smallest key
+     */
+    public Cursor cursor() {
+        Cursor cursor = new Cursor();
+        cursor.seek(Integer.MIN_VALUE);
+        return cursor;
+    }
+
+    /**
+     * Forward iterator over the entries of the tree, walking the leaf chain
+     * without allocating. A cursor is reusable through {@link #seek(int)},
+     * but becomes invalid once the tree is modified.
+     * <p>
+     * Typical use for a range scan of [l, r]:
+     * <pre>
+     * for (cursor.seek(l); cursor.hasNext() &amp;&amp; cursor.nextKey() &lt;= r; )
+     *     sum += cursor.nextValue();
+     * </pre>
+     */
+    public class Cursor {
+        private LeafNode leaf;
+        private int index;
+        // the pairs of leaf, decoded into the buffers if it is packed
+        private LeafNode decoded;
+        private int[] keys, keyBuffer;
+        private double[] values, valueBuffer;
+
+        private Cursor() {
+        }
+
+        /**
+         * Position this cursor at the smallest key >= l.
+         */
+        public void seek(int l) {
+            if (INSTRUMENTED) operations++;
+            leaf = leafFor(l);
+            index = leaf.lowerBound(l);
+            decoded = null;
+            skipToLivePair();
+        }
+
+        private void skipToLivePair() {
+            while (leaf != null && (index >= leaf.size || leaf.isDead(index))) {
+                if (index < leaf.size) {
+                    index++;
+                    continue;
+                }
+                leaf = nextLeaf(leaf);
+                index = 0;
+            }
+            if (leaf == null || leaf == decoded) return;
+            if (leaf.packed != null && keyBuffer == null) {
+                keyBuffer = new int[M];
+                valueBuffer = new double[M];
+            }
+            decoded = leaf;
+            keys = leaf.keys(keyBuffer);
+            values = leaf.values(valueBuffer);
+        }
+
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        /**
+         * @return the key of the next entry; the cursor does not move
+         * @throws NoSuchElementException if there is no next entry
+         */
+        public int nextKey() {
+            if (leaf == null) throw new NoSuchElementException();
+            return keys[index];
         }
-        double[] ansPrimitive = new double[ans.size()];
-        for (int i = 0; i < ans.size(); i++) {
-            ansPrimitive[i] = ans.get(i);
+
+        /**
+         * @return the value of the next entry; the cursor moves past it
+         * @throws NoSuchElementException if there is no next entry
+         */
+        public double nextValue() {
+            if (leaf == null) throw new NoSuchElementException();
+            double v = values[index++];
+            skipToLivePair();
+            return v;
         }
-        return ansPrimitive;
     }
 }
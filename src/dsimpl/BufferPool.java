@@ -0,0 +1,184 @@
+package dsimpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Bounded cache of the fixed-size pages of one file.
+ * <p>
+ * Pages are held in a fixed number of frames. A frame is pinned while in use
+ * and never evicted then; otherwise frames are recycled with the CLOCK
+ * algorithm, writing dirty pages back to the file first.
+ */
+class BufferPool {
+    static final class Frame {
+        int pageId = -1;
+        final ByteBuffer buf;
+        int pins;
+        boolean dirty, referenced;
+
+        Frame(int pageSize) {
+            buf = ByteBuffer.allocate(pageSize);
+        }
+    }
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final Frame[] frames;
+    private int hand;
+
+    // open addressing table from page id to frame index, -1 marking empty slots
+    private final int[] slotPage, slotFrame;
+    private final int slotMask;
+
+    private long hits, misses;
+
+    BufferPool(FileChannel channel, int pageSize, int capacity) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        frames = new Frame[capacity];
+        for (int i = 0; i < capacity; i++)
+            frames[i] = new Frame(pageSize);
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        slotPage = new int[slots];
+        slotFrame = new int[slots];
+        Arrays.fill(slotPage, -1);
+        slotMask = slots - 1;
+    }
+
+    private int slotOf(int pageId) {
+        int s = (pageId * 0x9E3779B9) >>> 7 & slotMask;
+        while (slotPage[s] != -1 && slotPage[s] != pageId)
+            s = (s + 1) & slotMask;
+        return s;
+    }
+
+    private void unmap(int pageId) {
+        int s = slotOf(pageId);
+        slotPage[s] = -1;
+        // shift later entries of the probe sequence back into the hole
+        for (int t = (s + 1) & slotMask; slotPage[t] != -1; t = (t + 1) & slotMask) {
+            int page = slotPage[t], frame = slotFrame[t];
+            slotPage[t] = -1;
+            int u = slotOf(page);
+            slotPage[u] = page;
+            slotFrame[u] = frame;
+        }
+    }
+
+    /**
+     * Pin the frame holding pageId, reading the page in if it is not cached.
+     * Pages past the end of the file read as zeros.
+     */
+    Frame fetch(int pageId) throws IOException {
+        int s = slotOf(pageId);
+        if (slotPage[s] == pageId) {
+            hits++;
+            Frame frame = frames[slotFrame[s]];
+            frame.pins++;
+            frame.referenced = true;
+            return frame;
+        }
+        misses++;
+        Frame frame = claim(pageId);
+        ByteBuffer buf = frame.buf;
+        buf.clear();
+        long position = (long) pageId * pageSize;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) break;
+        }
+        Arrays.fill(buf.array(), buf.position(), pageSize, (byte) 0);
+        return frame;
+    }
+
+    /**
+     * Pin a zeroed frame for a page that is new, without reading it.
+     */
+    Frame allocate(int pageId) throws IOException {
+        int s = slotOf(pageId);
+        Frame frame;
+        if (slotPage[s] == pageId) {
+            frame = frames[slotFrame[s]];
+            frame.pins++;
+        } else {
+            frame = claim(pageId);
+        }
+        Arrays.fill(frame.buf.array(), (byte) 0);
+        frame.dirty = true;
+        return frame;
+    }
+
+    private Frame claim(int pageId) throws IOException {
+        int victim = -1;
+        for (int sweep = 0; sweep < 2 * frames.length; sweep++) {
+            Frame frame = frames[hand];
+            if (frame.pins == 0) {
+                if (!frame.referenced) {
+                    victim = hand;
+                    break;
+                }
+                frame.referenced = false;
+            }
+            hand = (hand + 1) % frames.length;
+        }
+        if (victim < 0)
+            throw new IllegalStateException("all " + frames.length + " buffer pool frames are pinned");
+        hand = (hand + 1) % frames.length;
+
+        Frame frame = frames[victim];
+        if (frame.pageId >= 0) {
+            writeBack(frame);
+            unmap(frame.pageId);
+        }
+        frame.pageId = pageId;
+        frame.pins = 1;
+        frame.referenced = true;
+        frame.dirty = false;
+        int s = slotOf(pageId);
+        slotPage[s] = pageId;
+        slotFrame[s] = victim;
+        return frame;
+    }
+
+    void unpin(Frame frame) {
+        frame.pins--;
+    }
+
+    private void writeBack(Frame frame) throws IOException {
+        if (!frame.dirty) return;
+        ByteBuffer buf = frame.buf;
+        buf.clear();
+        long position = (long) frame.pageId * pageSize;
+        while (buf.hasRemaining())
+            channel.write(buf, position + buf.position());
+        frame.dirty = false;
+    }
+
+    /**
+     * Write every dirty page back to the file.
+     */
+    void flush() throws IOException {
+        for (Frame frame : frames)
+            if (frame.pageId >= 0)
+                writeBack(frame);
+    }
+
+    /**
+     * @return the fraction of fetches served without reading the file
+     */
+    double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+}
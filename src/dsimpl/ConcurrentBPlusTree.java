@@ -0,0 +1,496 @@
+package dsimpl;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe variant of {@link BPlusTree} based on optimistic lock coupling.
+ * <p>
+ * Every node carries a StampedLock whose stamp doubles as a version number.
+ * Readers never lock: they descend taking optimistic stamps, validate each
+ * node after reading from it and restart when a writer got in the way.
+ * Writers descend the same way and convert the stamps of only the nodes they
+ * modify into write locks, parent before child. Full inner nodes are split,
+ * and minimal inner nodes refilled, eagerly on the way down, so a leaf split
+ * or merge never needs more than its parent and one sibling locked.
+ * <p>
+ * Nodes have no parent pointers. The root is a volatile field, and it is only
+ * replaced while the old root is write locked, so a reader that took a stamp
+ * on the node it read from {@code root} and still finds it there holds a
+ * stamp that validates only if that node is still the root.
+ * <p>
+ * Range scans are weakly consistent: each leaf is read atomically, but
+ * updates to leaves not yet reached may or may not be observed.
+ */
+public class ConcurrentBPlusTree {
+    abstract static class Node {
+        final StampedLock lock = new StampedLock();
+        final int[] keys;
+        int size;
+
+        Node(int capacity) {
+            keys = new int[capacity];
+        }
+
+        // both bounds clamp size, which may be torn while reading optimistically
+
+        int upperBound(int k) {
+            return KeySearch.upperBound(keys, Math.min(size, keys.length), k);
+        }
+
+        int lowerBound(int k) {
+            return KeySearch.lowerBound(keys, Math.min(size, keys.length), k);
+        }
+    }
+
+    static final class NonLeafNode extends Node {
+        final Node[] children;
+
+        NonLeafNode(int m) {
+            super(m - 1);
+            children = new Node[m];
+        }
+
+        NonLeafNode(int m, int k, Node leftChild, Node rightChild) {
+            this(m);
+            keys[0] = k;
+            children[0] = leftChild;
+            children[1] = rightChild;
+            size = 1;
+        }
+
+        /**
+         * Insert key k at index i, with rightChild right after it.
+         */
+        void insertAt(int i, int k, Node rightChild) {
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(children, i + 1, children, i + 2, size - i);
+            keys[i] = k;
+            children[i + 1] = rightChild;
+            size++;
+        }
+
+        /**
+         * Remove key i together with its right child.
+         */
+        void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(children, i + 2, children, i + 1, size - i - 1);
+            children[size] = null;
+            size--;
+        }
+    }
+
+    static final class LeafNode extends Node {
+        final double[] values;
+        LeafNode next;
+
+        LeafNode(int m) {
+            super(m - 1);
+            values = new double[m - 1];
+        }
+
+        void insertAt(int i, int k, double v) {
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            keys[i] = k;
+            values[i] = v;
+            size++;
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+        }
+    }
+
+
+    private final int M;
+    private final int MAX_NODE_SIZE;
+    private final int MIN_INNER_SIZE;
+    private final int MIN_LEAF_SIZE;
+
+    private volatile Node root;
+
+    /**
+     * @param m order of the tree; eager splitting needs m >= 4
+     */
+    public ConcurrentBPlusTree(int m) {
+        if (m < 4)
+            throw new IllegalArgumentException("order must be at least 4");
+        M = m;
+        MAX_NODE_SIZE = M - 1;
+        MIN_INNER_SIZE = (M - 2) >> 1;
+        MIN_LEAF_SIZE = (M - 1) >> 1;
+        root = new LeafNode(M);
+    }
+
+    /**
+     * Optimistically descend to the leaf responsible for k.
+     *
+     * @param stamp receives the optimistic stamp of the returned leaf
+     * @return the leaf, or null if a concurrent writer forced a restart
+     */
+    private LeafNode findLeaf(int k, long[] stamp) {
+        Node node = root;
+        long v = node.lock.tryOptimisticRead();
+        if (v == 0 || node != root) return null;
+        while (node instanceof NonLeafNode) {
+            NonLeafNode inner = (NonLeafNode) node;
+            Node child = inner.children[inner.upperBound(k)];
+            if (!inner.lock.validate(v)) return null;
+            long childStamp = child.lock.tryOptimisticRead();
+            if (childStamp == 0 || !inner.lock.validate(v)) return null;
+            node = child;
+            v = childStamp;
+        }
+        stamp[0] = v;
+        return (LeafNode) node;
+    }
+
+    public double get(int k) {
+        long[] stamp = new long[1];
+        for (; ; ) {
+            LeafNode leaf = findLeaf(k, stamp);
+            if (leaf != null) {
+                int i = leaf.lowerBound(k);
+                double v = i < leaf.keys.length && i < leaf.size && leaf.keys[i] == k
+                        ? leaf.values[i] : Double.NaN;
+                if (leaf.lock.validate(stamp[0]))
+                    return v;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Walk the entries with l <= k <= r in key order, reporting each of them
+     * to consumer. Every leaf is copied and validated before any of its
+     * entries is reported, and a scan interrupted by a writer resumes right
+     * after the last key reported.
+     */
+    public void range(int l, int r, IntDoubleConsumer consumer) {
+        if (l > r) return;
+        int[] ks = new int[MAX_NODE_SIZE];
+        double[] vs = new double[MAX_NODE_SIZE];
+        long[] stamp = new long[1];
+        long from = l;
+        LeafNode leaf = null;
+        for (; ; ) {
+            if (leaf == null) {
+                leaf = findLeaf((int) from, stamp);
+                if (leaf == null) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+            }
+            int n = Math.min(leaf.size, ks.length);
+            System.arraycopy(leaf.keys, 0, ks, 0, n);
+            System.arraycopy(leaf.values, 0, vs, 0, n);
+            LeafNode next = leaf.next;
+            long nextStamp = next == null ? 0 : next.lock.tryOptimisticRead();
+            if (!leaf.lock.validate(stamp[0])) {
+                leaf = null;
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                if (ks[i] < from) continue;
+                if (ks[i] > r) return;
+                consumer.accept(ks[i], vs[i]);
+            }
+            if (next == null || (n > 0 && ks[n - 1] >= r)) return;
+            if (n > 0) from = Math.max(from, (long) ks[n - 1] + 1);
+            if (nextStamp == 0) {
+                leaf = null;//next is being written, descend again once it is done
+            } else {
+                leaf = next;
+                stamp[0] = nextStamp;
+            }
+        }
+    }
+
+    // l <= k <= r
+    public double[] range(int l, int r) {
+        double[][] ans = {new double[16]};
+        int[] n = {0};
+        range(l, r, (k, v) -> {
+            if (n[0] == ans[0].length)
+                ans[0] = Arrays.copyOf(ans[0], n[0] << 1);
+            ans[0][n[0]++] = v;
+        });
+        return Arrays.copyOf(ans[0], n[0]);
+    }
+
+    public void insert(int k, double v) {
+        while (!tryInsert(k, v))
+            Thread.onSpinWait();
+    }
+
+    public void delete(int k) {
+        while (!tryDelete(k))
+            Thread.onSpinWait();
+    }
+
+    /**
+     * @return false if the attempt has to be restarted, either because it was
+     * interfered with or because it split a full inner node on the way
+     */
+    private boolean tryInsert(int k, double v) {
+        Node node = root;
+        long stamp = node.lock.tryOptimisticRead();
+        if (stamp == 0 || node != root) return false;
+        NonLeafNode parent = null;
+        long parentStamp = 0;
+        while (node instanceof NonLeafNode) {
+            NonLeafNode inner = (NonLeafNode) node;
+            if (inner.size >= MAX_NODE_SIZE) {
+                splitNonLeaf(parent, parentStamp, inner, stamp);
+                return false;
+            }
+            Node child = inner.children[inner.upperBound(k)];
+            if (!inner.lock.validate(stamp)) return false;
+            long childStamp = child.lock.tryOptimisticRead();
+            if (childStamp == 0 || !inner.lock.validate(stamp)) return false;
+            parent = inner;
+            parentStamp = stamp;
+            node = child;
+            stamp = childStamp;
+        }
+
+        LeafNode leaf = (LeafNode) node;
+        // the leaf may split only if it is full, and then the parent is locked too
+        boolean full = leaf.size >= MAX_NODE_SIZE;
+        long parentWrite = 0;
+        if (full && parent != null && (parentWrite = parent.lock.tryConvertToWriteLock(parentStamp)) == 0)
+            return false;
+        long leafWrite = leaf.lock.tryConvertToWriteLock(stamp);
+        if (leafWrite == 0) {
+            if (parentWrite != 0) parent.lock.unlockWrite(parentWrite);
+            return false;
+        }
+        int i = leaf.lowerBound(k);
+        if (i >= leaf.size || leaf.keys[i] != k) {//otherwise duplicate insertion
+            if (full) splitLeaf(parent, leaf, i, k, v);
+            else leaf.insertAt(i, k, v);
+        }
+        leaf.lock.unlockWrite(leafWrite);
+        if (parentWrite != 0) parent.lock.unlockWrite(parentWrite);
+        return true;
+    }
+
+    /**
+     * Split a full inner node, whose parent is not full, or grow a new root
+     * if it has none. Does nothing if either stamp is no longer valid.
+     */
+    private void splitNonLeaf(NonLeafNode parent, long parentStamp, NonLeafNode node, long stamp) {
+        long parentWrite = 0;
+        if (parent != null && (parentWrite = parent.lock.tryConvertToWriteLock(parentStamp)) == 0)
+            return;
+        long write = node.lock.tryConvertToWriteLock(stamp);
+        if (write != 0) {
+            int mid = node.size >> 1;
+            NonLeafNode right = new NonLeafNode(M);
+            right.size = node.size - mid - 1;
+            System.arraycopy(node.keys, mid + 1, right.keys, 0, right.size);
+            System.arraycopy(node.children, mid + 1, right.children, 0, right.size + 1);
+            Arrays.fill(node.children, mid + 1, node.size + 1, null);
+            int sep = node.keys[mid];
+            node.size = mid;
+            if (parent == null)
+                root = new NonLeafNode(M, sep, node, right);
+            else
+                parent.insertAt(parent.upperBound(sep), sep, right);
+            node.lock.unlockWrite(write);
+        }
+        if (parentWrite != 0) parent.lock.unlockWrite(parentWrite);
+    }
+
+    /**
+     * Insert (k, v) at index i of a full, write-locked leaf by splitting it.
+     * The parent, if any, is write locked and not full.
+     */
+    private void splitLeaf(NonLeafNode parent, LeafNode leaf, int i, int k, double v) {
+        int total = leaf.size + 1;
+        int[] ks = new int[total];
+        double[] vs = new double[total];
+        System.arraycopy(leaf.keys, 0, ks, 0, i);
+        System.arraycopy(leaf.values, 0, vs, 0, i);
+        ks[i] = k;
+        vs[i] = v;
+        System.arraycopy(leaf.keys, i, ks, i + 1, leaf.size - i);
+        System.arraycopy(leaf.values, i, vs, i + 1, leaf.size - i);
+
+        LeafNode right = new LeafNode(M);
+        int leftSize = total >> 1;
+        right.size = total - leftSize;
+        System.arraycopy(ks, leftSize, right.keys, 0, right.size);
+        System.arraycopy(vs, leftSize, right.values, 0, right.size);
+        System.arraycopy(ks, 0, leaf.keys, 0, leftSize);
+        System.arraycopy(vs, 0, leaf.values, 0, leftSize);
+        leaf.size = leftSize;
+        right.next = leaf.next;
+        leaf.next = right;
+
+        int sep = right.keys[0];
+        if (parent == null)
+            root = new NonLeafNode(M, sep, leaf, right);
+        else
+            parent.insertAt(parent.upperBound(sep), sep, right);
+    }
+
+    /**
+     * @return false if the attempt has to be restarted, either because it was
+     * interfered with or because it refilled a minimal inner node on the way
+     */
+    private boolean tryDelete(int k) {
+        Node node = root;
+        long stamp = node.lock.tryOptimisticRead();
+        if (stamp == 0 || node != root) return false;
+        NonLeafNode parent = null;
+        long parentStamp = 0;
+        int childIndex = 0;
+        while (node instanceof NonLeafNode) {
+            NonLeafNode inner = (NonLeafNode) node;
+            int i = inner.upperBound(k);
+            Node child = inner.children[i];
+            if (!inner.lock.validate(stamp)) return false;
+            long childStamp = child.lock.tryOptimisticRead();
+            if (childStamp == 0 || !inner.lock.validate(stamp)) return false;
+            if (child instanceof NonLeafNode && child.size <= MIN_INNER_SIZE) {
+                refill(inner, stamp, i, child, childStamp);
+                return false;
+            }
+            parent = inner;
+            parentStamp = stamp;
+            childIndex = i;
+            node = child;
+            stamp = childStamp;
+        }
+
+        LeafNode leaf = (LeafNode) node;
+        // the leaf may underflow only if it is minimal, and then the parent is locked too
+        boolean minimal = parent != null && leaf.size <= MIN_LEAF_SIZE;
+        long parentWrite = 0;
+        if (minimal && (parentWrite = parent.lock.tryConvertToWriteLock(parentStamp)) == 0)
+            return false;
+        long leafWrite = leaf.lock.tryConvertToWriteLock(stamp);
+        if (leafWrite == 0) {
+            if (parentWrite != 0) parent.lock.unlockWrite(parentWrite);
+            return false;
+        }
+        int i = leaf.lowerBound(k);
+        if (i < leaf.size && leaf.keys[i] == k) {
+            leaf.removeAt(i);
+            if (minimal) rebalance(parent, childIndex);
+        }
+        leaf.lock.unlockWrite(leafWrite);
+        if (parentWrite != 0) parent.lock.unlockWrite(parentWrite);
+        return true;
+    }
+
+    /**
+     * Lock parent and its minimal inner child at index i, then refill the
+     * child. Does nothing if either stamp is no longer valid.
+     */
+    private void refill(NonLeafNode parent, long parentStamp, int i, Node child, long childStamp) {
+        long parentWrite = parent.lock.tryConvertToWriteLock(parentStamp);
+        if (parentWrite == 0) return;
+        long childWrite = child.lock.tryConvertToWriteLock(childStamp);
+        if (childWrite != 0) {
+            rebalance(parent, i);
+            child.lock.unlockWrite(childWrite);
+        }
+        parent.lock.unlockWrite(parentWrite);
+    }
+
+    /**
+     * Borrow for, or merge, the child at index i of parent with an adjacent
+     * sibling. Both parent and that child are write locked by the caller, the
+     * sibling is locked here. Entries are redistributed evenly, rounding in
+     * favour of the child. Collapses the root once it runs out of keys.
+     */
+    private void rebalance(NonLeafNode parent, int i) {
+        int iLeft = i > 0 ? i - 1 : 0;
+        boolean childIsLeft = iLeft == i;
+        Node left = parent.children[iLeft], right = parent.children[iLeft + 1];
+        Node sibling = childIsLeft ? right : left;
+        long siblingWrite = sibling.lock.writeLock();
+        boolean merged = left instanceof LeafNode
+                ? rebalanceLeaves(parent, iLeft, (LeafNode) left, (LeafNode) right, childIsLeft)
+                : rebalanceNonLeaves(parent, iLeft, (NonLeafNode) left, (NonLeafNode) right, childIsLeft);
+        if (merged && parent.size == 0 && parent == root)
+            root = left;
+        sibling.lock.unlockWrite(siblingWrite);
+    }
+
+    /**
+     * @return true if right was merged into left
+     */
+    private boolean rebalanceLeaves(NonLeafNode parent, int iLeft, LeafNode left, LeafNode right,
+                                    boolean childIsLeft) {
+        int total = left.size + right.size;
+        if (total <= MAX_NODE_SIZE) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            System.arraycopy(right.values, 0, left.values, left.size, right.size);
+            left.size = total;
+            left.next = right.next;
+            parent.removeAt(iLeft);
+            return true;
+        }
+        int leftSize = childIsLeft ? (total + 1) >> 1 : total >> 1;
+        if (leftSize > left.size) {
+            int n = leftSize - left.size;
+            System.arraycopy(right.keys, 0, left.keys, left.size, n);
+            System.arraycopy(right.values, 0, left.values, left.size, n);
+            System.arraycopy(right.keys, n, right.keys, 0, right.size - n);
+            System.arraycopy(right.values, n, right.values, 0, right.size - n);
+        } else {
+            int n = left.size - leftSize;
+            System.arraycopy(right.keys, 0, right.keys, n, right.size);
+            System.arraycopy(right.values, 0, right.values, n, right.size);
+            System.arraycopy(left.keys, leftSize, right.keys, 0, n);
+            System.arraycopy(left.values, leftSize, right.values, 0, n);
+        }
+        right.size = total - leftSize;
+        left.size = leftSize;
+        parent.keys[iLeft] = right.keys[0];
+        return false;
+    }
+
+    /**
+     * @return true if right was merged into left
+     */
+    private boolean rebalanceNonLeaves(NonLeafNode parent, int iLeft, NonLeafNode left, NonLeafNode right,
+                                       boolean childIsLeft) {
+        int total = left.size + right.size;
+        if (total + 1 <= MAX_NODE_SIZE) {
+            left.keys[left.size] = parent.keys[iLeft];
+            System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+            left.size = total + 1;
+            parent.removeAt(iLeft);
+            return true;
+        }
+        // lay both nodes and their separator out in one sequence, then cut it anew
+        int[] ks = new int[total + 1];
+        Node[] cs = new Node[total + 2];
+        System.arraycopy(left.keys, 0, ks, 0, left.size);
+        ks[left.size] = parent.keys[iLeft];
+        System.arraycopy(right.keys, 0, ks, left.size + 1, right.size);
+        System.arraycopy(left.children, 0, cs, 0, left.size + 1);
+        System.arraycopy(right.children, 0, cs, left.size + 1, right.size + 1);
+
+        int leftSize = childIsLeft ? (total + 1) >> 1 : total >> 1;
+        Arrays.fill(left.children, null);
+        Arrays.fill(right.children, null);
+        System.arraycopy(ks, 0, left.keys, 0, leftSize);
+        System.arraycopy(cs, 0, left.children, 0, leftSize + 1);
+        parent.keys[iLeft] = ks[leftSize];
+        right.size = total - leftSize;
+        System.arraycopy(ks, leftSize + 1, right.keys, 0, right.size);
+        System.arraycopy(cs, leftSize + 1, right.children, 0, right.size + 1);
+        left.size = leftSize;
+        return false;
+    }
+}
@@ -0,0 +1,484 @@
+package dsimpl;
+
+import java.util.Arrays;
+
+/**
+ * Variant of {@link BPlusTree} whose every version stays readable: updates
+ * never modify a node that a reader may see, but copy the nodes on the path
+ * from the root to the leaf they change, and then publish the new root.
+ * <p>
+ * Each published version is a {@link Snapshot}; {@link #snapshot()} just
+ * hands out the current one, so taking a snapshot is O(1) and a long range
+ * scan over it sees one point in time however the tree changes meanwhile.
+ * Readers never lock and never wait. Writers are serialized by the tree's
+ * monitor. Nothing keeps old versions alive but the snapshots referring to
+ * them, so the garbage collector reclaims each version, down to the nodes
+ * no later version shares, once it is no longer referenced.
+ * <p>
+ * Nodes have neither parent pointers nor leaf links, which could not be
+ * shared between versions: writers keep the path they descended, and scans
+ * move from leaf to leaf through that path. Nodes created by an update that
+ * is not yet published are modified in place, so a batch copies every node
+ * at most once, as if it were a single update.
+ */
+public class CopyOnWriteBPlusTree {
+    /**
+     * Unbounded for any tree of at most 2^32 pairs.
+     */
+    private static final int MAX_HEIGHT = 40;
+
+    abstract static class Node {
+        /**
+         * The update that created this node, which alone may modify it.
+         */
+        final Object edit;
+        final int[] keys;
+        int size;
+
+        Node(Object edit, int[] keys, int size) {
+            this.edit = edit;
+            this.keys = keys;
+            this.size = size;
+        }
+
+        int upperBound(int k) {
+            return KeySearch.upperBound(keys, size, k);
+        }
+
+        int lowerBound(int k) {
+            return KeySearch.lowerBound(keys, size, k);
+        }
+
+        /**
+         * @return this node if edit may modify it, otherwise a copy that it may
+         */
+        abstract Node editable(Object edit);
+    }
+
+    /**
+     * Keys and children are sized from M, so that a node may transiently hold
+     * M keys (M + 1 children) right before it splits.
+     */
+    static final class NonLeafNode extends Node {
+        final Node[] children;
+
+        NonLeafNode(Object edit, int m) {
+            super(edit, new int[m], 0);
+            children = new Node[m + 1];
+        }
+
+        NonLeafNode(Object edit, int m, int k, Node leftChild, Node rightChild) {
+            this(edit, m);
+            keys[0] = k;
+            children[0] = leftChild;
+            children[1] = rightChild;
+            size = 1;
+        }
+
+        private NonLeafNode(Object edit, NonLeafNode original) {
+            super(edit, original.keys.clone(), original.size);
+            children = original.children.clone();
+        }
+
+        @Override
+        NonLeafNode editable(Object edit) {
+            return this.edit == edit ? this : new NonLeafNode(edit, this);
+        }
+
+        /**
+         * Insert key k at index i, with rightChild right after it.
+         */
+        void insertAt(int i, int k, Node rightChild) {
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(children, i + 1, children, i + 2, size - i);
+            keys[i] = k;
+            children[i + 1] = rightChild;
+            size++;
+        }
+
+        /**
+         * Remove key i together with its right child.
+         */
+        void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(children, i + 2, children, i + 1, size - i - 1);
+            children[size] = null;
+            size--;
+        }
+    }
+
+    static final class LeafNode extends Node {
+        final double[] values;
+
+        LeafNode(Object edit, int m) {
+            super(edit, new int[m], 0);
+            values = new double[m];
+        }
+
+        private LeafNode(Object edit, LeafNode original) {
+            super(edit, original.keys.clone(), original.size);
+            values = original.values.clone();
+        }
+
+        @Override
+        LeafNode editable(Object edit) {
+            return this.edit == edit ? this : new LeafNode(edit, this);
+        }
+
+        void insertAt(int i, int k, double v) {
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            keys[i] = k;
+            values[i] = v;
+            size++;
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+        }
+    }
+
+    /**
+     * One version of the tree, read-only and safe to read from any thread
+     * while the tree goes on changing.
+     */
+    public static final class Snapshot {
+        private final Node root;
+        private final int size;
+
+        private Snapshot(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        /**
+         * @return the number of pairs
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the value associated with key k, if exists; NaN otherwise
+         */
+        public double get(int k) {
+            Node node = root;
+            while (node instanceof NonLeafNode)
+                node = ((NonLeafNode) node).children[node.upperBound(k)];
+            int i = node.lowerBound(k);
+            return i < node.size && node.keys[i] == k ? ((LeafNode) node).values[i] : Double.NaN;
+        }
+
+        /**
+         * Walk the entries with l <= k <= r in key order, reporting each of
+         * them to consumer.
+         */
+        public void range(int l, int r, IntDoubleConsumer consumer) {
+            if (l > r) return;
+            NonLeafNode[] path = new NonLeafNode[MAX_HEIGHT];
+            int[] index = new int[MAX_HEIGHT];
+            int depth = 0;
+            Node node = root;
+            while (node instanceof NonLeafNode) {
+                path[depth] = (NonLeafNode) node;
+                index[depth] = node.upperBound(l);
+                node = path[depth].children[index[depth++]];
+            }
+            for (int i = node.lowerBound(l); ; i = 0) {
+                LeafNode leaf = (LeafNode) node;
+                for (; i < leaf.size; i++) {
+                    if (leaf.keys[i] > r) return;
+                    consumer.accept(leaf.keys[i], leaf.values[i]);
+                }
+                // up to the nearest ancestor with a child to the right, then down its leftmost path
+                int d = depth - 1;
+                while (d >= 0 && index[d] == path[d].size)
+                    d--;
+                if (d < 0) return;
+                node = path[d].children[++index[d]];
+                for (d++; d < depth; d++) {
+                    path[d] = (NonLeafNode) node;
+                    index[d] = 0;
+                    node = path[d].children[0];
+                }
+            }
+        }
+
+        // l <= k <= r
+        public double[] range(int l, int r) {
+            int[] n = {0};
+            range(l, r, (k, v) -> n[0]++);
+            // the snapshot cannot change between the two passes
+            double[] ans = new double[n[0]];
+            n[0] = 0;
+            range(l, r, (k, v) -> ans[n[0]++] = v);
+            return ans;
+        }
+    }
+
+    private final int M;
+    private final int MAX_NODE_SIZE;
+    private final int MIN_NODE_SIZE;
+
+    private volatile Snapshot current;
+
+    // what the update in progress builds on; only touched while holding the monitor
+    private Node root;
+    private int size;
+    private Object edit;
+    private final NonLeafNode[] path = new NonLeafNode[MAX_HEIGHT];
+    private final int[] pathIndex = new int[MAX_HEIGHT];
+
+    /**
+     * @param m order of the tree, at least 3
+     */
+    public CopyOnWriteBPlusTree(int m) {
+        if (m < 3)
+            throw new IllegalArgumentException("order must be at least 3");
+        M = m;
+        MAX_NODE_SIZE = M - 1;
+        MIN_NODE_SIZE = ((M & 1) == 1 ? (M + 1) >> 1 : M >> 1) - 1;
+        root = new LeafNode(null, M);
+        current = new Snapshot(root, 0);
+    }
+
+    public int order() {
+        return M;
+    }
+
+    /**
+     * @return the number of pairs
+     */
+    public int size() {
+        return current.size;
+    }
+
+    /**
+     * @return the current version, which no later update affects
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public double get(int k) {
+        return current.get(k);
+    }
+
+    /**
+     * Walk the entries with l <= k <= r in key order, as of the call, reporting
+     * each of them to consumer.
+     */
+    public void range(int l, int r, IntDoubleConsumer consumer) {
+        current.range(l, r, consumer);
+    }
+
+    // l <= k <= r
+    public double[] range(int l, int r) {
+        return current.range(l, r);
+    }
+
+    public synchronized void insert(int k, double v) {
+        begin();
+        put(k, v);
+        publish();
+    }
+
+    public synchronized void delete(int k) {
+        begin();
+        remove(k);
+        publish();
+    }
+
+    /**
+     * Insert a batch of pairs, all of which become visible at once. As with
+     * {@link #insert(int, double)}, keys already in the tree keep their
+     * value, and within the batch the first occurrence wins.
+     */
+    public synchronized void insertAll(int[] keys, double[] values) {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException("keys and values differ in length");
+        begin();
+        for (int i = 0; i < keys.length; i++)
+            put(keys[i], values[i]);
+        publish();
+    }
+
+    /**
+     * Delete a batch of keys, all of which disappear at once.
+     */
+    public synchronized void deleteAll(int[] keys) {
+        begin();
+        for (int k : keys)
+            remove(k);
+        publish();
+    }
+
+    private void begin() {
+        edit = new Object();
+    }
+
+    private void publish() {
+        current = new Snapshot(root, size);
+    }
+
+    /**
+     * @return the depth of the leaf for k, with the path to it in path and
+     * pathIndex
+     */
+    private int descend(int k) {
+        int depth = 0;
+        for (Node node = root; node instanceof NonLeafNode; depth++) {
+            path[depth] = (NonLeafNode) node;
+            pathIndex[depth] = node.upperBound(k);
+            node = path[depth].children[pathIndex[depth]];
+        }
+        return depth;
+    }
+
+    private Node leafAt(int depth) {
+        return depth == 0 ? root : path[depth - 1].children[pathIndex[depth - 1]];
+    }
+
+    private void put(int k, double v) {
+        int depth = descend(k);
+        LeafNode leaf = (LeafNode) leafAt(depth);
+        int i = leaf.lowerBound(k);
+        if (i < leaf.size && leaf.keys[i] == k) return;//duplicate insertion
+        leaf = leaf.editable(edit);
+        leaf.insertAt(i, k, v);
+        size++;
+
+        Node child = leaf, right = null;
+        int separator = 0;
+        if (leaf.size > MAX_NODE_SIZE) {
+            LeafNode newLeaf = new LeafNode(edit, M);
+            int leftSize = leaf.size >> 1;
+            newLeaf.size = leaf.size - leftSize;
+            System.arraycopy(leaf.keys, leftSize, newLeaf.keys, 0, newLeaf.size);
+            System.arraycopy(leaf.values, leftSize, newLeaf.values, 0, newLeaf.size);
+            leaf.size = leftSize;
+            right = newLeaf;
+            separator = newLeaf.keys[0];
+        }
+        for (int d = depth - 1; d >= 0; d--) {
+            NonLeafNode parent = path[d].editable(edit);
+            parent.children[pathIndex[d]] = child;
+            if (right != null) {
+                parent.insertAt(pathIndex[d], separator, right);
+                right = null;
+                if (parent.size > MAX_NODE_SIZE) {
+                    NonLeafNode newNonLeaf = new NonLeafNode(edit, M);
+                    int mid = parent.size >> 1;
+                    newNonLeaf.size = parent.size - mid - 1;
+                    System.arraycopy(parent.keys, mid + 1, newNonLeaf.keys, 0, newNonLeaf.size);
+                    System.arraycopy(parent.children, mid + 1, newNonLeaf.children, 0, newNonLeaf.size + 1);
+                    Arrays.fill(parent.children, mid + 1, parent.size + 1, null);
+                    separator = parent.keys[mid];
+                    parent.size = mid;
+                    right = newNonLeaf;
+                }
+            }
+            child = parent;
+        }
+        root = right == null ? child : new NonLeafNode(edit, M, separator, child, right);
+    }
+
+    private void remove(int k) {
+        int depth = descend(k);
+        LeafNode leaf = (LeafNode) leafAt(depth);
+        int i = leaf.lowerBound(k);
+        if (i >= leaf.size || leaf.keys[i] != k) return;
+        leaf = leaf.editable(edit);
+        leaf.removeAt(i);
+        size--;
+
+        Node child = leaf;
+        for (int d = depth - 1; d >= 0; d--) {
+            NonLeafNode parent = path[d].editable(edit);
+            parent.children[pathIndex[d]] = child;
+            if (child.size < MIN_NODE_SIZE)
+                rebalance(parent, pathIndex[d]);
+            child = parent;
+        }
+        if (child instanceof NonLeafNode && child.size == 0)
+            child = ((NonLeafNode) child).children[0];
+        root = child;
+    }
+
+    /**
+     * Borrow for, or merge, the underflowing child at index i of the editable
+     * parent with an adjacent sibling, copying the sibling first. Entries are
+     * redistributed evenly between the two.
+     */
+    private void rebalance(NonLeafNode parent, int i) {
+        int iLeft = i > 0 ? i - 1 : 0;
+        Node left = parent.children[iLeft].editable(edit), right = parent.children[iLeft + 1].editable(edit);
+        parent.children[iLeft] = left;
+        parent.children[iLeft + 1] = right;
+        if (left instanceof LeafNode)
+            rebalanceLeaves(parent, iLeft, (LeafNode) left, (LeafNode) right);
+        else
+            rebalanceNonLeaves(parent, iLeft, (NonLeafNode) left, (NonLeafNode) right);
+    }
+
+    private void rebalanceLeaves(NonLeafNode parent, int iLeft, LeafNode left, LeafNode right) {
+        int total = left.size + right.size;
+        if (total <= MAX_NODE_SIZE) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            System.arraycopy(right.values, 0, left.values, left.size, right.size);
+            left.size = total;
+            parent.removeAt(iLeft);
+            return;
+        }
+        int leftSize = total >> 1;
+        if (leftSize > left.size) {
+            int n = leftSize - left.size;
+            System.arraycopy(right.keys, 0, left.keys, left.size, n);
+            System.arraycopy(right.values, 0, left.values, left.size, n);
+            System.arraycopy(right.keys, n, right.keys, 0, right.size - n);
+            System.arraycopy(right.values, n, right.values, 0, right.size - n);
+        } else {
+            int n = left.size - leftSize;
+            System.arraycopy(right.keys, 0, right.keys, n, right.size);
+            System.arraycopy(right.values, 0, right.values, n, right.size);
+            System.arraycopy(left.keys, leftSize, right.keys, 0, n);
+            System.arraycopy(left.values, leftSize, right.values, 0, n);
+        }
+        right.size = total - leftSize;
+        left.size = leftSize;
+        parent.keys[iLeft] = right.keys[0];
+    }
+
+    private void rebalanceNonLeaves(NonLeafNode parent, int iLeft, NonLeafNode left, NonLeafNode right) {
+        int total = left.size + right.size;
+        if (total + 1 <= MAX_NODE_SIZE) {
+            left.keys[left.size] = parent.keys[iLeft];
+            System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+            left.size = total + 1;
+            parent.removeAt(iLeft);
+            return;
+        }
+        // lay both nodes and their separator out in one sequence, then cut it anew
+        int[] ks = new int[total + 1];
+        Node[] cs = new Node[total + 2];
+        System.arraycopy(left.keys, 0, ks, 0, left.size);
+        ks[left.size] = parent.keys[iLeft];
+        System.arraycopy(right.keys, 0, ks, left.size + 1, right.size);
+        System.arraycopy(left.children, 0, cs, 0, left.size + 1);
+        System.arraycopy(right.children, 0, cs, left.size + 1, right.size + 1);
+
+        int leftSize = total >> 1;
+        Arrays.fill(left.children, null);
+        Arrays.fill(right.children, null);
+        System.arraycopy(ks, 0, left.keys, 0, leftSize);
+        System.arraycopy(cs, 0, left.children, 0, leftSize + 1);
+        parent.keys[iLeft] = ks[leftSize];
+        right.size = total - leftSize;
+        System.arraycopy(ks, leftSize + 1, right.keys, 0, right.size);
+        System.arraycopy(cs, leftSize + 1, right.children, 0, right.size + 1);
+        left.size = leftSize;
+    }
+}
@@ -0,0 +1,479 @@
+package dsimpl;
+
+/**
+ * Writes doubles as ASCII bytes exactly as {@link Double#toString(double)}
+ * spells them, without creating a String.
+ * <p>
+ * This is a port of the digit generation of the JDK's FloatingDecimal, which
+ * Double.toString is specified by, quirks included: its output is not always
+ * the shortest decimal that reads back to the same double, so a textbook
+ * shortest-digits algorithm would not match it byte for byte. Where the JDK
+ * falls back to arbitrary precision arithmetic, the same steps are carried
+ * out in 128 bits; the few values too wide even for that are handed to
+ * Double.toString itself.
+ * <p>
+ * JDK 19 replaced that algorithm by one that does produce the shortest
+ * decimal, so on JDK 19 and later every value is handed to Double.toString.
+ * <p>
+ * Instances hold scratch state and are not thread-safe.
+ */
+final class DoubleFormat {
+    /**
+     * Longest output of {@link Double#toString(double)}.
+     */
+    static final int MAX_LENGTH = 26;
+
+    // whether Double.toString is the shortest-decimal one of JDK 19 on
+    private static final boolean SHORTEST = Runtime.version().feature() >= 19;
+
+    private static final int EXP_SHIFT = 52;
+    private static final long FRACT_HOB = 1L << EXP_SHIFT;
+    private static final long EXP_ONE = 1023L << EXP_SHIFT;
+    private static final long SIGNIF_BIT_MASK = FRACT_HOB - 1;
+    private static final long EXP_BIT_MASK = 0x7FFL << EXP_SHIFT;
+    private static final int MAX_SMALL_BIN_EXP = 62;
+    private static final int MIN_SMALL_BIN_EXP = -(63 / 3);
+    private static final int MAX_WIDE_BITS = 120;
+
+    private static final int[] SMALL_5_POW = new int[14];
+    private static final long[] LONG_5_POW = new long[27];
+
+    static {
+        SMALL_5_POW[0] = 1;
+        for (int i = 1; i < SMALL_5_POW.length; i++)
+            SMALL_5_POW[i] = SMALL_5_POW[i - 1] * 5;
+        LONG_5_POW[0] = 1;
+        for (int i = 1; i < LONG_5_POW.length; i++)
+            LONG_5_POW[i] = LONG_5_POW[i - 1] * 5;
+    }
+
+    private static final int[] N_5_BITS = {
+            0, 3, 5, 7, 10, 12, 14, 17, 19, 21, 24, 26, 28, 31,
+            33, 35, 38, 40, 42, 45, 47, 49, 52, 54, 56, 59, 61,
+    };
+
+    private static final int[] INSIGNIFICANT_DIGITS_NUMBER = {
+            0, 0, 0, 0, 1, 1, 1, 2, 2, 2, 3, 3, 3, 3,
+            4, 4, 4, 5, 5, 5, 6, 6, 6, 6, 7, 7, 7,
+            8, 8, 8, 9, 9, 9, 9, 10, 10, 10, 11, 11, 11,
+            12, 12, 12, 12, 13, 13, 13, 14, 14, 14,
+            15, 15, 15, 15, 16, 16, 16, 17, 17, 17,
+            18, 18, 18, 19
+    };
+
+    private static final byte[] NAN = {'N', 'a', 'N'};
+    private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    private final byte[] digits = new byte[20];
+    private int firstDigitIndex, nDigits, decExponent;
+
+    // the operands of the digit loop once they outgrow a long, as hi:lo pairs
+    private long bHi, bLo, sHi, sLo, mHi, mLo, tenSHi, tenSLo, wideHi, wideLo;
+
+    /**
+     * Write the bytes of Double.toString(v) to dst from index at on, which
+     * must leave room for {@link #MAX_LENGTH} bytes.
+     *
+     * @return the index following the last byte written
+     */
+    int format(double v, byte[] dst, int at) {
+        if (SHORTEST)
+            return copy(Double.toString(v), dst, at);
+        long dBits = Double.doubleToRawLongBits(v);
+        boolean isNegative = dBits < 0;
+        long fractBits = dBits & SIGNIF_BIT_MASK;
+        int binExp = (int) ((dBits & EXP_BIT_MASK) >> EXP_SHIFT);
+        if (binExp == (int) (EXP_BIT_MASK >> EXP_SHIFT)) {
+            if (fractBits != 0)
+                return copy(NAN, dst, at);
+            if (isNegative)
+                dst[at++] = '-';
+            return copy(INFINITY, dst, at);
+        }
+        int nSignificantBits;
+        if (binExp == 0) {
+            if (fractBits == 0) {
+                if (isNegative)
+                    dst[at++] = '-';
+                dst[at++] = '0';
+                dst[at++] = '.';
+                dst[at++] = '0';
+                return at;
+            }
+            int leadingZeros = Long.numberOfLeadingZeros(fractBits);
+            int shift = leadingZeros - (63 - EXP_SHIFT);
+            fractBits <<= shift;
+            binExp = 1 - shift;
+            nSignificantBits = 64 - leadingZeros;
+        } else {
+            fractBits |= FRACT_HOB;
+            nSignificantBits = EXP_SHIFT + 1;
+        }
+        binExp -= 1023;
+        if (!dtoa(binExp, fractBits, nSignificantBits))
+            return copy(Double.toString(v), dst, at);
+        if (isNegative)
+            dst[at++] = '-';
+        return getChars(dst, at);
+    }
+
+    private static int copy(String src, byte[] dst, int at) {
+        for (int i = 0; i < src.length(); i++)
+            dst[at++] = (byte) src.charAt(i);
+        return at;
+    }
+
+    private static int copy(byte[] src, byte[] dst, int at) {
+        System.arraycopy(src, 0, dst, at, src.length);
+        return at + src.length;
+    }
+
+    private void developLongDigits(int decExponent, long lvalue, int insignificantDigits) {
+        if (insignificantDigits != 0) {
+            long pow10 = LONG_5_POW[insignificantDigits] << insignificantDigits;
+            long residue = lvalue % pow10;
+            lvalue /= pow10;
+            decExponent += insignificantDigits;
+            if (residue >= (pow10 >> 1))
+                lvalue++;
+        }
+        int digitno = digits.length - 1;
+        int c = (int) (lvalue % 10L);
+        lvalue /= 10L;
+        while (c == 0) {
+            decExponent++;
+            c = (int) (lvalue % 10L);
+            lvalue /= 10L;
+        }
+        while (lvalue != 0L) {
+            digits[digitno--] = (byte) (c + '0');
+            decExponent++;
+            c = (int) (lvalue % 10L);
+            lvalue /= 10;
+        }
+        digits[digitno] = (byte) (c + '0');
+        this.decExponent = decExponent + 1;
+        this.firstDigitIndex = digitno;
+        this.nDigits = digits.length - digitno;
+    }
+
+    /**
+     * Develop the digits of fractBits * 2^(binExp - 52) as FloatingDecimal
+     * does in its compatible format.
+     *
+     * @return false if the operands are too wide for 128 bits
+     */
+    private boolean dtoa(int binExp, long fractBits, int nSignificantBits) {
+        final int tailZeros = Long.numberOfTrailingZeros(fractBits);
+        final int nFractBits = EXP_SHIFT + 1 - tailZeros;
+        int nTinyBits = Math.max(0, nFractBits - binExp - 1);
+        if (binExp <= MAX_SMALL_BIN_EXP && binExp >= MIN_SMALL_BIN_EXP) {
+            if (nTinyBits < LONG_5_POW.length && nFractBits + N_5_BITS[nTinyBits] < 64) {
+                if (nTinyBits == 0) {
+                    int insignificant = binExp > nSignificantBits
+                            ? insignificantDigitsForPow2(binExp - nSignificantBits - 1) : 0;
+                    if (binExp >= EXP_SHIFT)
+                        fractBits <<= (binExp - EXP_SHIFT);
+                    else
+                        fractBits >>>= (EXP_SHIFT - binExp);
+                    developLongDigits(0, fractBits, insignificant);
+                    return true;
+                }
+            }
+        }
+        int decExp = estimateDecExp(fractBits, binExp);
+        int B5 = Math.max(0, -decExp);
+        int B2 = B5 + nTinyBits + binExp;
+        int S5 = Math.max(0, decExp);
+        int S2 = S5 + nTinyBits;
+        int M5 = B5;
+        int M2 = B2 - nSignificantBits;
+        fractBits >>>= tailZeros;
+        B2 -= nFractBits - 1;
+        int common2factor = Math.min(B2, S2);
+        B2 -= common2factor;
+        S2 -= common2factor;
+        M2 -= common2factor;
+        if (nFractBits == 1)
+            M2 -= 1;
+        if (M2 < 0) {
+            B2 -= M2;
+            S2 -= M2;
+            M2 = 0;
+        }
+        int ndigit = 0;
+        boolean low, high;
+        long lowDigitDifference;
+        int q;
+        int Bbits = nFractBits + B2 + (B5 < N_5_BITS.length ? N_5_BITS[B5] : B5 * 3);
+        int tenSbits = S2 + 1 + (S5 + 1 < N_5_BITS.length ? N_5_BITS[S5 + 1] : (S5 + 1) * 3);
+        if (Bbits < 64 && tenSbits < 64) {
+            if (Bbits < 32 && tenSbits < 32) {
+                int b = ((int) fractBits * SMALL_5_POW[B5]) << B2;
+                int s = SMALL_5_POW[S5] << S2;
+                int m = SMALL_5_POW[M5] << M2;
+                int tens = s * 10;
+                q = b / s;
+                b = 10 * (b % s);
+                m *= 10;
+                low = b < m;
+                high = b + m > tens;
+                if (q == 0 && !high)
+                    decExp--;
+                else
+                    digits[ndigit++] = (byte) ('0' + q);
+                if (decExp < -3 || decExp >= 8)
+                    high = low = false;
+                while (!low && !high) {
+                    q = b / s;
+                    b = 10 * (b % s);
+                    m *= 10;
+                    if (m > 0L) {
+                        low = b < m;
+                        high = b + m > tens;
+                    } else {
+                        // m overflowed, as it does in FloatingDecimal
+                        low = true;
+                        high = true;
+                    }
+                    digits[ndigit++] = (byte) ('0' + q);
+                }
+                lowDigitDifference = (b << 1) - tens;
+            } else {
+                long b = (fractBits * LONG_5_POW[B5]) << B2;
+                long s = LONG_5_POW[S5] << S2;
+                long m = LONG_5_POW[M5] << M2;
+                long tens = s * 10L;
+                q = (int) (b / s);
+                b = 10L * (b % s);
+                m *= 10L;
+                low = b < m;
+                high = b + m > tens;
+                if (q == 0 && !high)
+                    decExp--;
+                else
+                    digits[ndigit++] = (byte) ('0' + q);
+                if (decExp < -3 || decExp >= 8)
+                    high = low = false;
+                while (!low && !high) {
+                    q = (int) (b / s);
+                    b = 10 * (b % s);
+                    m *= 10;
+                    if (m > 0L) {
+                        low = b < m;
+                        high = b + m > tens;
+                    } else {
+                        low = true;
+                        high = true;
+                    }
+                    digits[ndigit++] = (byte) ('0' + q);
+                }
+                lowDigitDifference = (b << 1) - tens;
+            }
+        } else {
+            if (Bbits > MAX_WIDE_BITS || tenSbits > MAX_WIDE_BITS || B5 >= LONG_5_POW.length - 1
+                    || S5 >= LONG_5_POW.length - 1)
+                return false;
+            // FloatingDecimal goes to FDBigInteger here; note that its
+            // test for high is inclusive, unlike in the two paths above
+            wide(1, LONG_5_POW[S5], S2);
+            sHi = wideHi;
+            sLo = wideLo;
+            wide(1, LONG_5_POW[S5 + 1], S2 + 1);
+            tenSHi = wideHi;
+            tenSLo = wideLo;
+            wide(1, LONG_5_POW[M5 + 1], M2 + 1);
+            mHi = wideHi;
+            mLo = wideLo;
+            wide(fractBits, LONG_5_POW[B5], B2);
+            bHi = wideHi;
+            bLo = wideLo;
+
+            q = quoRemIteration();
+            low = compare(bHi, bLo, mHi, mLo) < 0;
+            high = tenSNotAboveBPlusM();
+            if (q == 0 && !high)
+                decExp--;
+            else
+                digits[ndigit++] = (byte) ('0' + q);
+            if (decExp < -3 || decExp >= 8)
+                high = low = false;
+            while (!low && !high) {
+                q = quoRemIteration();
+                long hi = mHi, lo = mLo;
+                mHi = (hi << 3 | lo >>> 61) + (hi << 1 | lo >>> 63);
+                mLo = (lo << 3) + (lo << 1);
+                if (Long.compareUnsigned(mLo, lo << 3) < 0)
+                    mHi++;
+                low = compare(bHi, bLo, mHi, mLo) < 0;
+                high = tenSNotAboveBPlusM();
+                digits[ndigit++] = (byte) ('0' + q);
+            }
+            lowDigitDifference = high && low
+                    ? compare(bHi << 1 | bLo >>> 63, bLo << 1, tenSHi, tenSLo) : 0L;
+        }
+        this.decExponent = decExp + 1;
+        this.firstDigitIndex = 0;
+        this.nDigits = ndigit;
+        if (high) {
+            if (low) {
+                if (lowDigitDifference == 0L) {
+                    if ((digits[nDigits - 1] & 1) != 0)
+                        roundup();
+                } else if (lowDigitDifference > 0) {
+                    roundup();
+                }
+            } else {
+                roundup();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * wide = x * y * 2^shift, for x and y in [0, 2^63) and a product that
+     * fits in 128 bits.
+     */
+    private void wide(long x, long y, int shift) {
+        long hi = Math.multiplyHigh(x, y), lo = x * y;
+        if (shift >= 64) {
+            hi = lo << (shift - 64);
+            lo = 0;
+        } else if (shift > 0) {
+            hi = hi << shift | lo >>> (64 - shift);
+            lo <<= shift;
+        }
+        wideHi = hi;
+        wideLo = lo;
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int c = Long.compareUnsigned(aHi, bHi);
+        return c != 0 ? c : Long.compareUnsigned(aLo, bLo);
+    }
+
+    /**
+     * q = b / s; b = 10 * (b mod s); return q.
+     */
+    private int quoRemIteration() {
+        int q = 0;
+        while (compare(bHi, bLo, sHi, sLo) >= 0) {
+            long lo = bLo - sLo;
+            bHi = bHi - sHi - (Long.compareUnsigned(bLo, sLo) < 0 ? 1 : 0);
+            bLo = lo;
+            q++;
+        }
+        long hi = bHi, lo = bLo;
+        bHi = (hi << 3 | lo >>> 61) + (hi << 1 | lo >>> 63);
+        bLo = (lo << 3) + (lo << 1);
+        if (Long.compareUnsigned(bLo, lo << 3) < 0)
+            bHi++;
+        return q;
+    }
+
+    private boolean tenSNotAboveBPlusM() {
+        long lo = bLo + mLo;
+        long hi = bHi + mHi + (Long.compareUnsigned(lo, bLo) < 0 ? 1 : 0);
+        return compare(tenSHi, tenSLo, hi, lo) <= 0;
+    }
+
+    private void roundup() {
+        int i = firstDigitIndex + nDigits - 1;
+        int q = digits[i];
+        if (q == '9') {
+            while (q == '9' && i > firstDigitIndex) {
+                digits[i] = '0';
+                q = digits[--i];
+            }
+            if (q == '9') {
+                decExponent += 1;
+                digits[firstDigitIndex] = '1';
+                return;
+            }
+        }
+        digits[i] = (byte) (q + 1);
+    }
+
+    private static int estimateDecExp(long fractBits, int binExp) {
+        double d2 = Double.longBitsToDouble(EXP_ONE | (fractBits & SIGNIF_BIT_MASK));
+        double d = (d2 - 1.5D) * 0.289529654D + 0.176091259 + (double) binExp * 0.301029995663981;
+        long dBits = Double.doubleToRawLongBits(d);
+        int exponent = (int) ((dBits & EXP_BIT_MASK) >> EXP_SHIFT) - 1023;
+        boolean isNegative = dBits < 0;
+        if (exponent >= 0 && exponent < 52) {
+            long mask = SIGNIF_BIT_MASK >> exponent;
+            int r = (int) (((dBits & SIGNIF_BIT_MASK) | FRACT_HOB) >> (EXP_SHIFT - exponent));
+            return isNegative ? (((mask & dBits) == 0L) ? -r : -r - 1) : r;
+        } else if (exponent < 0) {
+            return (dBits & Long.MAX_VALUE) == 0 ? 0 : isNegative ? -1 : 0;
+        } else {
+            return (int) d;
+        }
+    }
+
+    private static int insignificantDigitsForPow2(int p2) {
+        if (p2 > 1 && p2 < INSIGNIFICANT_DIGITS_NUMBER.length)
+            return INSIGNIFICANT_DIGITS_NUMBER[p2];
+        return 0;
+    }
+
+    private int getChars(byte[] result, int i) {
+        if (decExponent > 0 && decExponent < 8) {
+            int charLength = Math.min(nDigits, decExponent);
+            System.arraycopy(digits, firstDigitIndex, result, i, charLength);
+            i += charLength;
+            if (charLength < decExponent) {
+                charLength = decExponent - charLength;
+                for (int end = i + charLength; i < end; i++)
+                    result[i] = '0';
+                result[i++] = '.';
+                result[i++] = '0';
+            } else {
+                result[i++] = '.';
+                if (charLength < nDigits) {
+                    int t = nDigits - charLength;
+                    System.arraycopy(digits, firstDigitIndex + charLength, result, i, t);
+                    i += t;
+                } else {
+                    result[i++] = '0';
+                }
+            }
+        } else if (decExponent <= 0 && decExponent > -3) {
+            result[i++] = '0';
+            result[i++] = '.';
+            for (int end = i - decExponent; i < end; i++)
+                result[i] = '0';
+            System.arraycopy(digits, firstDigitIndex, result, i, nDigits);
+            i += nDigits;
+        } else {
+            result[i++] = digits[firstDigitIndex];
+            result[i++] = '.';
+            if (nDigits > 1) {
+                System.arraycopy(digits, firstDigitIndex + 1, result, i, nDigits - 1);
+                i += nDigits - 1;
+            } else {
+                result[i++] = '0';
+            }
+            result[i++] = 'E';
+            int e;
+            if (decExponent <= 0) {
+                result[i++] = '-';
+                e = -decExponent + 1;
+            } else {
+                e = decExponent - 1;
+            }
+            if (e <= 9) {
+                result[i++] = (byte) (e + '0');
+            } else if (e <= 99) {
+                result[i++] = (byte) (e / 10 + '0');
+                result[i++] = (byte) (e % 10 + '0');
+            } else {
+                result[i++] = (byte) (e / 100 + '0');
+                e %= 100;
+                result[i++] = (byte) (e / 10 + '0');
+                result[i++] = (byte) (e % 10 + '0');
+            }
+        }
+        return i;
+    }
+}
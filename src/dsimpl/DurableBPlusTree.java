@@ -0,0 +1,182 @@
+package dsimpl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link BPlusTree} made durable by a {@link WriteAheadLog} and periodic
+ * checkpoints, both kept in one directory.
+ * <p>
+ * Every update is logged before it is applied. Once the log outgrows the
+ * checkpoint budget, the whole tree is written to a new checkpoint, a
+ * {@link BPlusTree#saveSnapshot(Path) snapshot} which
+ * atomically replaces the previous one, and, once the directory holds the
+ * new one durably, the log is truncated. Opening
+ * the directory recovers the tree from the last checkpoint plus the log.
+ * <p>
+ * Should a crash hit between replacing the checkpoint and truncating the
+ * log, the log is replayed on top of a checkpoint that already covers it.
+ * That is harmless: insertions keep the first value of a key until it is
+ * deleted, so replaying a log over its own result yields that result again.
+ */
+public class DurableBPlusTree implements AutoCloseable {
+    public static final String LOG_FILENAME = "wal.log";
+    public static final String CHECKPOINT_FILENAME = "checkpoint";
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final long checkpointBytes;
+    // bytes logged since the last checkpoint, counted without asking the log
+    private long logBytes;
+    private BPlusTree tree;
+
+    /**
+     * Open, or create, the tree kept in directory and recover its content.
+     *
+     * @param groupBytes      pending log bytes that trigger a group commit
+     * @param groupNanos      longest time an update may wait for its group
+     *                        commit, or 0 for no time budget
+     * @param checkpointBytes log size that triggers a checkpoint
+     */
+    public DurableBPlusTree(Path directory, int groupBytes, long groupNanos, long checkpointBytes)
+            throws IOException {
+        this.directory = directory;
+        this.checkpointBytes = checkpointBytes;
+        Files.createDirectories(directory);
+        readCheckpoint();
+        log = new WriteAheadLog(directory.resolve(LOG_FILENAME), groupBytes, groupNanos);
+        try {
+            log.replay(new WriteAheadLog.Visitor() {
+                @Override
+                public void initialize(int m) {
+                    tree = new BPlusTree(m);
+                }
+
+                @Override
+                public void insert(int k, double v) throws IOException {
+                    checkReplayed();
+                    tree.insert(k, v);
+                }
+
+                @Override
+                public void delete(int k) throws IOException {
+                    checkReplayed();
+                    tree.delete(k);
+                }
+
+                private void checkReplayed() throws IOException {
+                    if (tree == null)
+                        throw new IOException("the log updates a tree it never initialized");
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        logBytes = log.size();
+    }
+
+    /**
+     * Defaults to group commits of 64 KiB or 10 ms, and checkpoints once the
+     * log reaches 64 MiB.
+     */
+    public DurableBPlusTree(Path directory) throws IOException {
+        this(directory, 1 << 16, 10_000_000L, 1L << 26);
+    }
+
+    public boolean isInitialized() {
+        return tree != null;
+    }
+
+    /**
+     * @return the recovered tree, for reading; null if not initialized yet.
+     * Updates must go through this object to be logged.
+     */
+    public BPlusTree tree() {
+        return tree;
+    }
+
+    /**
+     * Start over with an empty tree of order m.
+     */
+    public void initialize(int m) throws IOException {
+        log.appendInitialize(m);
+        tree = new BPlusTree(m);
+        logBytes += WriteAheadLog.INITIALIZE_BYTES;
+        checkpointIfDue();
+    }
+
+    /**
+     * @throws IllegalStateException if not initialized yet, before anything
+     *                               is logged
+     */
+    public void insert(int k, double v) throws IOException {
+        checkInitialized();
+        log.appendInsert(k, v);
+        tree.insert(k, v);
+        logBytes += WriteAheadLog.INSERT_BYTES;
+        checkpointIfDue();
+    }
+
+    /**
+     * @throws IllegalStateException if not initialized yet, before anything
+     *                               is logged
+     */
+    public void delete(int k) throws IOException {
+        checkInitialized();
+        log.appendDelete(k);
+        tree.delete(k);
+        logBytes += WriteAheadLog.DELETE_BYTES;
+        checkpointIfDue();
+    }
+
+    private void checkInitialized() {
+        if (tree == null)
+            throw new IllegalStateException("not initialized");
+    }
+
+    /**
+     * Make every update so far durable.
+     */
+    public void sync() throws IOException {
+        log.sync();
+    }
+
+    private void checkpointIfDue() throws IOException {
+        if (logBytes >= checkpointBytes)
+            checkpoint();
+    }
+
+    /**
+     * Write the whole tree to a new checkpoint and truncate the log.
+     */
+    public void checkpoint() throws IOException {
+        if (tree == null) return;
+        log.sync();
+        Path tmp = directory.resolve(CHECKPOINT_FILENAME + ".tmp");
+        tree.saveSnapshot(tmp);
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILENAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the rename must be durable before the log it replaces is dropped
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+        log.truncate();
+        logBytes = 0;
+    }
+
+    private void readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILENAME);
+        if (Files.exists(file))
+            tree = BPlusTree.loadSnapshot(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,297 @@
+package dsimpl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads instructions such as {@code Insert(3, 1.5)} line by line straight
+ * from the bytes of a stream, without creating a String per line or token.
+ * <p>
+ * Lines and tokens come out exactly as with
+ * {@code BufferedReader.readLine()}, then {@code line.split("[\\(,\\)]")}
+ * and {@code trim()} of every token, and arguments parse exactly as with
+ * {@code Integer.valueOf} and {@code Double.valueOf}. Input is taken to be in
+ * an ASCII-compatible charset; the rare argument holding other bytes is
+ * decoded with the default charset and parsed the slow way.
+ */
+public class InstructionReader implements Closeable {
+    public static final int MALFORMED = 0, INITIALIZE = 1, INSERT = 2, DELETE = 3, SEARCH = 4,
+            RANGE_COUNT = 5, RANGE_SUM = 6, RANGE_MIN = 7, RANGE_MAX = 8, RANK = 9, SELECT = 10,
+            SEARCH_LIMIT = 11, SEARCH_DESC = 12;
+
+    private static final byte[][] COMMANDS = {
+            null, ascii("Initialize"), ascii("Insert"), ascii("Delete"), ascii("Search"),
+            ascii("RangeCount"), ascii("RangeSum"), ascii("RangeMin"), ascii("RangeMax"), ascii("Rank"), ascii("Select"),
+            ascii("SearchLimit"), ascii("SearchDesc")
+    };
+    private static final int MAX_TOKENS = 4;
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos, limit;
+    private boolean eof, skipLF;
+
+    private int command, tokenCount;
+    // trimmed bounds of the first MAX_TOKENS tokens of the current line
+    private final int[] tokenStart = new int[MAX_TOKENS], tokenEnd = new int[MAX_TOKENS];
+
+    public InstructionReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    public InstructionReader(InputStream in) {
+        this(in, 1 << 20);
+    }
+
+    /**
+     * Advance to the next line.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean next() throws IOException {
+        if (skipLF) {
+            // the last line ended with '\r'; a '\n' right after belongs to it
+            if (pos < limit || fill())
+                if (buf[pos] == '\n')
+                    pos++;
+            skipLF = false;
+        }
+        int end = pos;
+        for (; ; ) {
+            while (end < limit && buf[end] != '\n' && buf[end] != '\r')
+                end++;
+            if (end < limit)
+                break;
+            int scanned = end - pos;
+            boolean more = fill();
+            end = pos + scanned;
+            if (!more) {
+                if (pos == limit)
+                    return false;
+                break;// the last line has no terminator
+            }
+        }
+        tokenize(pos, end);
+        if (end < limit) {
+            skipLF = buf[end] == '\r';
+            pos = end + 1;
+        } else {
+            pos = end;
+        }
+        return true;
+    }
+
+    /**
+     * Read what the stream has available, without waiting for more, until a
+     * whole line is buffered.
+     *
+     * @return whether {@link #next()} can go on without waiting for the
+     * stream: a whole line is buffered or the stream is known to have ended
+     */
+    public boolean ready() throws IOException {
+        for (int scanned = 0; ; ) {
+            if (skipLF && pos < limit) {
+                if (buf[pos] == '\n')
+                    pos++;
+                skipLF = false;
+            }
+            for (int p = pos + scanned; p < limit; p++)
+                if (buf[p] == '\n' || buf[p] == '\r')
+                    return true;
+            if (eof || in.available() <= 0)
+                return eof;
+            scanned = limit - pos;
+            fill();
+        }
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer, growing it if they
+     * fill it, and read more after them.
+     *
+     * @return false if the stream is exhausted
+     */
+    private boolean fill() throws IOException {
+        if (eof)
+            return false;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        } else if (limit == buf.length) {
+            byte[] grown = new byte[buf.length << 1];
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+        int n;
+        do {
+            n = in.read(buf, limit, buf.length - limit);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private void tokenize(int from, int end) {
+        int count = 0, nonEmpty = 0, delimiters = 0;
+        for (int start = from; ; ) {
+            int i = start;
+            while (i < end && buf[i] != '(' && buf[i] != ',' && buf[i] != ')')
+                i++;
+            if (count < MAX_TOKENS) {
+                int s = start, e = i;
+                while (s < e && (buf[s] & 0xff) <= ' ')
+                    s++;
+                while (e > s && (buf[e - 1] & 0xff) <= ' ')
+                    e--;
+                tokenStart[count] = s;
+                tokenEnd[count] = e;
+            }
+            count++;
+            // like String.split, drop trailing tokens that are empty before trimming
+            if (i > start)
+                nonEmpty = count;
+            if (i == end)
+                break;
+            delimiters++;
+            start = i + 1;
+        }
+        tokenCount = delimiters == 0 ? 1 : nonEmpty;
+        command = MALFORMED;
+        if (tokenCount > 0)
+            for (int c = INITIALIZE; c < COMMANDS.length; c++)
+                if (tokenEquals(0, COMMANDS[c])) {
+                    command = c;
+                    break;
+                }
+    }
+
+    private boolean tokenEquals(int token, byte[] word) {
+        int s = tokenStart[token];
+        if (tokenEnd[token] - s != word.length)
+            return false;
+        for (int i = 0; i < word.length; i++)
+            if (buf[s + i] != word[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the command named by the first token of the line, or
+     * {@link #MALFORMED} if it names none
+     */
+    public int command() {
+        return command;
+    }
+
+    /**
+     * @return the number of tokens following the command
+     */
+    public int argCount() {
+        return tokenCount - 1;
+    }
+
+    /**
+     * @return argument i, counting from 0, as by {@code Integer.valueOf}
+     * @throws NumberFormatException if it is not an int
+     */
+    public int intArg(int i) {
+        int s = tokenStart[i + 1], e = tokenEnd[i + 1];
+        boolean negative = false;
+        if (s < e && (buf[s] == '-' || buf[s] == '+'))
+            negative = buf[s++] == '-';
+        if (s == e)
+            throw new NumberFormatException();
+        long value = 0;
+        for (int p = s; p < e; p++) {
+            int d = buf[p] - '0';
+            if (d < 0 || d > 9)
+                return Integer.parseInt(decode(i));
+            value = value * 10 + d;
+            if (value > 1L << 31)
+                throw new NumberFormatException();
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+            throw new NumberFormatException();
+        return (int) value;
+    }
+
+    /**
+     * @return argument i, counting from 0, as by {@code Double.valueOf}
+     * @throws NumberFormatException if it is not a double
+     */
+    public double doubleArg(int i) {
+        // plain decimals with a short enough significand and exponent are
+        // exact after one rounding multiplication or division; everything
+        // else, from hexadecimal to "NaN", goes to Double.parseDouble
+        int s = tokenStart[i + 1], e = tokenEnd[i + 1], p = s;
+        boolean negative = false;
+        if (p < e && (buf[p] == '-' || buf[p] == '+'))
+            negative = buf[p++] == '-';
+        long significand = 0;
+        int digits = 0, significant = 0, exponent = 0;
+        for (boolean point = false; p < e; p++) {
+            int d = buf[p] - '0';
+            if (d >= 0 && d <= 9) {
+                digits++;
+                if (significand != 0 || d != 0)
+                    significant++;
+                significand = significand * 10 + d;
+                if (point)
+                    exponent--;
+                if (significant > 18)
+                    return Double.parseDouble(decode(i));
+            } else if (buf[p] == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (p < e && (buf[p] == 'e' || buf[p] == 'E') && digits > 0) {
+            p++;
+            boolean negativeExponent = false;
+            if (p < e && (buf[p] == '-' || buf[p] == '+'))
+                negativeExponent = buf[p++] == '-';
+            int explicit = 0, expDigits = 0;
+            for (; p < e && buf[p] >= '0' && buf[p] <= '9' && expDigits < 5; p++, expDigits++)
+                explicit = explicit * 10 + buf[p] - '0';
+            if (expDigits == 0)
+                return Double.parseDouble(decode(i));
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (p < e || digits == 0 || significand > 1L << 53 || exponent < -22 || exponent > 22)
+            return Double.parseDouble(decode(i));
+        double value = exponent < 0 ? significand / POW10[-exponent] : significand * POW10[exponent];
+        return negative ? -value : value;
+    }
+
+    private String decode(int i) {
+        int s = tokenStart[i + 1];
+        return new String(buf, s, tokenEnd[i + 1] - s, Charset.defaultCharset());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
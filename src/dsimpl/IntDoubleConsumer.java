@@ -0,0 +1,10 @@
+package dsimpl;
+
+/**
+ * Primitive specialization of {@code BiConsumer<Integer, Double>}, used to
+ * visit dictionary pairs without boxing.
+ */
+@FunctionalInterface
+public interface IntDoubleConsumer {
+    void accept(int k, double v);
+}
@@ -0,0 +1,45 @@
+package dsimpl;
+
+/**
+ * Search within the sorted keys of a node, without data-dependent branches.
+ * <p>
+ * A window of up to LINEAR_MAX keys is searched by counting the keys below
+ * the one sought, which the CPU pipelines freely. Longer arrays are first
+ * narrowed down to such a window by a binary search whose every step is a
+ * conditional add, so a descent through nodes of random keys never stalls
+ * on a mispredicted branch.
+ */
+final class KeySearch {
+    /**
+     * Widest window searched linearly; measured best between 8 and 32 for
+     * nodes of 3 to 255 keys.
+     */
+    static final int LINEAR_MAX = 16;
+
+    private KeySearch() {
+    }
+
+    /**
+     * @return the index of the first of keys[0, size) that is >= k, or size
+     */
+    static int lowerBound(int[] keys, int size, int k) {
+        int base = 0, length = size;
+        while (length > LINEAR_MAX) {
+            int half = length >>> 1;
+            // base += half if keys[base + half - 1] < k
+            base += half & (int) (((long) keys[base + half - 1] - k) >> 63);
+            length -= half;
+        }
+        int index = base;
+        for (int i = base, end = base + length; i < end; i++)
+            index += keys[i] < k ? 1 : 0;
+        return index;
+    }
+
+    /**
+     * @return the index of the first of keys[0, size) that is > k, or size
+     */
+    static int upperBound(int[] keys, int size, int k) {
+        return k == Integer.MAX_VALUE ? size : lowerBound(keys, size, k + 1);
+    }
+}
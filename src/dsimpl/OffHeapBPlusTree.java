@@ -0,0 +1,586 @@
+package dsimpl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * B+ tree whose nodes live outside the Java heap, in slabs of native memory,
+ * so that the garbage collector sees a handful of objects however many pairs
+ * the tree holds.
+ * <p>
+ * Every node is a fixed-size record in a direct ByteBuffer slab, named by an
+ * int id from which its slab and offset follow. Children and the sibling
+ * links of leaves are such ids. Freed nodes go on a free list and are reused
+ * before a new slab is allocated. Nodes have no parent ids: as in
+ * {@link PagedBPlusTree}, updates remember the path they descended instead.
+ * <p>
+ * Slabs count against -XX:MaxDirectMemorySize, which defaults to the maximum
+ * heap size. {@link #close()} releases them right away rather than whenever
+ * the collector gets to their buffers, as long as the runtime lets it, which
+ * {@link #freesEagerly()} tells; a closed tree throws IllegalStateException.
+ */
+public class OffHeapBPlusTree implements AutoCloseable {
+    public static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+    // node layout; leaves follow KEYS with values, non-leaves with children
+    private static final int TYPE = 0, SIZE = 4, PREV = 8, NEXT = 12, KEYS = 16;
+    private static final int FREE = 0, LEAF = 1, NON_LEAF = 2;
+    /**
+     * Node id meaning "no node". Id 0 is never handed out.
+     */
+    private static final int NONE = 0;
+
+    private final int M;
+    private final int MAX_NODE_SIZE;
+    private final int MIN_NODE_SIZE;
+    private final int VALUES, CHILDREN, NODE_BYTES;
+
+    private final int slabShift, slabMask;
+    private ByteBuffer[] slabs;
+    private int slabCount;
+    private int nodeCount;// ids handed out so far, including NONE
+    private int freeHead = NONE;
+    private long freeNodes;
+
+    private int root;
+    private long pairCount;
+
+    // non-leaf nodes, and child indexes within them, passed by the last descent
+    private int[] path = new int[16];
+    private int[] pathIndex = new int[16];
+    private int depth;
+
+    /**
+     * @param slabBytes bytes of native memory to allocate at a time; rounded
+     *                  down to a power-of-two number of nodes, at least one
+     */
+    public OffHeapBPlusTree(int m, int slabBytes) {
+        if (m < 3)
+            throw new IllegalArgumentException("order must be at least 3");
+        M = m;
+        MAX_NODE_SIZE = M - 1;
+        MIN_NODE_SIZE = ((M & 1) == 1 ? (M + 1) >> 1 : M >> 1) - 1;
+        // a node holds M keys, and M values or M + 1 children, right before splitting
+        CHILDREN = KEYS + 4 * M;
+        VALUES = CHILDREN + 7 & ~7;
+        NODE_BYTES = Math.max(VALUES + 8 * M, CHILDREN + 4 * (M + 1)) + 7 & ~7;
+        int nodesPerSlab = Integer.highestOneBit(Math.max(1, slabBytes / NODE_BYTES));
+        slabShift = Integer.numberOfTrailingZeros(nodesPerSlab);
+        slabMask = nodesPerSlab - 1;
+        slabs = new ByteBuffer[16];
+        nodeCount = 1;
+        root = allocate(LEAF);
+    }
+
+    public OffHeapBPlusTree(int m) {
+        this(m, DEFAULT_SLAB_BYTES);
+    }
+
+    public int order() {
+        return M;
+    }
+
+    public long size() {
+        return pairCount;
+    }
+
+    /**
+     * @return the native memory held by the slabs of this tree, in bytes
+     */
+    public long nativeBytes() {
+        return (long) slabCount * (slabMask + 1) * NODE_BYTES;
+    }
+
+    /**
+     * @return the number of nodes in the tree, not counting free ones
+     */
+    public long nodeCount() {
+        return nodeCount - 1 - freeNodes;
+    }
+
+    /**
+     * Release the native memory of this tree. Further use of it throws
+     * IllegalStateException. Unless {@link #freesEagerly()}, the memory is
+     * only dropped, and goes once the collector gets to the slabs.
+     */
+    @Override
+    public void close() {
+        if (slabs == null) return;
+        for (int i = 0; i < slabCount; i++)
+            free(slabs[i]);
+        slabs = null;
+        slabCount = 0;
+    }
+
+    /*
+     * Slab allocator.
+     */
+
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    // Unsafe.invokeCleaner frees a direct buffer at once; without it, the
+    // memory goes once the buffer is collected
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether {@link #close()} frees native memory at once, which
+     * takes sun.misc.Unsafe from the jdk.unsupported module
+     */
+    public static boolean freesEagerly() {
+        return INVOKE_CLEANER != null;
+    }
+
+    private static void free(ByteBuffer slab) {
+        if (INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invokeExact(slab);
+        } catch (Throwable e) {
+            throw new Error(e);
+        }
+    }
+
+    private int allocate(int type) {
+        int node;
+        if (freeHead != NONE) {
+            node = freeHead;
+            freeHead = next(node);
+            freeNodes--;
+        } else {
+            // a loop, as with one node per slab the first slab only holds NONE
+            while (nodeCount >>> slabShift >= slabCount) {
+                if (slabCount == slabs.length)
+                    slabs = Arrays.copyOf(slabs, slabCount << 1);
+                slabs[slabCount++] = ByteBuffer.allocateDirect((slabMask + 1) * NODE_BYTES)
+                        .order(ByteOrder.nativeOrder());
+            }
+            node = nodeCount++;
+        }
+        ByteBuffer buf = slab(node);
+        int at = at(node);
+        buf.putInt(at + TYPE, type);
+        buf.putInt(at + SIZE, 0);
+        buf.putInt(at + PREV, NONE);
+        buf.putInt(at + NEXT, NONE);
+        return node;
+    }
+
+    private void release(int node) {
+        ByteBuffer buf = slab(node);
+        int at = at(node);
+        buf.putInt(at + TYPE, FREE);
+        buf.putInt(at + NEXT, freeHead);
+        freeHead = node;
+        freeNodes++;
+    }
+
+    /*
+     * Node accessors.
+     */
+
+    private ByteBuffer slab(int node) {
+        return slabs[node >>> slabShift];
+    }
+
+    private int at(int node) {
+        return (node & slabMask) * NODE_BYTES;
+    }
+
+    private boolean isLeaf(int node) {
+        return slab(node).getInt(at(node) + TYPE) == LEAF;
+    }
+
+    private int size(int node) {
+        return slab(node).getInt(at(node) + SIZE);
+    }
+
+    private void setSize(int node, int size) {
+        slab(node).putInt(at(node) + SIZE, size);
+    }
+
+    private void setPrev(int node, int prev) {
+        slab(node).putInt(at(node) + PREV, prev);
+    }
+
+    private int next(int node) {
+        return slab(node).getInt(at(node) + NEXT);
+    }
+
+    private void setNext(int node, int next) {
+        slab(node).putInt(at(node) + NEXT, next);
+    }
+
+    private int key(int node, int i) {
+        return slab(node).getInt(at(node) + KEYS + 4 * i);
+    }
+
+    private void setKey(int node, int i, int k) {
+        slab(node).putInt(at(node) + KEYS + 4 * i, k);
+    }
+
+    private double value(int node, int i) {
+        return slab(node).getDouble(at(node) + VALUES + 8 * i);
+    }
+
+    private void setValue(int node, int i, double v) {
+        slab(node).putDouble(at(node) + VALUES + 8 * i, v);
+    }
+
+    private int child(int node, int i) {
+        return slab(node).getInt(at(node) + CHILDREN + 4 * i);
+    }
+
+    private void setChild(int node, int i, int child) {
+        slab(node).putInt(at(node) + CHILDREN + 4 * i, child);
+    }
+
+    /**
+     * Move n slots of width bytes from slot from of node src, at base, to
+     * slot to of node dst; the slots may overlap.
+     */
+    private void move(int src, int dst, int base, int width, int from, int to, int n) {
+        if (n > 0)
+            slab(dst).put(at(dst) + base + width * to, slab(src), at(src) + base + width * from, width * n);
+    }
+
+    private void moveKeys(int src, int from, int dst, int to, int n) {
+        move(src, dst, KEYS, 4, from, to, n);
+    }
+
+    private void moveValues(int src, int from, int dst, int to, int n) {
+        move(src, dst, VALUES, 8, from, to, n);
+    }
+
+    private void moveChildren(int src, int from, int dst, int to, int n) {
+        move(src, dst, CHILDREN, 4, from, to, n);
+    }
+
+    /**
+     * @return the index of the first key of node >= k, or its size; searched
+     * as {@link KeySearch#lowerBound} does
+     */
+    private int lowerBound(int node, int k) {
+        ByteBuffer buf = slab(node);
+        int keys = at(node) + KEYS;
+        int base = 0, length = buf.getInt(at(node) + SIZE);
+        while (length > KeySearch.LINEAR_MAX) {
+            int half = length >>> 1;
+            base += half & (int) (((long) buf.getInt(keys + 4 * (base + half - 1)) - k) >> 63);
+            length -= half;
+        }
+        int index = base;
+        for (int i = base, end = base + length; i < end; i++)
+            index += buf.getInt(keys + 4 * i) < k ? 1 : 0;
+        return index;
+    }
+
+    private int upperBound(int node, int k) {
+        return k == Integer.MAX_VALUE ? size(node) : lowerBound(node, k + 1);
+    }
+
+    private void pushPath(int depth, int node, int index) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth << 1);
+            pathIndex = Arrays.copyOf(pathIndex, depth << 1);
+        }
+        path[depth] = node;
+        pathIndex[depth] = index;
+    }
+
+    /**
+     * Descend to the leaf for k, recording the non-leaf nodes passed in path.
+     *
+     * @return the leaf, whose depth is left in depth
+     */
+    private int descend(int k) {
+        if (slabs == null)
+            throw new IllegalStateException("tree is closed");
+        int node = root;
+        depth = 0;
+        while (!isLeaf(node)) {
+            int i = upperBound(node, k);
+            pushPath(depth++, node, i);
+            node = child(node, i);
+        }
+        return node;
+    }
+
+    public double get(int k) {
+        int leaf = descend(k);
+        int i = lowerBound(leaf, k);
+        return i < size(leaf) && key(leaf, i) == k ? value(leaf, i) : Double.NaN;
+    }
+
+    /**
+     * Walk the entries with l <= k <= r in key order, reporting each of them
+     * to consumer.
+     */
+    public void range(int l, int r, IntDoubleConsumer consumer) {
+        if (l > r) return;
+        int leaf = descend(l);
+        for (int i = lowerBound(leaf, l); leaf != NONE; leaf = next(leaf), i = 0) {
+            for (int n = size(leaf); i < n; i++) {
+                int k = key(leaf, i);
+                if (k > r) return;
+                consumer.accept(k, value(leaf, i));
+            }
+        }
+    }
+
+    /**
+     * Copy the values of the entries with l <= k <= r, in key order, into dst
+     * until either the range or dst is exhausted.
+     *
+     * @return the number of values written to dst
+     */
+    public int range(int l, int r, double[] dst) {
+        if (l > r) return 0;
+        int n = 0;
+        int leaf = descend(l);
+        for (int from = lowerBound(leaf, l); leaf != NONE && n < dst.length; leaf = next(leaf), from = 0) {
+            int to = upperBound(leaf, r), size = size(leaf);
+            int cnt = Math.min(to - from, dst.length - n);
+            for (int i = from; i < from + cnt; i++)
+                dst[n++] = value(leaf, i);
+            if (to < size) break;
+        }
+        return n;
+    }
+
+    // l <= k <= r
+    public double[] range(int l, int r) {
+        double[][] ans = {new double[16]};
+        int[] n = {0};
+        range(l, r, (k, v) -> {
+            if (n[0] == ans[0].length)
+                ans[0] = Arrays.copyOf(ans[0], n[0] << 1);
+            ans[0][n[0]++] = v;
+        });
+        return Arrays.copyOf(ans[0], n[0]);
+    }
+
+    public void insert(int k, double v) {
+        int leaf = descend(k);
+        int size = size(leaf), i = lowerBound(leaf, k);
+        if (i < size && key(leaf, i) == k) return;//duplicate insertion
+        moveKeys(leaf, i, leaf, i + 1, size - i);
+        moveValues(leaf, i, leaf, i + 1, size - i);
+        setKey(leaf, i, k);
+        setValue(leaf, i, v);
+        setSize(leaf, ++size);
+        pairCount++;
+        if (size <= MAX_NODE_SIZE) return;
+
+        int newLeaf = allocate(LEAF);
+        int moved = M - MIN_NODE_SIZE;
+        moveKeys(leaf, MIN_NODE_SIZE, newLeaf, 0, moved);
+        moveValues(leaf, MIN_NODE_SIZE, newLeaf, 0, moved);
+        setSize(newLeaf, moved);
+        setSize(leaf, MIN_NODE_SIZE);
+        int next = next(leaf);
+        if (next != NONE)
+            setPrev(next, newLeaf);
+        setNext(newLeaf, next);
+        setPrev(newLeaf, leaf);
+        setNext(leaf, newLeaf);
+        insertIntoParent(depth, leaf, key(newLeaf, 0), newLeaf);
+    }
+
+    /**
+     * Register right, split off from left, with separator sep in the parent
+     * of left, which is path[d - 1] or none if d is 0.
+     */
+    private void insertIntoParent(int d, int left, int sep, int right) {
+        if (d == 0) {
+            int node = allocate(NON_LEAF);
+            setSize(node, 1);
+            setKey(node, 0, sep);
+            setChild(node, 0, left);
+            setChild(node, 1, right);
+            root = node;
+            return;
+        }
+        int node = path[d - 1];
+        int size = size(node), i = upperBound(node, sep);
+        moveKeys(node, i, node, i + 1, size - i);
+        moveChildren(node, i + 1, node, i + 2, size - i);
+        setKey(node, i, sep);
+        setChild(node, i + 1, right);
+        setSize(node, ++size);
+        if (size <= MAX_NODE_SIZE) return;
+
+        int newNode = allocate(NON_LEAF);
+        int moved = M - MIN_NODE_SIZE - 1;
+        moveKeys(node, MIN_NODE_SIZE + 1, newNode, 0, moved);
+        moveChildren(node, MIN_NODE_SIZE + 1, newNode, 0, moved + 1);
+        setSize(newNode, moved);
+        setSize(node, MIN_NODE_SIZE);
+        insertIntoParent(d - 1, node, key(node, MIN_NODE_SIZE), newNode);
+    }
+
+    public void delete(int k) {
+        int leaf = descend(k);
+        int size = size(leaf), i = lowerBound(leaf, k);
+        if (i >= size || key(leaf, i) != k) return;
+        moveKeys(leaf, i + 1, leaf, i, size - i - 1);
+        moveValues(leaf, i + 1, leaf, i, size - i - 1);
+        setSize(leaf, --size);
+        pairCount--;
+        if (depth > 0 && size < MIN_NODE_SIZE) {
+            int removedSep = rebalanceLeaf(leaf);
+            if (removedSep >= 0)
+                removeFromNonLeaf(depth - 1, removedSep);
+        }
+    }
+
+    /**
+     * Borrow from or merge with a sibling sharing the parent path[depth - 1].
+     *
+     * @return the index of the parent's separator left to remove after a
+     * merge, or -1
+     */
+    private int rebalanceLeaf(int leaf) {
+        int parent = path[depth - 1], ci = pathIndex[depth - 1];
+        int left = ci > 0 ? child(parent, ci - 1) : NONE;
+        int right = ci < size(parent) ? child(parent, ci + 1) : NONE;
+        int size = size(leaf);
+        if (left != NONE && size(left) > MIN_NODE_SIZE) {
+            // borrow from left sibling
+            int leftSize = size(left);
+            moveKeys(leaf, 0, leaf, 1, size);
+            moveValues(leaf, 0, leaf, 1, size);
+            moveKeys(left, leftSize - 1, leaf, 0, 1);
+            moveValues(left, leftSize - 1, leaf, 0, 1);
+            setSize(left, leftSize - 1);
+            setSize(leaf, size + 1);
+            setKey(parent, ci - 1, key(leaf, 0));
+        } else if (right != NONE && size(right) > MIN_NODE_SIZE) {
+            // borrow from right sibling
+            int rightSize = size(right);
+            moveKeys(right, 0, leaf, size, 1);
+            moveValues(right, 0, leaf, size, 1);
+            moveKeys(right, 1, right, 0, rightSize - 1);
+            moveValues(right, 1, right, 0, rightSize - 1);
+            setSize(right, rightSize - 1);
+            setSize(leaf, size + 1);
+            setKey(parent, ci, key(right, 0));
+        } else if (left != NONE) {
+            // merge this into left sibling
+            mergeLeaves(left, leaf);
+            return ci - 1;
+        } else if (right != NONE) {
+            //merge right sibling into this
+            mergeLeaves(leaf, right);
+            return ci;
+        } else {
+            throw new Error("IMPOSSIBLE ERROR");
+        }
+        return -1;
+    }
+
+    /**
+     * Append the entries of leaf right to leaf left, unlink right and free it.
+     */
+    private void mergeLeaves(int left, int right) {
+        int leftSize = size(left), rightSize = size(right);
+        moveKeys(right, 0, left, leftSize, rightSize);
+        moveValues(right, 0, left, leftSize, rightSize);
+        setSize(left, leftSize + rightSize);
+        int next = next(right);
+        setNext(left, next);
+        if (next != NONE)
+            setPrev(next, left);
+        release(right);
+    }
+
+    /**
+     * Remove key i and child i + 1 of the non-leaf node path[d], then restore
+     * its size invariant.
+     */
+    private void removeFromNonLeaf(int d, int i) {
+        int node = path[d];
+        int size = size(node);
+        moveKeys(node, i + 1, node, i, size - i - 1);
+        moveChildren(node, i + 2, node, i + 1, size - i - 1);
+        setSize(node, --size);
+        if (d == 0) {
+            if (size < 1) {
+                root = child(node, 0);
+                release(node);
+            }
+        } else if (size < MIN_NODE_SIZE) {
+            int removedSep = rebalanceNonLeaf(d, node);
+            if (removedSep >= 0)
+                removeFromNonLeaf(d - 1, removedSep);
+        }
+    }
+
+    /**
+     * Borrow for, or merge, the non-leaf node path[d] with a sibling.
+     *
+     * @return the index of the parent's separator left to remove after a
+     * merge, or -1
+     */
+    private int rebalanceNonLeaf(int d, int node) {
+        int parent = path[d - 1], ci = pathIndex[d - 1];
+        int left = ci > 0 ? child(parent, ci - 1) : NONE;
+        int right = ci < size(parent) ? child(parent, ci + 1) : NONE;
+        int size = size(node);
+        if (left != NONE && size(left) > MIN_NODE_SIZE) {
+            //borrow from left
+            int leftSize = size(left);
+            moveKeys(node, 0, node, 1, size);
+            moveChildren(node, 0, node, 1, size + 1);
+            setKey(node, 0, key(parent, ci - 1));
+            moveChildren(left, leftSize, node, 0, 1);
+            setKey(parent, ci - 1, key(left, leftSize - 1));
+            setSize(left, leftSize - 1);
+            setSize(node, size + 1);
+        } else if (right != NONE && size(right) > MIN_NODE_SIZE) {
+            //borrow from right
+            int rightSize = size(right);
+            setKey(node, size, key(parent, ci));
+            moveChildren(right, 0, node, size + 1, 1);
+            setKey(parent, ci, key(right, 0));
+            moveKeys(right, 1, right, 0, rightSize - 1);
+            moveChildren(right, 1, right, 0, rightSize);
+            setSize(right, rightSize - 1);
+            setSize(node, size + 1);
+        } else if (left != NONE) {
+            // merge this into left sibling
+            mergeNonLeaves(left, key(parent, ci - 1), node);
+            return ci - 1;
+        } else if (right != NONE) {
+            // merge right sibling into this
+            mergeNonLeaves(node, key(parent, ci), right);
+            return ci;
+        } else {
+            throw new Error("IMPOSSIBLE ERROR");
+        }
+        return -1;
+    }
+
+    private void mergeNonLeaves(int left, int sep, int right) {
+        int leftSize = size(left), rightSize = size(right);
+        setKey(left, leftSize, sep);
+        moveKeys(right, 0, left, leftSize + 1, rightSize);
+        moveChildren(right, 0, left, leftSize + 1, rightSize + 1);
+        setSize(left, leftSize + rightSize + 1);
+        release(right);
+    }
+}
@@ -0,0 +1,105 @@
+package dsimpl;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Large reusable byte buffer in front of an output stream, which writes
+ * doubles spelled as by {@link Double#toString(double)}, and longs, without
+ * creating Strings. Nothing reaches the stream until the buffer is full or flushed.
+ */
+public class OutputBuffer implements Flushable, Closeable {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count;
+    private final DoubleFormat format = new DoubleFormat();
+
+    public OutputBuffer(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, DoubleFormat.MAX_LENGTH + LINE_SEPARATOR.length)];
+    }
+
+    public OutputBuffer(OutputStream out) {
+        this(out, 1 << 20);
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buf.length - count < bytes)
+            flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buf, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Append an ASCII character.
+     */
+    public OutputBuffer print(char c) throws IOException {
+        reserve(1);
+        buf[count++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Append a string of ASCII characters.
+     */
+    public OutputBuffer print(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            print(s.charAt(i));
+        return this;
+    }
+
+    public OutputBuffer print(long v) throws IOException {
+        reserve(20);
+        // digits of the non-positive -|v|, which also holds Long.MIN_VALUE
+        if (v < 0)
+            buf[count++] = '-';
+        else
+            v = -v;
+        int digits = 1;
+        for (long rest = v; rest <= -10; rest /= 10)
+            digits++;
+        for (int i = count + digits - 1; i >= count; i--, v /= 10)
+            buf[i] = (byte) ('0' - v % 10);
+        count += digits;
+        return this;
+    }
+
+    public OutputBuffer print(double v) throws IOException {
+        reserve(DoubleFormat.MAX_LENGTH);
+        count = format.format(v, buf, count);
+        return this;
+    }
+
+    /**
+     * Append the line separator, as {@link java.io.PrintStream#println()}.
+     */
+    public OutputBuffer println() throws IOException {
+        reserve(LINE_SEPARATOR.length);
+        for (byte b : LINE_SEPARATOR)
+            buf[count++] = b;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package dsimpl;
+
+/**
+ * The pairs of a leaf in compressed, read-only form.
+ * <p>
+ * Keys are stored frame-of-reference: each as its offset from the first
+ * key, in as few bits as the largest offset needs, packed back to back into
+ * longs. Key i is then still found in O(1), so searches stay binary.
+ * <p>
+ * Values are kept as they are, only without the spare capacity of a leaf,
+ * or, optionally, compressed as in Facebook's Gorilla: each value is XORed
+ * with the one before and only the bits that differ are written, which
+ * shrinks runs of equal or close values. Every RESTART values one is written
+ * in full, so that reaching value i decodes at most RESTART values.
+ */
+final class PackedLeaf {
+    static final int RESTART = 16;
+
+    final int size;
+    private final int base, bits;
+    private final long mask;
+    // one long of padding at the end, so that reading a key never checks bounds
+    private final long[] keyWords;
+    private final double[] values;
+    private final long[] valueWords;
+    // restarts[j] is the bit at which value j * RESTART starts in valueWords
+    private final int[] restarts;
+
+    private PackedLeaf(int size, int base, int bits, long[] keyWords,
+                       double[] values, long[] valueWords, int[] restarts) {
+        this.size = size;
+        this.base = base;
+        this.bits = bits;
+        this.mask = bits == 64 ? -1 : (1L << bits) - 1;
+        this.keyWords = keyWords;
+        this.values = values;
+        this.valueWords = valueWords;
+        this.restarts = restarts;
+    }
+
+    /**
+     * @param keys           strictly increasing keys
+     * @param compressValues whether to Gorilla-compress the values
+     */
+    static PackedLeaf pack(int[] keys, double[] values, int size, boolean compressValues) {
+        int base = size == 0 ? 0 : keys[0];
+        long maxOffset = size == 0 ? 0 : (long) keys[size - 1] - base;
+        int bits = 64 - Long.numberOfLeadingZeros(maxOffset);
+        long[] keyWords = new long[Math.max(2, (int) (((long) size * bits + 63) >>> 6) + 1)];
+        for (int i = 0; i < size; i++) {
+            long offset = (long) keys[i] - base, at = (long) i * bits;
+            int word = (int) (at >>> 6), shift = (int) (at & 63);
+            keyWords[word] |= offset << shift;
+            if (shift + bits > 64)
+                keyWords[word + 1] |= offset >>> (64 - shift);
+        }
+        if (!compressValues) {
+            double[] exact = new double[size];
+            System.arraycopy(values, 0, exact, 0, size);
+            return new PackedLeaf(size, base, bits, keyWords, exact, null, null);
+        }
+        int[] restarts = new int[(size + RESTART - 1) / RESTART];
+        return new PackedLeaf(size, base, bits, keyWords, null, gorilla(values, size, restarts), restarts);
+    }
+
+    private long offset(int i) {
+        long at = (long) i * bits;
+        int word = (int) (at >>> 6), shift = (int) (at & 63);
+        // two shifts for the high part, as one shift by 64 would be a no-op
+        return (keyWords[word] >>> shift | keyWords[word + 1] << 1 << (63 - shift)) & mask;
+    }
+
+    int key(int i) {
+        return (int) (base + offset(i));
+    }
+
+    /**
+     * @return the index of the first key >= k, or size
+     */
+    int lowerBound(int k) {
+        long target = (long) k - base;
+        if (size == 0 || target <= 0)
+            return 0;
+        // as KeySearch.lowerBound, over the offsets
+        int index = 0, length = size;
+        while (length > 1) {
+            int half = length >>> 1;
+            index += half & (int) ((offset(index + half - 1) - target) >> 63);
+            length -= half;
+        }
+        return index + (offset(index) < target ? 1 : 0);
+    }
+
+    int upperBound(int k) {
+        return k == Integer.MAX_VALUE ? size : lowerBound(k + 1);
+    }
+
+    double value(int i) {
+        if (values != null)
+            return values[i];
+        GorillaReader reader = new GorillaReader(valueWords, restarts[i / RESTART]);
+        double v = 0;
+        for (int j = i / RESTART * RESTART; j <= i; j++)
+            v = reader.next();
+        return v;
+    }
+
+    void keys(int[] dst) {
+        for (int i = 0; i < size; i++)
+            dst[i] = key(i);
+    }
+
+    /**
+     * Decode values [from, to) into dst[from, to).
+     */
+    void values(double[] dst, int from, int to) {
+        if (values != null) {
+            System.arraycopy(values, from, dst, from, to - from);
+            return;
+        }
+        if (from >= to)
+            return;
+        GorillaReader reader = new GorillaReader(valueWords, restarts[from / RESTART]);
+        for (int i = from / RESTART * RESTART; i < from; i++)
+            reader.next();
+        for (int i = from; i < to; i++)
+            dst[i] = reader.next();
+    }
+
+    /**
+     * @return the heap this takes, assuming compressed references: 12 bytes
+     * per object header, 16 per array header, all rounded up to 8
+     */
+    long bytes() {
+        long bytes = 48 + 16 + 8L * keyWords.length;
+        if (values != null)
+            bytes += 16 + 8L * values.length;
+        else
+            bytes += 16 + 8L * valueWords.length + (16 + 4L * restarts.length + 7 & ~7);
+        return bytes;
+    }
+
+    private static long[] gorilla(double[] values, int size, int[] restarts) {
+        // worst case: 2 control bits, 11 bits of window and 64 bits per value
+        long[] words = new long[(int) ((77L * size + 63) >>> 6) + 1];
+        long at = 0, previous = 0;
+        int leading = -1, trailing = 0;
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i % RESTART == 0) {
+                restarts[i / RESTART] = (int) at;
+                at = write(words, at, bits, 64);
+                leading = -1;
+            } else {
+                long xor = bits ^ previous;
+                if (xor == 0) {
+                    at = write(words, at, 0, 1);
+                } else {
+                    int lz = Math.min(Long.numberOfLeadingZeros(xor), 31), tz = Long.numberOfTrailingZeros(xor);
+                    if (leading >= 0 && lz >= leading && tz >= trailing) {
+                        // the differing bits fit the window of the last value written in full
+                        at = write(words, at, 0b01, 2);
+                        at = write(words, at, xor >>> trailing, 64 - leading - trailing);
+                    } else {
+                        leading = lz;
+                        trailing = tz;
+                        int length = 64 - lz - tz;
+                        at = write(words, at, 0b11, 2);
+                        at = write(words, at, lz, 5);
+                        at = write(words, at, length - 1, 6);
+                        at = write(words, at, xor >>> tz, length);
+                    }
+                }
+            }
+            previous = bits;
+        }
+        long[] exact = new long[(int) ((at + 63) >>> 6) + 1];
+        System.arraycopy(words, 0, exact, 0, exact.length - 1);
+        return exact;
+    }
+
+    /**
+     * Append the low n bits of value, 1 <= n <= 64, at bit at of words.
+     */
+    private static long write(long[] words, long at, long value, int n) {
+        if (n < 64)
+            value &= (1L << n) - 1;
+        int word = (int) (at >>> 6), shift = (int) (at & 63);
+        words[word] |= value << shift;
+        if (shift + n > 64)
+            words[word + 1] |= value >>> (64 - shift);
+        return at + n;
+    }
+
+    private static final class GorillaReader {
+        private final long[] words;
+        private long at;
+        private long previous;
+        private int leading, trailing, count;
+
+        /**
+         * @param at a restart point
+         */
+        GorillaReader(long[] words, long at) {
+            this.words = words;
+            this.at = at;
+        }
+
+        private long read(int n) {
+            int word = (int) (at >>> 6), shift = (int) (at & 63);
+            long v = words[word] >>> shift | words[word + 1] << 1 << (63 - shift);
+            at += n;
+            return n == 64 ? v : v & ((1L << n) - 1);
+        }
+
+        double next() {
+            if (count++ % RESTART == 0) {
+                previous = read(64);
+            } else if (read(1) != 0) {
+                if (read(1) != 0) {
+                    leading = (int) read(5);
+                    trailing = 64 - leading - ((int) read(6) + 1);
+                }
+                previous ^= read(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+}
@@ -0,0 +1,619 @@
+package dsimpl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Persistent B+ tree whose nodes are fixed-size pages of a single file,
+ * cached by a {@link BufferPool}.
+ * <p>
+ * Page 0 holds the metadata; every other page is a node or a free page. The
+ * order M is the largest one for which a node, including the one surplus
+ * entry it holds right before splitting, fits in a page. Sibling links of
+ * leaves are page ids, so that leaves appended in key order are laid out
+ * sequentially. Nodes have no parent pointers: updates remember the path
+ * they descended instead.
+ * <p>
+ * Pages are written back when evicted and on {@link #flush()} and
+ * {@link #close()}; I/O errors surface as UncheckedIOException.
+ */
+public class PagedBPlusTree implements AutoCloseable {
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private static final int MAGIC = 0x42505431;// "BPT1"
+
+    // metadata page layout
+    private static final int META_MAGIC = 0, META_PAGE_SIZE = 4, META_M = 8, META_ROOT = 12,
+            META_PAGE_COUNT = 16, META_FREE_HEAD = 20, META_PAIR_COUNT = 24;
+
+    // node page layout; leaves follow KEYS with values, non-leaves with children
+    private static final int TYPE = 0, SIZE = 4, PREV = 8, NEXT = 12, KEYS = 16;
+    private static final int FREE = 0, LEAF = 1, NON_LEAF = 2;
+    /**
+     * Page id meaning "no page". Page 0 is the metadata page, never a node.
+     */
+    private static final int NONE = 0;
+
+    private final FileChannel channel;
+    private final BufferPool pool;
+    private final int pageSize;
+
+    private final int M;
+    private final int MAX_NODE_SIZE;
+    private final int MIN_NODE_SIZE;
+    private final int VALUES, CHILDREN;
+
+    private int root;
+    private int pageCount;
+    private int freeHead;
+    private long pairCount;
+
+    // non-leaf pages, and child indexes within them, passed by the last descent
+    private int[] path = new int[16];
+    private int[] pathIndex = new int[16];
+    private int depth;
+
+    /**
+     * Open the tree stored in file, creating it if the file is empty or absent.
+     *
+     * @param pageSize  page size in bytes; must match the one of an existing file
+     * @param poolPages number of pages the buffer pool may hold, at least 8
+     */
+    public PagedBPlusTree(Path file, int pageSize, int poolPages) throws IOException {
+        if (poolPages < 8)
+            throw new IllegalArgumentException("buffer pool needs at least 8 pages");
+        this.pageSize = pageSize;
+        M = orderFor(pageSize);
+        if (M < 3)
+            throw new IllegalArgumentException("page size " + pageSize + " is too small");
+        MAX_NODE_SIZE = M - 1;
+        MIN_NODE_SIZE = ((M & 1) == 1 ? (M + 1) >> 1 : M >> 1) - 1;
+        VALUES = KEYS + 4 * M;
+        CHILDREN = KEYS + 4 * M;
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        pool = new BufferPool(channel, pageSize, poolPages);
+        try {
+            if (channel.size() == 0) {
+                pageCount = 2;
+                root = 1;
+                freeHead = NONE;
+                BufferPool.Frame frame = pool.allocate(root);
+                frame.buf.putInt(TYPE, LEAF);
+                pool.unpin(frame);
+                writeMeta();
+            } else {
+                BufferPool.Frame meta = pool.fetch(0);
+                ByteBuffer buf = meta.buf;
+                if (buf.getInt(META_MAGIC) != MAGIC)
+                    throw new IOException(file + " is not a paged B+ tree");
+                if (buf.getInt(META_PAGE_SIZE) != pageSize)
+                    throw new IOException(file + " uses pages of " + buf.getInt(META_PAGE_SIZE) + " bytes");
+                root = buf.getInt(META_ROOT);
+                pageCount = buf.getInt(META_PAGE_COUNT);
+                freeHead = buf.getInt(META_FREE_HEAD);
+                pairCount = buf.getLong(META_PAIR_COUNT);
+                pool.unpin(meta);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public PagedBPlusTree(Path file) throws IOException {
+        this(file, DEFAULT_PAGE_SIZE, 1024);
+    }
+
+    /**
+     * @return the largest order whose nodes, holding M keys transiently, fit
+     * in a page of pageSize bytes
+     */
+    static int orderFor(int pageSize) {
+        return Math.min((pageSize - KEYS) / 12, (pageSize - KEYS - 4) / 8);
+    }
+
+    public int order() {
+        return M;
+    }
+
+    public long size() {
+        return pairCount;
+    }
+
+    /**
+     * @return the fraction of page fetches served by the buffer pool
+     */
+    public double hitRate() {
+        return pool.hitRate();
+    }
+
+    private void writeMeta() throws IOException {
+        BufferPool.Frame meta = pool.allocate(0);
+        ByteBuffer buf = meta.buf;
+        buf.putInt(META_MAGIC, MAGIC);
+        buf.putInt(META_PAGE_SIZE, pageSize);
+        buf.putInt(META_M, M);
+        buf.putInt(META_ROOT, root);
+        buf.putInt(META_PAGE_COUNT, pageCount);
+        buf.putInt(META_FREE_HEAD, freeHead);
+        buf.putLong(META_PAIR_COUNT, pairCount);
+        pool.unpin(meta);
+    }
+
+    /**
+     * Write every modified page, and the metadata, to the file.
+     */
+    public void flush() {
+        try {
+            writeMeta();
+            pool.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /*
+     * Page accessors.
+     */
+
+    private int key(ByteBuffer buf, int i) {
+        return buf.getInt(KEYS + 4 * i);
+    }
+
+    private double value(ByteBuffer buf, int i) {
+        return buf.getDouble(VALUES + 8 * i);
+    }
+
+    private int child(ByteBuffer buf, int i) {
+        return buf.getInt(CHILDREN + 4 * i);
+    }
+
+    private static int size(ByteBuffer buf) {
+        return buf.getInt(SIZE);
+    }
+
+    private int upperBound(ByteBuffer buf, int k) {
+        int l = 0, r = size(buf);
+        while (l < r) {
+            int m = (l + r) >> 1;
+            if (key(buf, m) > k) r = m;
+            else l = m + 1;
+        }
+        return l;
+    }
+
+    private int lowerBound(ByteBuffer buf, int k) {
+        int l = 0, r = size(buf);
+        while (l < r) {
+            int m = (l + r) >> 1;
+            if (key(buf, m) < k) l = m + 1;
+            else r = m;
+        }
+        return l;
+    }
+
+    /**
+     * Move n slots of width bytes, starting at base + width * from, to base +
+     * width * to, within one page or across two.
+     */
+    private static void move(ByteBuffer src, ByteBuffer dst, int base, int width, int from, int to, int n) {
+        if (n > 0)
+            System.arraycopy(src.array(), base + width * from, dst.array(), base + width * to, width * n);
+    }
+
+    private void moveKeys(ByteBuffer src, int from, ByteBuffer dst, int to, int n) {
+        move(src, dst, KEYS, 4, from, to, n);
+    }
+
+    private void moveValues(ByteBuffer src, int from, ByteBuffer dst, int to, int n) {
+        move(src, dst, VALUES, 8, from, to, n);
+    }
+
+    private void moveChildren(ByteBuffer src, int from, ByteBuffer dst, int to, int n) {
+        move(src, dst, CHILDREN, 4, from, to, n);
+    }
+
+    private BufferPool.Frame newPage(int type) throws IOException {
+        BufferPool.Frame frame;
+        if (freeHead != NONE) {
+            frame = pool.fetch(freeHead);
+            freeHead = frame.buf.getInt(NEXT);
+            Arrays.fill(frame.buf.array(), (byte) 0);
+            frame.dirty = true;
+        } else {
+            frame = pool.allocate(pageCount++);
+        }
+        frame.buf.putInt(TYPE, type);
+        return frame;
+    }
+
+    private void freePage(BufferPool.Frame frame) {
+        ByteBuffer buf = frame.buf;
+        Arrays.fill(buf.array(), (byte) 0);
+        buf.putInt(TYPE, FREE);
+        buf.putInt(NEXT, freeHead);
+        frame.dirty = true;
+        freeHead = frame.pageId;
+    }
+
+    private void pushPath(int depth, int pageId, int index) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth << 1);
+            pathIndex = Arrays.copyOf(pathIndex, depth << 1);
+        }
+        path[depth] = pageId;
+        pathIndex[depth] = index;
+    }
+
+    /**
+     * Descend to the leaf for k, recording the non-leaf pages passed in path.
+     *
+     * @return the pinned frame of the leaf, whose depth is left in depth
+     */
+    private BufferPool.Frame descend(int k) throws IOException {
+        int pageId = root;
+        depth = 0;
+        for (; ; ) {
+            BufferPool.Frame frame = pool.fetch(pageId);
+            if (frame.buf.getInt(TYPE) == LEAF)
+                return frame;
+            int i = upperBound(frame.buf, k);
+            pushPath(depth++, pageId, i);
+            pageId = child(frame.buf, i);
+            pool.unpin(frame);
+        }
+    }
+
+    public double get(int k) {
+        try {
+            BufferPool.Frame frame = descend(k);
+            ByteBuffer buf = frame.buf;
+            int i = lowerBound(buf, k);
+            double v = i < size(buf) && key(buf, i) == k ? value(buf, i) : Double.NaN;
+            pool.unpin(frame);
+            return v;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Walk the entries with l <= k <= r in key order, reporting each of them
+     * to consumer.
+     */
+    public void range(int l, int r, IntDoubleConsumer consumer) {
+        if (l > r) return;
+        try {
+            BufferPool.Frame frame = descend(l);
+            for (int i = lowerBound(frame.buf, l); ; i = 0) {
+                ByteBuffer buf = frame.buf;
+                for (int n = size(buf); i < n; i++) {
+                    int k = key(buf, i);
+                    if (k > r) {
+                        pool.unpin(frame);
+                        return;
+                    }
+                    consumer.accept(k, value(buf, i));
+                }
+                int next = buf.getInt(NEXT);
+                pool.unpin(frame);
+                if (next == NONE) return;
+                frame = pool.fetch(next);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // l <= k <= r
+    public double[] range(int l, int r) {
+        double[][] ans = {new double[16]};
+        int[] n = {0};
+        range(l, r, (k, v) -> {
+            if (n[0] == ans[0].length)
+                ans[0] = Arrays.copyOf(ans[0], n[0] << 1);
+            ans[0][n[0]++] = v;
+        });
+        return Arrays.copyOf(ans[0], n[0]);
+    }
+
+    public void insert(int k, double v) {
+        try {
+            BufferPool.Frame frame = descend(k);
+            ByteBuffer buf = frame.buf;
+            int size = size(buf), i = lowerBound(buf, k);
+            if (i < size && key(buf, i) == k) {//duplicate insertion
+                pool.unpin(frame);
+                return;
+            }
+            moveKeys(buf, i, buf, i + 1, size - i);
+            moveValues(buf, i, buf, i + 1, size - i);
+            buf.putInt(KEYS + 4 * i, k);
+            buf.putDouble(VALUES + 8 * i, v);
+            buf.putInt(SIZE, ++size);
+            frame.dirty = true;
+            pairCount++;
+            if (size <= MAX_NODE_SIZE) {
+                pool.unpin(frame);
+                return;
+            }
+
+            BufferPool.Frame newFrame = newPage(LEAF);
+            ByteBuffer newBuf = newFrame.buf;
+            int moved = M - MIN_NODE_SIZE;
+            moveKeys(buf, MIN_NODE_SIZE, newBuf, 0, moved);
+            moveValues(buf, MIN_NODE_SIZE, newBuf, 0, moved);
+            newBuf.putInt(SIZE, moved);
+            buf.putInt(SIZE, MIN_NODE_SIZE);
+            int next = buf.getInt(NEXT);
+            if (next != NONE) {
+                BufferPool.Frame nextFrame = pool.fetch(next);
+                nextFrame.buf.putInt(PREV, newFrame.pageId);
+                nextFrame.dirty = true;
+                pool.unpin(nextFrame);
+            }
+            newBuf.putInt(NEXT, next);
+            newBuf.putInt(PREV, frame.pageId);
+            buf.putInt(NEXT, newFrame.pageId);
+            int sep = key(newBuf, 0), left = frame.pageId, right = newFrame.pageId;
+            pool.unpin(newFrame);
+            pool.unpin(frame);
+            insertIntoParent(depth, left, sep, right);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Register right, split off from left, with separator sep in the parent
+     * of left, which is path[d - 1] or none if d is 0.
+     */
+    private void insertIntoParent(int d, int left, int sep, int right) throws IOException {
+        if (d == 0) {
+            BufferPool.Frame frame = newPage(NON_LEAF);
+            ByteBuffer buf = frame.buf;
+            buf.putInt(SIZE, 1);
+            buf.putInt(KEYS, sep);
+            buf.putInt(CHILDREN, left);
+            buf.putInt(CHILDREN + 4, right);
+            root = frame.pageId;
+            pool.unpin(frame);
+            return;
+        }
+        BufferPool.Frame frame = pool.fetch(path[d - 1]);
+        ByteBuffer buf = frame.buf;
+        int size = size(buf), i = upperBound(buf, sep);
+        moveKeys(buf, i, buf, i + 1, size - i);
+        moveChildren(buf, i + 1, buf, i + 2, size - i);
+        buf.putInt(KEYS + 4 * i, sep);
+        buf.putInt(CHILDREN + 4 * (i + 1), right);
+        buf.putInt(SIZE, ++size);
+        frame.dirty = true;
+        if (size <= MAX_NODE_SIZE) {
+            pool.unpin(frame);
+            return;
+        }
+
+        BufferPool.Frame newFrame = newPage(NON_LEAF);
+        ByteBuffer newBuf = newFrame.buf;
+        int moved = M - MIN_NODE_SIZE - 1;
+        moveKeys(buf, MIN_NODE_SIZE + 1, newBuf, 0, moved);
+        moveChildren(buf, MIN_NODE_SIZE + 1, newBuf, 0, moved + 1);
+        newBuf.putInt(SIZE, moved);
+        buf.putInt(SIZE, MIN_NODE_SIZE);
+        int mid = key(buf, MIN_NODE_SIZE), newLeft = frame.pageId, newRight = newFrame.pageId;
+        pool.unpin(newFrame);
+        pool.unpin(frame);
+        insertIntoParent(d - 1, newLeft, mid, newRight);
+    }
+
+    public void delete(int k) {
+        try {
+            BufferPool.Frame frame = descend(k);
+            ByteBuffer buf = frame.buf;
+            int size = size(buf), i = lowerBound(buf, k);
+            if (i >= size || key(buf, i) != k) {
+                pool.unpin(frame);
+                return;
+            }
+            moveKeys(buf, i + 1, buf, i, size - i - 1);
+            moveValues(buf, i + 1, buf, i, size - i - 1);
+            buf.putInt(SIZE, --size);
+            frame.dirty = true;
+            pairCount--;
+            int removedSep = depth > 0 && size < MIN_NODE_SIZE ? rebalanceLeaf(frame) : -1;
+            pool.unpin(frame);
+            if (removedSep >= 0)
+                removeFromNonLeaf(depth - 1, removedSep);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Borrow from or merge with a sibling sharing the parent path[depth - 1].
+     *
+     * @return the index of the parent's separator left to remove after a
+     * merge, or -1
+     */
+    private int rebalanceLeaf(BufferPool.Frame frame) throws IOException {
+        ByteBuffer buf = frame.buf;
+        BufferPool.Frame parent = pool.fetch(path[depth - 1]);
+        ByteBuffer parentBuf = parent.buf;
+        int ci = pathIndex[depth - 1];
+        BufferPool.Frame left = ci > 0 ? pool.fetch(child(parentBuf, ci - 1)) : null;
+        BufferPool.Frame right = ci < size(parentBuf) ? pool.fetch(child(parentBuf, ci + 1)) : null;
+        int size = size(buf);
+        int removedSep = -1;// index of the separator to remove after a merge
+        if (left != null && size(left.buf) > MIN_NODE_SIZE) {
+            // borrow from left sibling
+            ByteBuffer leftBuf = left.buf;
+            int leftSize = size(leftBuf);
+            moveKeys(buf, 0, buf, 1, size);
+            moveValues(buf, 0, buf, 1, size);
+            moveKeys(leftBuf, leftSize - 1, buf, 0, 1);
+            moveValues(leftBuf, leftSize - 1, buf, 0, 1);
+            leftBuf.putInt(SIZE, leftSize - 1);
+            buf.putInt(SIZE, size + 1);
+            parentBuf.putInt(KEYS + 4 * (ci - 1), key(buf, 0));
+            left.dirty = parent.dirty = true;
+        } else if (right != null && size(right.buf) > MIN_NODE_SIZE) {
+            // borrow from right sibling
+            ByteBuffer rightBuf = right.buf;
+            int rightSize = size(rightBuf);
+            moveKeys(rightBuf, 0, buf, size, 1);
+            moveValues(rightBuf, 0, buf, size, 1);
+            moveKeys(rightBuf, 1, rightBuf, 0, rightSize - 1);
+            moveValues(rightBuf, 1, rightBuf, 0, rightSize - 1);
+            rightBuf.putInt(SIZE, rightSize - 1);
+            buf.putInt(SIZE, size + 1);
+            parentBuf.putInt(KEYS + 4 * ci, key(rightBuf, 0));
+            right.dirty = parent.dirty = true;
+        } else if (left != null) {
+            // merge this into left sibling
+            mergeLeaves(left, frame);
+            removedSep = ci - 1;
+        } else if (right != null) {
+            //merge right sibling into this
+            mergeLeaves(frame, right);
+            removedSep = ci;
+        } else {
+            throw new Error("IMPOSSIBLE ERROR");
+        }
+        if (left != null) pool.unpin(left);
+        if (right != null) pool.unpin(right);
+        pool.unpin(parent);
+        return removedSep;
+    }
+
+    /**
+     * Append the entries of leaf right to leaf left, unlink right and free it.
+     */
+    private void mergeLeaves(BufferPool.Frame left, BufferPool.Frame right) throws IOException {
+        ByteBuffer leftBuf = left.buf, rightBuf = right.buf;
+        int leftSize = size(leftBuf), rightSize = size(rightBuf);
+        moveKeys(rightBuf, 0, leftBuf, leftSize, rightSize);
+        moveValues(rightBuf, 0, leftBuf, leftSize, rightSize);
+        leftBuf.putInt(SIZE, leftSize + rightSize);
+        int next = rightBuf.getInt(NEXT);
+        leftBuf.putInt(NEXT, next);
+        if (next != NONE) {
+            BufferPool.Frame nextFrame = pool.fetch(next);
+            nextFrame.buf.putInt(PREV, left.pageId);
+            nextFrame.dirty = true;
+            pool.unpin(nextFrame);
+        }
+        left.dirty = true;
+        freePage(right);
+    }
+
+    /**
+     * Remove key i and child i + 1 of the non-leaf page path[d], then restore
+     * its size invariant.
+     */
+    private void removeFromNonLeaf(int d, int i) throws IOException {
+        BufferPool.Frame frame = pool.fetch(path[d]);
+        ByteBuffer buf = frame.buf;
+        int size = size(buf);
+        moveKeys(buf, i + 1, buf, i, size - i - 1);
+        moveChildren(buf, i + 2, buf, i + 1, size - i - 1);
+        buf.putInt(SIZE, --size);
+        frame.dirty = true;
+        if (d == 0) {
+            if (size < 1) {
+                root = child(buf, 0);
+                freePage(frame);
+            }
+            pool.unpin(frame);
+        } else {
+            int removedSep = size < MIN_NODE_SIZE ? rebalanceNonLeaf(d, frame) : -1;
+            pool.unpin(frame);
+            if (removedSep >= 0)
+                removeFromNonLeaf(d - 1, removedSep);
+        }
+    }
+
+    /**
+     * Borrow for, or merge, the non-leaf page path[d] with a sibling.
+     *
+     * @return the index of the parent's separator left to remove after a
+     * merge, or -1
+     */
+    private int rebalanceNonLeaf(int d, BufferPool.Frame frame) throws IOException {
+        ByteBuffer buf = frame.buf;
+        BufferPool.Frame parent = pool.fetch(path[d - 1]);
+        ByteBuffer parentBuf = parent.buf;
+        int ci = pathIndex[d - 1];
+        BufferPool.Frame left = ci > 0 ? pool.fetch(child(parentBuf, ci - 1)) : null;
+        BufferPool.Frame right = ci < size(parentBuf) ? pool.fetch(child(parentBuf, ci + 1)) : null;
+        int size = size(buf);
+        int removedSep = -1;
+        if (left != null && size(left.buf) > MIN_NODE_SIZE) {
+            //borrow from left
+            ByteBuffer leftBuf = left.buf;
+            int leftSize = size(leftBuf);
+            moveKeys(buf, 0, buf, 1, size);
+            moveChildren(buf, 0, buf, 1, size + 1);
+            buf.putInt(KEYS, key(parentBuf, ci - 1));
+            moveChildren(leftBuf, leftSize, buf, 0, 1);
+            parentBuf.putInt(KEYS + 4 * (ci - 1), key(leftBuf, leftSize - 1));
+            leftBuf.putInt(SIZE, leftSize - 1);
+            buf.putInt(SIZE, size + 1);
+            left.dirty = parent.dirty = true;
+        } else if (right != null && size(right.buf) > MIN_NODE_SIZE) {
+            //borrow from right
+            ByteBuffer rightBuf = right.buf;
+            int rightSize = size(rightBuf);
+            buf.putInt(KEYS + 4 * size, key(parentBuf, ci));
+            moveChildren(rightBuf, 0, buf, size + 1, 1);
+            parentBuf.putInt(KEYS + 4 * ci, key(rightBuf, 0));
+            moveKeys(rightBuf, 1, rightBuf, 0, rightSize - 1);
+            moveChildren(rightBuf, 1, rightBuf, 0, rightSize);
+            rightBuf.putInt(SIZE, rightSize - 1);
+            buf.putInt(SIZE, size + 1);
+            right.dirty = parent.dirty = true;
+        } else if (left != null) {
+            // merge this into left sibling
+            mergeNonLeaves(left, key(parentBuf, ci - 1), frame);
+            removedSep = ci - 1;
+        } else if (right != null) {
+            // merge right sibling into this
+            mergeNonLeaves(frame, key(parentBuf, ci), right);
+            removedSep = ci;
+        } else {
+            throw new Error("IMPOSSIBLE ERROR");
+        }
+        if (left != null) pool.unpin(left);
+        if (right != null) pool.unpin(right);
+        pool.unpin(parent);
+        return removedSep;
+    }
+
+    private void mergeNonLeaves(BufferPool.Frame left, int sep, BufferPool.Frame right) {
+        ByteBuffer leftBuf = left.buf, rightBuf = right.buf;
+        int leftSize = size(leftBuf), rightSize = size(rightBuf);
+        leftBuf.putInt(KEYS + 4 * leftSize, sep);
+        moveKeys(rightBuf, 0, leftBuf, leftSize + 1, rightSize);
+        moveChildren(rightBuf, 0, leftBuf, leftSize + 1, rightSize + 1);
+        leftBuf.putInt(SIZE, leftSize + rightSize + 1);
+        left.dirty = true;
+        freePage(right);
+    }
+}
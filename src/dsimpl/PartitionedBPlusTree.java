@@ -0,0 +1,387 @@
+package dsimpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Facade splitting the int key space into P contiguous ranges, each backed by
+ * its own {@link BPlusTree} that only its own writer thread ever touches.
+ * <p>
+ * The key space is cut into 2^16 buckets of 2^16 consecutive keys, and a
+ * routing table maps every bucket to the partition owning it, so single-key
+ * operations route in O(1). Updates are queued to the owning partition and
+ * return immediately; reads queue behind them and wait for their answer, so
+ * a caller always reads its own writes.
+ * <p>
+ * When one partition grows far larger than the average, its boundary with
+ * the smaller neighbour is moved, at bucket granularity, so that they even
+ * out. The partition giving keys away narrows its own bounds first; any
+ * operation that was routed to it with the old table is then forwarded to
+ * the new owner, queued behind the migrated keys.
+ * <p>
+ * An update that fails on its partition thread is reported by the next call
+ * on the facade, by {@link #flush()} or by {@link #close()}.
+ */
+public class PartitionedBPlusTree implements AutoCloseable {
+    private static final int BUCKET_BITS = 16;
+    private static final int BUCKETS = 1 << (32 - BUCKET_BITS);
+    private static final int BUCKET_BIAS = Integer.MIN_VALUE >> BUCKET_BITS;
+
+    /**
+     * A partition is rebalanced once it holds this many times the average
+     * number of pairs, provided it holds at least REBALANCE_MIN_SIZE.
+     */
+    private static final int REBALANCE_SKEW = 2;
+    private static final int REBALANCE_MIN_SIZE = 1 << 12;
+    private static final int REBALANCE_CHECK_INTERVAL = 1 << 12;
+
+    private static int bucket(int k) {
+        return (k >> BUCKET_BITS) - BUCKET_BIAS;
+    }
+
+    private static int bucketLow(int b) {
+        return (b + BUCKET_BIAS) << BUCKET_BITS;
+    }
+
+    private class Partition {
+        final int index;
+        final BPlusTree tree;
+        final ExecutorService executor;
+        // [lo, hi) buckets owned; only read and written on the partition thread
+        int lo, hi;
+        volatile int size;
+        int writesSinceCheck;
+
+        Partition(int index, int m, int lo, int hi) {
+            this.index = index;
+            this.tree = new BPlusTree(m);
+            this.lo = lo;
+            this.hi = hi;
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "bplustree-partition-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        boolean owns(int k) {
+            int b = bucket(k);
+            return lo <= b && b < hi;
+        }
+
+        void afterWrite() {
+            size = tree.size();
+            if (++writesSinceCheck >= REBALANCE_CHECK_INTERVAL) {
+                writesSinceCheck = 0;
+                if (isSkewed(size) && rebalancePending.compareAndSet(false, true))
+                    execute(coordinator, () -> {
+                        rebalancePending.set(false);
+                        rebalance();
+                    });
+            }
+        }
+    }
+
+    private final Partition[] partitions;
+    private volatile short[] owners;
+    /**
+     * Held shared by range queries and exclusively while boundaries move, so
+     * a range query never observes a migration half done.
+     */
+    private final ReadWriteLock boundaries = new ReentrantReadWriteLock();
+    private final ExecutorService coordinator;
+    private final AtomicBoolean rebalancePending = new AtomicBoolean();
+    // the first failure on a partition or rebalancer thread not yet reported
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param m          order of each partition's tree
+     * @param partitions number of partitions, at most 2^15
+     */
+    public PartitionedBPlusTree(int m, int partitions) {
+        if (partitions < 1 || partitions > Short.MAX_VALUE)
+            throw new IllegalArgumentException("partition count out of range");
+        this.partitions = new Partition[partitions];
+        owners = new short[BUCKETS];
+        for (int i = 0; i < partitions; i++) {
+            int lo = (int) ((long) BUCKETS * i / partitions), hi = (int) ((long) BUCKETS * (i + 1) / partitions);
+            this.partitions[i] = new Partition(i, m, lo, hi);
+            for (int b = lo; b < hi; b++)
+                owners[b] = (short) i;
+        }
+        coordinator = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "bplustree-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run task on executor, keeping what it throws for {@link #checkFailure()}.
+     */
+    private void execute(Executor executor, Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+    }
+
+    /**
+     * @throws IllegalStateException caused by the first failure on a
+     *                               partition thread since the last check
+     */
+    private void checkFailure() {
+        Throwable t = failure.getAndSet(null);
+        if (t != null)
+            throw new IllegalStateException("a queued operation failed", t);
+    }
+
+    /**
+     * Run op on the thread of the partition owning k, forwarding it if the
+     * partition gave k away before op got to run.
+     */
+    private void apply(int k, Consumer<Partition> op) {
+        Partition partition = partitions[owners[bucket(k)]];
+        execute(partition.executor, () -> {
+            if (partition.owns(k)) op.accept(partition);
+            else apply(k, op);
+        });
+    }
+
+    /**
+     * Queue the insertion of (k, v). Returns without waiting for it.
+     */
+    public void insert(int k, double v) {
+        checkFailure();
+        apply(k, partition -> {
+            partition.tree.insert(k, v);
+            partition.afterWrite();
+        });
+    }
+
+    /**
+     * Queue the deletion of k. Returns without waiting for it.
+     */
+    public void delete(int k) {
+        checkFailure();
+        apply(k, partition -> {
+            partition.tree.delete(k);
+            partition.afterWrite();
+        });
+    }
+
+    public double get(int k) {
+        checkFailure();
+        CompletableFuture<Double> result = new CompletableFuture<>();
+        apply(k, partition -> {
+            try {
+                result.complete(partition.tree.get(k));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result.join();
+    }
+
+    /**
+     * Query every partition overlapping [l, r] in parallel and concatenate
+     * their answers in key order.
+     */
+    public double[] range(int l, int r) {
+        checkFailure();
+        if (l > r) return new double[0];
+        boundaries.readLock().lock();
+        try {
+            short[] table = owners;
+            int first = table[bucket(l)], last = table[bucket(r)];
+            List<CompletableFuture<double[]>> parts = new ArrayList<>(last - first + 1);
+            for (int i = first; i <= last; i++) {
+                BPlusTree tree = partitions[i].tree;
+                parts.add(CompletableFuture.supplyAsync(() -> tree.range(l, r), partitions[i].executor));
+            }
+            int n = 0;
+            for (CompletableFuture<double[]> part : parts)
+                n += part.join().length;
+            double[] ans = new double[n];
+            n = 0;
+            for (CompletableFuture<double[]> part : parts) {
+                double[] values = part.join();
+                System.arraycopy(values, 0, ans, n, values.length);
+                n += values.length;
+            }
+            return ans;
+        } finally {
+            boundaries.readLock().unlock();
+        }
+    }
+
+    /**
+     * Wait until every update queued so far has been applied.
+     *
+     * @throws IllegalStateException if one of them failed
+     */
+    public void flush() {
+        CompletableFuture<?>[] drained = new CompletableFuture<?>[partitions.length];
+        for (int i = 0; i < partitions.length; i++)
+            drained[i] = CompletableFuture.runAsync(() -> {
+            }, partitions[i].executor);
+        CompletableFuture.allOf(drained).join();
+        checkFailure();
+    }
+
+    /**
+     * @return the number of pairs in each partition, in key order, once all
+     * queued updates have been applied
+     */
+    public int[] partitionSizes() {
+        flush();
+        int[] sizes = new int[partitions.length];
+        for (int i = 0; i < partitions.length; i++)
+            sizes[i] = partitions[i].size;
+        return sizes;
+    }
+
+    private boolean isSkewed(int size) {
+        long total = 0;
+        for (Partition partition : partitions)
+            total += partition.size;
+        return size >= REBALANCE_MIN_SIZE && (long) size * partitions.length >= REBALANCE_SKEW * total;
+    }
+
+    /**
+     * If the largest partition is skewed, move its boundary with its smaller
+     * neighbour so that both end up with about the same number of pairs.
+     * Runs automatically as partitions grow; may also be called explicitly.
+     */
+    public void rebalance() {
+        boundaries.writeLock().lock();
+        try {
+            flush();
+            int i = 0;
+            for (int j = 1; j < partitions.length; j++)
+                if (partitions[j].size > partitions[i].size) i = j;
+            Partition largest = partitions[i];
+            if (partitions.length == 1 || !isSkewed(largest.size))
+                return;
+            Partition left = i > 0 ? partitions[i - 1] : null;
+            Partition right = i + 1 < partitions.length ? partitions[i + 1] : null;
+            Partition target = left == null || (right != null && right.size < left.size) ? right : left;
+            int count = (largest.size - target.size) / 2;
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            execute(largest.executor, () -> {
+                try {
+                    migrate(largest, target, count, done);
+                } catch (Throwable t) {
+                    done.completeExceptionally(t);
+                    throw t;
+                }
+            });
+            done.join();
+        } finally {
+            boundaries.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move about count pairs, at the end adjacent to target, out of from and
+     * into target. Runs on the thread of from.
+     */
+    private void migrate(Partition from, Partition target, int count, CompletableFuture<Void> done) {
+        boolean toRight = target.index > from.index;
+        BPlusTree.Cursor cursor = from.tree.cursor();
+        for (int skip = toRight ? from.size - count : count; skip > 0 && cursor.hasNext(); skip--)
+            cursor.nextValue();
+        int lo, hi;// buckets moving to target
+        if (toRight) {
+            lo = cursor.hasNext() ? Math.max(from.lo + 1, bucket(cursor.nextKey())) : from.hi;
+            hi = from.hi;
+        } else {
+            lo = from.lo;
+            hi = cursor.hasNext() ? Math.min(from.hi - 1, bucket(cursor.nextKey())) : from.hi - 1;
+        }
+        if (lo >= hi) {
+            done.complete(null);
+            return;
+        }
+
+        int l = bucketLow(lo), r = bucketLow(hi - 1) + (1 << BUCKET_BITS) - 1;
+        int n = countKeys(from.tree, l, r);
+        int[] keys = new int[n];
+        double[] values = new double[n];
+        int[] filled = {0};
+        from.tree.range(l, r, (k, v) -> {
+            keys[filled[0]] = k;
+            values[filled[0]++] = v;
+        });
+        from.tree.deleteAll(keys);
+        from.size = from.tree.size();
+        if (toRight) from.hi = lo;
+        else from.lo = hi;
+
+        execute(target.executor, () -> {
+            try {
+                target.tree.insertAll(keys, values);
+                target.size = target.tree.size();
+                if (toRight) target.lo = lo;
+                else target.hi = hi;
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+                throw t;
+            }
+        });
+        short[] table = owners.clone();
+        for (int b = lo; b < hi; b++)
+            table[b] = (short) target.index;
+        owners = table;
+    }
+
+    private static int countKeys(BPlusTree tree, int l, int r) {
+        int[] n = {0};
+        tree.range(l, r, (k, v) -> n[0]++);
+        return n[0];
+    }
+
+    /**
+     * Apply the updates already queued, then stop the partition threads.
+     *
+     * @throws IllegalStateException if an update failed
+     */
+    @Override
+    public void close() {
+        coordinator.shutdown();
+        awaitTermination(coordinator);
+        for (Partition partition : partitions)
+            partition.executor.shutdown();
+        for (Partition partition : partitions)
+            awaitTermination(partition.executor);
+        checkFailure();
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
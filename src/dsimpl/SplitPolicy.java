@@ -0,0 +1,70 @@
+package dsimpl;
+
+/**
+ * Where {@link BPlusTree} splits a node that has overflowed. The entries of
+ * a leaf are its pairs, and those of a non-leaf node are its keys, the first
+ * of which not kept moves up to the parent.
+ * <p>
+ * The tree keeps whatever the policy returns within what it can split at,
+ * leaving at least one pair in each leaf and one key in each non-leaf node.
+ * A split below the minimum node size is allowed. Deletes still rebalance
+ * such a node once it underflows further.
+ */
+@FunctionalInterface
+public interface SplitPolicy {
+    /**
+     * @param size entries in the node, one more than fit
+     * @param at   index of the entry whose insertion overflowed the node
+     * @param last whether the node is the last of its level, to the right of
+     *             every key in the tree
+     * @return how many of the first entries the node keeps, the others
+     * moving to a new right sibling
+     */
+    int split(int size, int at, boolean last);
+
+    /**
+     * Keep half the entries, rounding down. This is the default.
+     */
+    SplitPolicy EVEN = (size, at, last) -> size / 2;
+
+    /**
+     * Keep the last node of a level full when its last entry overflowed it,
+     * starting the new node with just that entry, and split evenly
+     * elsewhere. Keys inserted in increasing order then fill every node
+     * but the last, instead of half of each.
+     */
+    SplitPolicy APPEND = (size, at, last) -> last && at == size - 1 ? size - 1 : size / 2;
+
+    /**
+     * Keep a fixed fraction of the entries. Far from 1/2 this suits only
+     * keys inserted in order: random inserts rarely refill the smaller side,
+     * and at 0.9 leave leaves about a third full.
+     *
+     * @param ratio fraction of the entries to keep, in (0, 1)
+     * @throws IllegalArgumentException if ratio is out of range
+     */
+    static SplitPolicy ratio(double ratio) {
+        if (!(ratio > 0 && ratio < 1))
+            throw new IllegalArgumentException("split ratio must be in (0, 1)");
+        return (size, at, last) -> (int) Math.round(ratio * size);
+    }
+
+    /**
+     * @param name "even", "append", or a ratio for {@link #ratio(double)}
+     * @throws IllegalArgumentException if name names no policy
+     */
+    static SplitPolicy forName(String name) {
+        switch (name) {
+            case "even":
+                return EVEN;
+            case "append":
+                return APPEND;
+            default:
+                try {
+                    return ratio(Double.parseDouble(name));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("no split policy " + name);
+                }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package dsimpl;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the shape of a {@link BPlusTree} and of what its operations
+ * have done to it.
+ * <p>
+ * The shape is always measured. The counters only count while
+ * {@link BPlusTree#INSTRUMENTED instrumentation} is on, and stay 0 otherwise.
+ */
+public final class TreeStats {
+    private final int order, height;
+    private final long size, leafNodes, nonLeafNodes;
+    private final long[] leafOccupancy;
+    private final long packedLeafNodes, leafBytes, tombstones;
+    private final long operations, nodesVisited;
+    private final long leafSplits, nonLeafSplits, leafBorrows, nonLeafBorrows, leafMerges, nonLeafMerges;
+    private final long rootChanges;
+    private final long fingerHits, fingerMisses;
+
+    TreeStats(int order, long size, int height, long leafNodes, long nonLeafNodes, long[] leafOccupancy,
+              long packedLeafNodes, long leafBytes, long tombstones, long operations, long nodesVisited,
+              long leafSplits, long nonLeafSplits, long leafBorrows, long nonLeafBorrows,
+              long leafMerges, long nonLeafMerges, long rootChanges, long fingerHits, long fingerMisses) {
+        this.order = order;
+        this.size = size;
+        this.height = height;
+        this.leafNodes = leafNodes;
+        this.nonLeafNodes = nonLeafNodes;
+        this.leafOccupancy = leafOccupancy;
+        this.packedLeafNodes = packedLeafNodes;
+        this.leafBytes = leafBytes;
+        this.tombstones = tombstones;
+        this.operations = operations;
+        this.nodesVisited = nodesVisited;
+        this.leafSplits = leafSplits;
+        this.nonLeafSplits = nonLeafSplits;
+        this.leafBorrows = leafBorrows;
+        this.nonLeafBorrows = nonLeafBorrows;
+        this.leafMerges = leafMerges;
+        this.nonLeafMerges = nonLeafMerges;
+        this.rootChanges = rootChanges;
+        this.fingerHits = fingerHits;
+        this.fingerMisses = fingerMisses;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the number of pairs
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of levels, 1 for a tree that is a single leaf
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public long getNodeCount() {
+        return leafNodes + nonLeafNodes;
+    }
+
+    public long getLeafNodeCount() {
+        return leafNodes;
+    }
+
+    public long getNonLeafNodeCount() {
+        return nonLeafNodes;
+    }
+
+    /**
+     * @return element i is the number of leaves holding i pairs
+     */
+    public long[] getLeafOccupancy() {
+        return leafOccupancy.clone();
+    }
+
+    /**
+     * @return pairs per leaf over the most a leaf holds, M - 1
+     */
+    public double getFillFactor() {
+        return leafNodes == 0 ? 0 : (double) size / (leafNodes * (order - 1));
+    }
+
+    /**
+     * @return the number of leaves stored compressed
+     */
+    public long getPackedLeafNodeCount() {
+        return packedLeafNodes;
+    }
+
+    /**
+     * @return an estimate of the heap all leaves take, with their pairs
+     */
+    public long getLeafBytes() {
+        return leafBytes;
+    }
+
+    /**
+     * @return the number of deleted pairs still held by leaves, see
+     * {@link BPlusTree#setLazyDeletes(double)}
+     */
+    public long getTombstones() {
+        return tombstones;
+    }
+
+    public double getLeafBytesPerPair() {
+        return size == 0 ? 0 : (double) leafBytes / size;
+    }
+
+    /**
+     * @return the number of lookups, updates, batches and range scans
+     */
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return nodes descended through plus leaves scanned, over all
+     * operations
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    public double getNodesVisitedPerOperation() {
+        return operations == 0 ? 0 : (double) nodesVisited / operations;
+    }
+
+    public long getLeafSplits() {
+        return leafSplits;
+    }
+
+    public long getNonLeafSplits() {
+        return nonLeafSplits;
+    }
+
+    public long getLeafBorrows() {
+        return leafBorrows;
+    }
+
+    public long getNonLeafBorrows() {
+        return nonLeafBorrows;
+    }
+
+    public long getLeafMerges() {
+        return leafMerges;
+    }
+
+    public long getNonLeafMerges() {
+        return nonLeafMerges;
+    }
+
+    /**
+     * @return how often the tree grew a new root or lost its root
+     */
+    public long getRootChanges() {
+        return rootChanges;
+    }
+
+    /**
+     * @return the number of operations that, with finger search on, found
+     * their leaf at or next to the finger
+     */
+    public long getFingerHits() {
+        return fingerHits;
+    }
+
+    /**
+     * @return the number of operations that, with finger search on, had to
+     * descend from the root
+     */
+    public long getFingerMisses() {
+        return fingerMisses;
+    }
+
+    public double getFingerHitRate() {
+        long tries = fingerHits + fingerMisses;
+        return tries == 0 ? 0 : (double) fingerHits / tries;
+    }
+
+    @Override
+    public String toString() {
+        return "order " + order + ", " + size + " pairs, height " + height
+                + ", " + leafNodes + " leaves, " + nonLeafNodes + " non-leaves"
+                + ", fill factor " + String.format("%.3f", getFillFactor())
+                + "\nleaf occupancy " + Arrays.toString(leafOccupancy)
+                + "\n" + packedLeafNodes + " leaves packed, " + String.format("%.1f", getLeafBytesPerPair())
+                + " leaf bytes per pair, " + tombstones + " tombstones"
+                + "\n" + operations + " operations visiting " + String.format("%.2f", getNodesVisitedPerOperation())
+                + " nodes each; splits " + leafSplits + " leaf / " + nonLeafSplits + " non-leaf"
+                + ", borrows " + leafBorrows + " / " + nonLeafBorrows
+                + ", merges " + leafMerges + " / " + nonLeafMerges
+                + ", root changes " + rootChanges
+                + "\nfinger hits " + fingerHits + ", misses " + fingerMisses
+                + ", hit rate " + String.format("%.3f", getFingerHitRate());
+    }
+}
@@ -0,0 +1,16 @@
+package dsimpl;
+
+/**
+ * Management interface of a {@link BPlusTree}, as returned by
+ * {@link BPlusTree#mxBean()}; register it with an MBean server to watch the
+ * tree from JConsole or any other JMX client.
+ */
+public interface TreeStatsMXBean {
+    /**
+     * @return a fresh snapshot; taken without any locking, so it is only
+     * approximate while the tree is being modified
+     */
+    TreeStats getStats();
+
+    void resetCounters();
+}
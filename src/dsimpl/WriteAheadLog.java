@@ -0,0 +1,262 @@
+package dsimpl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of the updates applied to a B+ tree.
+ * <p>
+ * Records are buffered in memory and written out in groups: a group is
+ * written and fsync'ed once it holds groupBytes bytes, or once its oldest
+ * record has waited groupNanos, whichever comes first, so that many records
+ * share a single fsync. On disk every group is framed as
+ * <pre>
+ * int payloadLength | int crc32(payload) | payload
+ * </pre>
+ * so that a group torn by a crash is detected, and discarded, on replay.
+ * A group that fails to be written is cut off the file again and its
+ * records stay pending, so the next sync retries them right after the last
+ * intact group; should the file not be cut, the log fails for good.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    public static final byte INITIALIZE = 1, INSERT = 2, DELETE = 3;
+    /**
+     * Bytes each kind of record takes in a group.
+     */
+    public static final int INITIALIZE_BYTES = 5, INSERT_BYTES = 13, DELETE_BYTES = 5;
+
+    /**
+     * Receives the records of the log on replay.
+     */
+    public interface Visitor {
+        void initialize(int m) throws IOException;
+
+        void insert(int k, double v) throws IOException;
+
+        void delete(int k) throws IOException;
+    }
+
+    private final FileChannel channel;
+    private final int groupBytes;
+    private final long groupNanos;
+    private final ScheduledExecutorService syncer;
+
+    private ByteBuffer pending;
+    private long oldestPendingNanos;
+    private final CRC32 crc = new CRC32();
+    // bytes of intact groups in the file; appends go right after them
+    private long length;
+    // why the log cannot be written any more; non-null makes every write throw
+    private IOException failure;
+
+    /**
+     * Open the log in file, creating it if absent. Appends go to the end of
+     * the file; replay it with {@link #replay(Visitor)} first to also drop a
+     * torn tail left by a crash.
+     *
+     * @param groupBytes pending bytes that trigger a group commit
+     * @param groupNanos longest time a record may stay pending, or 0 to only
+     *                   commit on the byte budget and on {@link #sync()}
+     */
+    public WriteAheadLog(Path file, int groupBytes, long groupNanos) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        length = channel.size();
+        channel.position(length);
+        this.groupBytes = groupBytes;
+        this.groupNanos = groupNanos;
+        pending = ByteBuffer.allocate(Math.max(64, groupBytes + 16));
+        if (groupNanos > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "wal-group-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncIfDue, groupNanos, groupNanos, TimeUnit.NANOSECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Feed every intact record to visitor in order, then cut off any torn
+     * group at the tail so appends continue from the last intact one.
+     *
+     * @return the number of records replayed
+     */
+    public synchronized long replay(Visitor visitor) throws IOException {
+        long records = 0, intact = 0;
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        byte[] payload = new byte[0];
+        for (; ; ) {
+            int length, checksum;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+                if (length < 0 || length > channel.size() - intact - 8)
+                    break;
+                if (payload.length < length)
+                    payload = new byte[length];
+                in.readFully(payload, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+                break;
+            ByteBuffer group = ByteBuffer.wrap(payload, 0, length);
+            while (group.hasRemaining()) {
+                byte type = group.get();
+                switch (type) {
+                    case INITIALIZE:
+                        visitor.initialize(group.getInt());
+                        break;
+                    case INSERT:
+                        visitor.insert(group.getInt(), group.getDouble());
+                        break;
+                    case DELETE:
+                        visitor.delete(group.getInt());
+                        break;
+                    default:
+                        throw new IOException("unknown log record type " + type);
+                }
+                records++;
+            }
+            intact += 8 + length;
+        }
+        channel.truncate(intact);
+        channel.position(intact);
+        length = intact;
+        return records;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("the write-ahead log failed", failure);
+    }
+
+    private void reserve(int bytes) throws IOException {
+        checkFailure();
+        if (pending.position() == 0)
+            oldestPendingNanos = System.nanoTime();
+        if (pending.remaining() < bytes)
+            pending = ByteBuffer.allocate(pending.capacity() << 1).put(pending.flip());
+    }
+
+    private void appended() throws IOException {
+        if (pending.position() >= groupBytes)
+            sync();
+    }
+
+    public synchronized void appendInitialize(int m) throws IOException {
+        reserve(INITIALIZE_BYTES);
+        pending.put(INITIALIZE).putInt(m);
+        appended();
+    }
+
+    public synchronized void appendInsert(int k, double v) throws IOException {
+        reserve(INSERT_BYTES);
+        pending.put(INSERT).putInt(k).putDouble(v);
+        appended();
+    }
+
+    public synchronized void appendDelete(int k) throws IOException {
+        reserve(DELETE_BYTES);
+        pending.put(DELETE).putInt(k);
+        appended();
+    }
+
+    private void syncIfDue() {
+        synchronized (this) {
+            if (pending.position() == 0 || System.nanoTime() - oldestPendingNanos < groupNanos)
+                return;
+            try {
+                sync();
+            } catch (IOException e) {
+                // the records stay pending; the next sync retries them and reports a failure
+            }
+        }
+    }
+
+    /**
+     * Write and fsync every pending record as one group.
+     */
+    public synchronized void sync() throws IOException {
+        checkFailure();
+        int n = pending.position();
+        if (n == 0) return;
+        crc.reset();
+        crc.update(pending.array(), 0, n);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(n).putInt((int) crc.getValue());
+        header.flip();
+        pending.flip();
+        ByteBuffer[] group = {header, pending};
+        try {
+            while (pending.hasRemaining())
+                channel.write(group);
+            channel.force(false);
+        } catch (IOException e) {
+            rollBack(n, e);
+            throw e;
+        }
+        length += 8 + n;
+        pending.clear();
+    }
+
+    /**
+     * Cut whatever part of a group of n bytes reached the file off it again,
+     * and keep the records of the group pending.
+     */
+    private void rollBack(int n, IOException cause) {
+        pending.limit(pending.capacity()).position(n);
+        try {
+            channel.truncate(length);
+            channel.position(length);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the groups written to the log file so far
+     */
+    public synchronized long size() {
+        return length;
+    }
+
+    /**
+     * Drop every record, once they are all covered by a checkpoint.
+     */
+    public synchronized void truncate() throws IOException {
+        checkFailure();
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        length = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (syncer != null)
+            syncer.shutdownNow();
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+}
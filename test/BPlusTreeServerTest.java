@@ -0,0 +1,133 @@
+import dsimpl.BPlusTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class BPlusTreeServerTest {
+    private BPlusTreeServer server;
+
+    @Before
+    public void start() throws IOException {
+        server = new BPlusTreeServer(InetAddress.getLoopbackAddress(), 0, null);
+        bplustree.daemon("bplustree-server", () -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Send instructions over a new connection all at once, close its output,
+     * and return every line the server replied with.
+     */
+    private List<String> exchange(String instructions) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+            out.write(instructions);
+            out.flush();
+            socket.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII));
+            List<String> lines = new ArrayList<>();
+            for (String line; (line = in.readLine()) != null; )
+                lines.add(line);
+            return lines;
+        }
+    }
+
+    @Test
+    public void repliesToPipelinedInstructionsInOrder() throws IOException {
+        StringBuilder instructions = new StringBuilder("Initialize(8)\n");
+        for (int k = 0; k < 2000; k += 2)
+            instructions.append("Insert(").append(k).append(", ").append(k).append(")\n");
+        for (int k = 0; k < 2000; k++)
+            instructions.append("Search(").append(k).append(")\n");
+        List<String> lines = exchange(instructions.toString());
+        assertEquals(2000, lines.size());
+        for (int k = 0; k < 2000; k++)
+            assertEquals(k % 2 == 0 ? Double.toString(k) : "NaN", lines.get(k));
+    }
+
+    @Test
+    public void repliesWithTheErrorsOfTheDriver() throws IOException {
+        List<String> lines = exchange("Search(1)\nInitialize(4)\nInitialize(4)\nInsert(1, 0.5)\n"
+                + "Foo(1)\nSearch(1)\nSearch(x)\nSearch(5, 10)\n");
+        assertEquals(List.of("B+Tree has not been initialized yet.", "Reinitialization is not allowed.",
+                "Malformed Instruction.", "0.5", "Number format is wrong.", ""), lines);
+    }
+
+    @Test
+    public void streamsRangesLongerThanAScanChunk() throws IOException {
+        int n = 3 * bplustree.STREAM_LIMIT + 17;
+        StringBuilder instructions = new StringBuilder("Initialize(16)\n");
+        StringJoiner expected = new StringJoiner(",");
+        for (int k = 0; k < n; k++) {
+            instructions.append("Insert(").append(k).append(", ").append(k).append(")\n");
+            expected.add(Double.toString(k));
+        }
+        instructions.append("Search(0, ").append(n).append(")\nSearch(0)\n");
+        assertEquals(List.of(expected.toString(), "0.0"), exchange(instructions.toString()));
+    }
+
+    @Test
+    public void sharesOneTreeBetweenConcurrentClients() throws Exception {
+        assertEquals(List.of(), exchange("Initialize(8)\n"));
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<List<String>>> replies = new ArrayList<>();
+            for (int c = 0; c < 2; c++) {
+                StringBuilder instructions = new StringBuilder();
+                for (int k = c; k < 20000; k += 2)
+                    instructions.append("Insert(").append(k).append(", ").append(k).append(")\n")
+                            .append("Search(").append(k).append(")\n");
+                replies.add(clients.submit(() -> exchange(instructions.toString())));
+            }
+            for (int c = 0; c < 2; c++) {
+                List<String> lines = replies.get(c).get(1, TimeUnit.MINUTES);
+                assertEquals(10000, lines.size());
+                for (int i = 0; i < lines.size(); i++)
+                    assertEquals(Double.toString(c + 2 * i), lines.get(i));
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        List<String> lines = exchange("Search(0, 19999)\n");
+        assertEquals(1, lines.size());
+        assertEquals(20000, lines.get(0).split(",").length);
+    }
+
+    private static int registeredTrees() throws MalformedObjectNameException {
+        return ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName("dsimpl:type=BPlusTree,*"), null).size();
+    }
+
+    @Test
+    public void closeUnregistersTheTree() throws Exception {
+        int before = registeredTrees();
+        exchange("Initialize(4)\n");
+        assertEquals(before + (BPlusTree.INSTRUMENTED ? 1 : 0), registeredTrees());
+        server.close();
+        assertEquals(before, registeredTrees());
+    }
+}
@@ -2,9 +2,24 @@ package dsimpl;
 
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
 import java.util.Random;
+import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.junit.Assert.*;
@@ -148,4 +163,639 @@ public class BPlusTreeTest {
         double[] actual = bp.range(l, r);
         assertArrayEquals(expected, actual, 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void randomMixedOperationsAgainstTreeMap() {
+        final int N = 20000, KEY_SPACE = 2000;
+        Random random = new Random(42);
+        for (int M : new int[]{3, 4, 5, 20}) {
+            BPlusTree bp = new BPlusTree(M);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            for (int i = 0; i < N; i++) {
+                int k = random.nextInt(KEY_SPACE);
+                if (random.nextInt(3) == 0) {
+                    bp.delete(k);
+                    expected.remove(k);
+                } else {
+                    double v = random.nextDouble();
+                    bp.insert(k, v);
+                    expected.putIfAbsent(k, v);
+                }
+            }
+            for (int k = 0; k < KEY_SPACE; k++) {
+                Double v = expected.get(k);
+                assertEquals(v == null ? Double.NaN : v, bp.get(k), 0);
+            }
+            int l = random.nextInt(KEY_SPACE), r = l + random.nextInt(KEY_SPACE - l);
+            double[] expectedRange = expected.subMap(l, true, r, true).values()
+                    .stream().mapToDouble(Double::doubleValue).toArray();
+            assertArrayEquals(expectedRange, bp.range(l, r), 0);
+            assertEquals(0, bp.range(r + 1, l).length);
+            assertEquals(expected.size(), bp.size());
+        }
+    }
+
+    @Test
+    public void bulkLoad() {
+        Random random = new Random(7);
+        for (int M : new int[]{3, 4, 5, 20})
+            for (double fill : new double[]{0.5, 0.7, 1.0})
+                for (int N : new int[]{0, 1, 2, 7, 100, 5000}) {
+                    int[] keys = new int[N];
+                    double[] values = new double[N];
+                    for (int i = 0; i < N; i++) {
+                        keys[i] = 2 * i;
+                        values[i] = random.nextDouble();
+                    }
+                    BPlusTree bp = BPlusTree.bulkLoad(M, keys, values, fill);
+                    for (int i = 0; i < N; i++) {
+                        assertEquals(values[i], bp.get(keys[i]), 0);
+                        assertTrue(Double.isNaN(bp.get(keys[i] + 1)));
+                    }
+                    assertArrayEquals(values, bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+                    // the loaded tree must stay valid under further updates
+                    for (int i = 0; i < N; i += 2)
+                        bp.delete(keys[i]);
+                    for (int i = 0; i < N; i++)
+                        bp.insert(keys[i] + 1, values[i]);
+                    for (int i = 0; i < N; i++) {
+                        assertEquals(i % 2 == 0 ? Double.NaN : values[i], bp.get(keys[i]), 0);
+                        assertEquals(values[i], bp.get(keys[i] + 1), 0);
+                    }
+                }
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        Path file = Files.createTempFile("bplustree", ".snapshot");
+        try {
+            Random random = new Random(11);
+            for (int M : new int[]{3, 20})
+                for (int N : new int[]{0, 1, 8191, 8192, 30000}) {
+                    BPlusTree bp = new BPlusTree(M);
+                    TreeMap<Integer, Double> expected = new TreeMap<>();
+                    for (int i = 0; i < N; i++) {
+                        int k = random.nextInt();
+                        double v = random.nextDouble();
+                        bp.insert(k, v);
+                        expected.putIfAbsent(k, v);
+                    }
+                    bp.saveSnapshot(file);
+                    BPlusTree loaded = BPlusTree.loadSnapshot(file);
+                    assertEquals(M, loaded.order());
+                    assertEquals(expected.size(), loaded.size());
+                    assertArrayEquals(bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                            loaded.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+                    for (int k : expected.keySet())
+                        assertEquals(expected.get(k), loaded.get(k), 0);
+                }
+
+            // a flipped byte in a block must be caught by its checksum
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{0x5a}), 1000);
+            }
+            try {
+                BPlusTree.loadSnapshot(file);
+                fail("corrupt snapshot loaded");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().endsWith("is corrupt"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkLoadRejectsUnsortedKeys() {
+        BPlusTree.bulkLoad(4, new int[]{1, 3, 2}, new double[]{0.1, 0.3, 0.2});
+    }
+
+    @Test
+    public void batchInsertAndDeleteAgainstTreeMap() {
+        Random random = new Random(11);
+        for (int M : new int[]{3, 4, 5, 20}) {
+            BPlusTree bp = new BPlusTree(M);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            for (int round = 0; round < 200; round++) {
+                int base = random.nextInt(5000), len = 1 + random.nextInt(300);
+                int[] keys = new int[len];
+                for (int i = 0; i < len; i++)
+                    keys[i] = base + random.nextInt(2 * len);
+                if (random.nextInt(3) == 0) {
+                    bp.deleteAll(keys);
+                    for (int k : keys)
+                        expected.remove(k);
+                } else {
+                    double[] values = new double[len];
+                    for (int i = 0; i < len; i++) {
+                        values[i] = random.nextDouble();
+                        expected.putIfAbsent(keys[i], values[i]);
+                    }
+                    bp.insertAll(keys, values);
+                }
+            }
+            for (int k = 0; k < 6000; k++) {
+                Double v = expected.get(k);
+                assertEquals(v == null ? Double.NaN : v, bp.get(k), 0);
+            }
+            double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+            assertArrayEquals(all, bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+            assertEquals(expected.size(), bp.size());
+            bp.deleteAll(expected.keySet().stream().mapToInt(Integer::intValue).toArray());
+            assertEquals(0, bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+        }
+    }
+
+    @Test
+    public void rangeCursorVisitorAndBuffer() {
+        final int M = 5, N = 3000;
+        BPlusTree bp = new BPlusTree(M);
+        Pair[] testData = randomPairArray(N);
+        for (Pair pair : testData)
+            bp.insert(2 * pair.k, pair.v);
+        Arrays.sort(testData, Comparator.comparingInt(pair -> pair.k));
+
+        BPlusTree.Cursor cursor = bp.cursor();
+        for (Pair pair : testData) {
+            assertTrue(cursor.hasNext());
+            assertEquals(2 * pair.k, cursor.nextKey());
+            assertEquals(pair.v, cursor.nextValue(), 0);
+        }
+        assertFalse(cursor.hasNext());
+
+        cursor.seek(101);
+        assertEquals(102, cursor.nextKey());
+
+        int l = 101, r = 4000;
+        double[] expected = bp.range(l, r);
+        assertEquals((r - l + 1) / 2, expected.length);
+        int[] visited = {0};
+        bp.range(l, r, (k, v) -> {
+            assertTrue(l <= k && k <= r);
+            assertEquals(expected[visited[0]++], v, 0);
+        });
+        assertEquals(expected.length, visited[0]);
+
+        double[] buffer = new double[100];
+        assertEquals(100, bp.range(l, r, buffer));
+        assertArrayEquals(Arrays.copyOf(expected, 100), buffer, 0);
+        assertEquals(0, bp.range(r, l, buffer));
+    }
+
+    @Test
+    public void compressedLeavesAgainstTreeMap() {
+        Random random = new Random(13);
+        for (int M : new int[]{3, 4, 20, 128})
+            for (boolean compressValues : new boolean[]{false, true}) {
+                BPlusTree bp = new BPlusTree(M);
+                TreeMap<Integer, Double> expected = new TreeMap<>();
+                for (int i = 0; i < 5000; i++) {
+                    int k = random.nextInt(20000);
+                    double v = random.nextInt(8) / 8.0;
+                    bp.insert(k, v);
+                    expected.putIfAbsent(k, v);
+                }
+                for (int round = 0; round < 4; round++) {
+                    bp.compressLeaves(compressValues);
+                    TreeStats stats = bp.stats();
+                    assertEquals(stats.getLeafNodeCount(), stats.getPackedLeafNodeCount());
+                    assertConsistent(stats, expected.size());
+                    for (int k = 0; k < 20000; k += 3) {
+                        Double v = expected.get(k);
+                        assertEquals(v == null ? Double.NaN : v, bp.get(k), 0);
+                    }
+                    double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+                    assertArrayEquals(all, bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+                    bp.range(100, 10000, (k, v) -> assertEquals(expected.get(k), v, 0));
+                    BPlusTree.Cursor cursor = bp.cursor();
+                    for (int k : expected.keySet()) {
+                        assertEquals(k, cursor.nextKey());
+                        assertEquals(expected.get(k), cursor.nextValue(), 0);
+                    }
+                    // writes unpack the leaves they touch, and their siblings
+                    for (int i = 0; i < 1000; i++) {
+                        int k = random.nextInt(20000);
+                        if (random.nextBoolean()) {
+                            bp.delete(k);
+                            expected.remove(k);
+                        } else {
+                            bp.insert(k, 0.5);
+                            expected.putIfAbsent(k, 0.5);
+                        }
+                    }
+                    int[] batch = random.ints(200, 0, 20000).toArray();
+                    bp.deleteAll(batch);
+                    for (int k : batch)
+                        expected.remove(k);
+                    assertEquals(expected.size(), bp.size());
+                    assertArrayEquals(expected.values().stream().mapToDouble(Double::doubleValue).toArray(),
+                            bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+                }
+            }
+    }
+
+    @Test
+    public void aggregatesAgainstTreeMap() {
+        Random random = new Random(19);
+        for (int M : new int[]{3, 4, 5, 20}) {
+            BPlusTree bp = new BPlusTree(M);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            for (int round = 0; round < 30; round++) {
+                switch (random.nextInt(6)) {
+                    case 0: {
+                        int[] keys = random.ints(1 + random.nextInt(400), 0, 3000).toArray();
+                        double[] values = random.doubles(keys.length, -100, 100).toArray();
+                        bp.insertAll(keys, values);
+                        for (int i = 0; i < keys.length; i++)
+                            expected.putIfAbsent(keys[i], values[i]);
+                        break;
+                    }
+                    case 1: {
+                        int[] keys = random.ints(1 + random.nextInt(400), 0, 3000).toArray();
+                        bp.deleteAll(keys);
+                        for (int k : keys)
+                            expected.remove(k);
+                        break;
+                    }
+                    case 2:
+                        bp.compressLeaves(random.nextBoolean());
+                        break;
+                    case 3: {
+                        int[] keys = expected.keySet().stream().mapToInt(Integer::intValue).toArray();
+                        double[] values = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+                        bp = BPlusTree.bulkLoad(M, keys, values, 0.5 + random.nextDouble() / 2);
+                        break;
+                    }
+                    default:
+                        for (int i = 0; i < 300; i++) {
+                            int k = random.nextInt(3000);
+                            if (random.nextInt(5) < 2) {
+                                bp.delete(k);
+                                expected.remove(k);
+                            } else {
+                                double v = random.nextInt(1000) / 8.0;
+                                bp.insert(k, v);
+                                expected.putIfAbsent(k, v);
+                            }
+                        }
+                }
+                Integer[] keys = expected.keySet().toArray(new Integer[0]);
+                for (int i = 0; i < keys.length; i += 1 + random.nextInt(5)) {
+                    assertEquals((int) keys[i], bp.select(i));
+                    assertEquals(i, bp.rank(keys[i]));
+                    assertEquals(i + 1, bp.rank(keys[i] + 1));
+                }
+                assertEquals(0, bp.rank(Integer.MIN_VALUE));
+                assertEquals(expected.size(), bp.rank(Integer.MAX_VALUE));
+                for (int q = 0; q < 50; q++) {
+                    int l = random.nextInt(3100) - 50, r = l + random.nextInt(3100 - l);
+                    if (q == 0) l = Integer.MIN_VALUE;
+                    if (q == 1) r = Integer.MAX_VALUE;
+                    double[] values = expected.subMap(l, true, r, true).values()
+                            .stream().mapToDouble(Double::doubleValue).toArray();
+                    assertEquals(values.length, bp.rangeCount(l, r));
+                    assertEquals(Arrays.stream(values).sum(), bp.rangeSum(l, r), 1e-9);
+                    assertEquals(Arrays.stream(values).min().orElse(Double.NaN), bp.rangeMin(l, r), 0);
+                    assertEquals(Arrays.stream(values).max().orElse(Double.NaN), bp.rangeMax(l, r), 0);
+                    if (l < r) {
+                        assertEquals(0, bp.rangeCount(r, l));
+                        assertTrue(Double.isNaN(bp.rangeMin(r, l)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void limitedAndDescendingRangesAgainstTreeMap() {
+        final int N = 3000, KEY_SPACE = 10000;
+        Random random = new Random(20);
+        for (int M : new int[]{3, 4, 20}) {
+            for (boolean packed : new boolean[]{false, true}) {
+                BPlusTree bp = new BPlusTree(M);
+                TreeMap<Integer, Double> expected = new TreeMap<>();
+                for (int i = 0; i < N; i++) {
+                    int k = random.nextInt(KEY_SPACE) - KEY_SPACE / 2;
+                    bp.insert(k, k * 0.5);
+                    expected.put(k, k * 0.5);
+                }
+                if (packed)
+                    bp.compressLeaves(true);
+                for (int round = 0; round < 200; round++) {
+                    int l = random.nextInt(KEY_SPACE + 200) - KEY_SPACE / 2 - 100;
+                    int r = round == 0 ? Integer.MAX_VALUE : l + random.nextInt(KEY_SPACE / 2) - 20;
+                    if (round == 1) l = Integer.MIN_VALUE;
+                    int n = random.nextInt(3) == 0 ? Integer.MAX_VALUE : random.nextInt(M * 10) - 1;
+                    double[] ascending = l > r ? new double[0] : expected.subMap(l, true, r, true).values()
+                            .stream().mapToDouble(Double::doubleValue).toArray();
+                    double[] descending = l > r ? new double[0] : expected.subMap(l, true, r, true)
+                            .descendingMap().values().stream().mapToDouble(Double::doubleValue).toArray();
+                    int limit = Math.max(0, Math.min(n, ascending.length));
+
+                    assertArrayEquals(Arrays.copyOf(ascending, limit), bp.rangeLimit(l, r, n), 0);
+                    assertArrayEquals(descending, bp.rangeDescending(l, r), 0);
+                    List<Double> visited = new ArrayList<>();
+                    assertEquals(limit, bp.rangeDescending(l, r, n, (k, v) -> {
+                        assertEquals(k * 0.5, v, 0);
+                        visited.add(v);
+                    }));
+                    assertArrayEquals(Arrays.copyOf(descending, limit),
+                            visited.stream().mapToDouble(Double::doubleValue).toArray(), 0);
+
+                    // pages of n resumed past the last key reach every entry
+                    if (n <= 0 || n == Integer.MAX_VALUE) continue;
+                    visited.clear();
+                    int[] last = new int[1];
+                    for (long from = l; from <= r; from = last[0] + 1L) {
+                        int got = bp.rangeLimit((int) from, r, n, (k, v) -> {
+                            last[0] = k;
+                            visited.add(v);
+                        });
+                        if (got < n) break;
+                    }
+                    assertArrayEquals(ascending, visited.stream().mapToDouble(Double::doubleValue).toArray(), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lazyDeletesAgainstTreeMap() throws IOException {
+        final int N = 12000, KEY_SPACE = 1500;
+        Random random = new Random(21);
+        Path file = Files.createTempFile("bplustree", ".snapshot");
+        try {
+            for (int M : new int[]{3, 4, 5, 20}) {
+                for (double ratio : new double[]{0.25, 0.5, 1}) {
+                    BPlusTree bp = new BPlusTree(M);
+                    bp.setLazyDeletes(ratio);
+                    TreeMap<Integer, Double> expected = new TreeMap<>();
+                    for (int i = 0; i < N; i++) {
+                        int k = random.nextInt(KEY_SPACE);
+                        int op = random.nextInt(10);
+                        if (op < 4) {
+                            bp.delete(k);
+                            expected.remove(k);
+                        } else if (op < 8) {
+                            double v = random.nextDouble();
+                            bp.insert(k, v);
+                            expected.putIfAbsent(k, v);
+                        } else if (op == 8) {
+                            Double v = expected.get(k);
+                            assertEquals(v == null ? Double.NaN : v, bp.get(k), 0);
+                        } else if (random.nextInt(20) == 0) {
+                            int[] keys = random.ints(30, 0, KEY_SPACE).toArray();
+                            if (random.nextBoolean()) {
+                                double[] values = random.doubles(30).toArray();
+                                bp.insertAll(keys, values);
+                                for (int j = 0; j < keys.length; j++)
+                                    expected.putIfAbsent(keys[j], values[j]);
+                            } else {
+                                bp.deleteAll(keys);
+                                for (int key : keys)
+                                    expected.remove(key);
+                            }
+                        }
+                        if (i % 1000 == 999)
+                            assertLazyTreeMatches(bp, expected, M, random);
+                    }
+                    bp.saveSnapshot(file);
+                    assertArrayEquals(bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                            BPlusTree.loadSnapshot(file).range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+                    bp.compact();
+                    assertEquals(0, bp.stats().getTombstones());
+                    assertLazyTreeMatches(bp, expected, M, random);
+                    bp.compressLeaves(false);
+                    assertLazyTreeMatches(bp, expected, M, random);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void assertLazyTreeMatches(BPlusTree bp, TreeMap<Integer, Double> expected, int M,
+                                              Random random) {
+        TreeStats stats = bp.stats();
+        assertConsistent(stats, expected.size());
+        // tombstones count towards the occupancy of their leaf, so no leaf is below the minimum
+        if (stats.getLeafNodeCount() > 1)
+            for (int i = 0; i < (M + 1) / 2 - 1; i++)
+                assertEquals(0, stats.getLeafOccupancy()[i]);
+        double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+        assertArrayEquals(all, bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+        List<Double> visited = new ArrayList<>();
+        bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE, (k, v) -> visited.add(v));
+        assertArrayEquals(all, visited.stream().mapToDouble(Double::doubleValue).toArray(), 0);
+        BPlusTree.Cursor cursor = bp.cursor();
+        for (double v : all)
+            assertEquals(v, cursor.nextValue(), 0);
+        assertFalse(cursor.hasNext());
+        int l = random.nextInt(1500), r = l + random.nextInt(300);
+        NavigableMap<Integer, Double> sub = expected.subMap(l, true, r, true);
+        assertArrayEquals(sub.descendingMap().values().stream().mapToDouble(Double::doubleValue).toArray(),
+                bp.rangeDescending(l, r), 0);
+        assertEquals(sub.size(), bp.rangeCount(l, r));
+        assertEquals(sub.values().stream().mapToDouble(Double::doubleValue).sum(), bp.rangeSum(l, r), 1e-9);
+        assertEquals(sub.isEmpty() ? Double.NaN : Collections.min(sub.values()), bp.rangeMin(l, r), 0);
+        assertEquals(expected.headMap(l).size(), bp.rank(l));
+        if (!expected.isEmpty()) {
+            int i = random.nextInt(expected.size());
+            assertEquals((int) expected.keySet().stream().skip(i).findFirst().get(), bp.select(i));
+        }
+        for (int k = l; k <= r; k++) {
+            Double v = expected.get(k);
+            assertEquals(v == null ? Double.NaN : v, bp.get(k), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lazyDeletesRejectRatiosAboveOne() {
+        new BPlusTree(4).setLazyDeletes(1.5);
+    }
+
+    @Test
+    public void fingerSearchAgainstTreeMap() {
+        final int N = 40000, KEY_SPACE = 3000;
+        Random random = new Random(19);
+        for (int M : new int[]{3, 4, 5, 20}) {
+            BPlusTree bp = new BPlusTree(M);
+            bp.setFingerSearch(true);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            // a random walk over the keys, with the odd jump
+            int k = KEY_SPACE / 2;
+            for (int i = 0; i < N; i++) {
+                k = random.nextInt(50) == 0 ? random.nextInt(KEY_SPACE)
+                        : Math.floorMod(k + random.nextInt(2 * M + 1) - M, KEY_SPACE);
+                int op = random.nextInt(5);
+                if (op == 0) {
+                    bp.delete(k);
+                    expected.remove(k);
+                } else if (op < 3) {
+                    double v = random.nextDouble();
+                    bp.insert(k, v);
+                    expected.putIfAbsent(k, v);
+                } else {
+                    Double v = expected.get(k);
+                    assertEquals(v == null ? Double.NaN : v, bp.get(k), 0);
+                }
+            }
+            // every pair must also be where a descent from the root looks
+            bp.setFingerSearch(false);
+            for (int key = 0; key < KEY_SPACE; key++) {
+                Double v = expected.get(key);
+                assertEquals(v == null ? Double.NaN : v, bp.get(key), 0);
+            }
+            assertArrayEquals(expected.values().stream().mapToDouble(Double::doubleValue).toArray(),
+                    bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+        }
+    }
+
+    @Test
+    public void fingerSearchSkipsDescentsOnAppends() {
+        final int M = 64, N = 100000;
+        BPlusTree bp = new BPlusTree(M);
+        bp.setFingerSearch(true);
+        for (int k = 0; k < N; k++)
+            bp.insert(k, k);
+        for (int k = N - 1; k >= 0; k--)
+            assertEquals(k, bp.get(k), 0);
+        assertConsistent(bp.stats(), N);
+        if (BPlusTree.INSTRUMENTED) {
+            TreeStats stats = bp.stats();
+            assertEquals(2 * N, stats.getFingerHits() + stats.getFingerMisses());
+            assertTrue(stats.getFingerHitRate() > 0.95);
+            assertTrue(stats.getNodesVisitedPerOperation() < 1.2);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void selectRejectsRanksBeyondTheSize() {
+        BPlusTree bp = new BPlusTree(4);
+        bp.insert(1, 1);
+        bp.select(1);
+    }
+
+    @Test
+    public void statsMatchTheShapeOfTheTree() throws Exception {
+        final int M = 4, N = 5000;
+        BPlusTree bp = new BPlusTree(M);
+        Pair[] testData = randomPairArray(N);
+        for (Pair pair : testData)
+            bp.insert(pair.k, pair.v);
+        assertConsistent(bp.stats(), N);
+        for (int i = 0; i < N - 10; i++)
+            bp.delete(testData[i].k);
+        TreeStats stats = bp.stats();
+        assertConsistent(stats, 10);
+        if (BPlusTree.INSTRUMENTED) {
+            assertEquals(2 * N - 10, stats.getOperations());
+            assertTrue(stats.getNodesVisitedPerOperation() > 2);
+            assertTrue(stats.getLeafBorrows() > 0 && stats.getNonLeafBorrows() > 0);
+            assertTrue(stats.getLeafMerges() > 0 && stats.getNonLeafMerges() > 0);
+            bp.resetCounters();
+            assertEquals(0, bp.stats().getLeafSplits());
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("dsimpl:type=BPlusTree,name=statsTest");
+        server.registerMBean(bp.mxBean(), name);
+        try {
+            CompositeData data = (CompositeData) server.getAttribute(name, "Stats");
+            assertEquals(10L, data.get("size"));
+            assertEquals(stats.getHeight(), data.get("height"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void splitPoliciesAgainstTreeMap() {
+        final int N = 20000, KEY_SPACE = 4000;
+        SplitPolicy[] policies = {SplitPolicy.EVEN, SplitPolicy.APPEND, SplitPolicy.ratio(0.1),
+                SplitPolicy.ratio(0.9), (size, at, last) -> 0, (size, at, last) -> Integer.MAX_VALUE};
+        Random random = new Random(23);
+        for (SplitPolicy policy : policies)
+            for (int M : new int[]{3, 4, 5, 16}) {
+                BPlusTree bp = new BPlusTree(M);
+                bp.setSplitPolicy(policy);
+                // tombstones make room in nodes the policy left short, too
+                bp.setLazyDeletes(M % 2 == 0 ? 0.5 : 0);
+                TreeMap<Integer, Double> expected = new TreeMap<>();
+                // appends first, then random updates that borrow from and merge the nodes they left
+                for (int k = 0; k < KEY_SPACE; k += 2) {
+                    bp.insert(k, k);
+                    expected.put(k, (double) k);
+                }
+                for (int i = 0; i < N; i++) {
+                    int k = random.nextInt(KEY_SPACE);
+                    if (random.nextInt(3) == 0) {
+                        double v = random.nextDouble();
+                        bp.insert(k, v);
+                        expected.putIfAbsent(k, v);
+                    } else {
+                        bp.delete(k);
+                        expected.remove(k);
+                    }
+                    if (i % 1000 == 0) {
+                        assertConsistent(bp.stats(), expected.size());
+                        int l = random.nextInt(KEY_SPACE), r = l + random.nextInt(500);
+                        NavigableMap<Integer, Double> sub = expected.subMap(l, true, r, true);
+                        assertEquals(sub.size(), bp.rangeCount(l, r));
+                        assertEquals(sub.values().stream().mapToDouble(Double::doubleValue).sum(),
+                                bp.rangeSum(l, r), 1e-9);
+                        assertEquals(expected.headMap(l).size(), bp.rank(l));
+                    }
+                }
+                assertConsistent(bp.stats(), expected.size());
+                assertArrayEquals(expected.values().stream().mapToDouble(Double::doubleValue).toArray(),
+                        bp.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+            }
+    }
+
+    @Test
+    public void appendSplitsFillNodes() {
+        final int M = 64, N = 100000;
+        for (SplitPolicy policy : new SplitPolicy[]{SplitPolicy.EVEN, SplitPolicy.APPEND, SplitPolicy.ratio(0.9)}) {
+            BPlusTree bp = new BPlusTree(M);
+            bp.setSplitPolicy(policy);
+            for (int k = 0; k < N; k++)
+                bp.insert(k, k);
+            TreeStats stats = bp.stats();
+            assertConsistent(stats, N);
+            double fill = stats.getFillFactor();
+            if (policy == SplitPolicy.EVEN)
+                assertEquals(0.5, fill, 0.02);
+            else if (policy == SplitPolicy.APPEND)
+                assertTrue(fill + "", fill > 0.99);
+            else // of the M pairs of an overflowing leaf, 0.9 M stay
+                assertEquals(Math.round(0.9 * M) / (M - 1.0), fill, 0.01);
+            for (int k = 0; k < N; k += 2)
+                bp.delete(k);
+            assertConsistent(bp.stats(), N / 2);
+            for (int k = 0; k < N; k++)
+                assertEquals(k % 2 == 0 ? Double.NaN : k, bp.get(k), 0);
+        }
+    }
+
+    private static void assertConsistent(TreeStats stats, int size) {
+        assertEquals(size, stats.getSize());
+        long[] occupancy = stats.getLeafOccupancy();
+        long leaves = 0, pairs = 0;
+        for (int i = 0; i < occupancy.length; i++) {
+            leaves += occupancy[i];
+            pairs += i * occupancy[i];
+        }
+        assertEquals(stats.getLeafNodeCount(), leaves);
+        assertEquals(size + stats.getTombstones(), pairs);
+        assertTrue(stats.getFillFactor() > 0 && stats.getFillFactor() <= 1);
+        if (BPlusTree.INSTRUMENTED) {
+            // every split adds a node and every merge takes one away; each
+            // change of root adds or removes a non-leaf and a level
+            assertEquals(1 + stats.getLeafSplits() - stats.getLeafMerges(), stats.getLeafNodeCount());
+            assertEquals(stats.getNonLeafSplits() - stats.getNonLeafMerges() + stats.getHeight() - 1,
+                    stats.getNonLeafNodeCount());
+            assertTrue(stats.getRootChanges() >= stats.getHeight() - 1);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentBPlusTreeTest {
+    /**
+     * Value stored for key k, so readers can check what they see.
+     */
+    static double valueOf(int k) {
+        return k + 0.25;
+    }
+
+    @Test
+    public void sequentialAgainstTreeMap() {
+        Random random = new Random(5);
+        for (int M : new int[]{4, 5, 6, 20}) {
+            ConcurrentBPlusTree tree = new ConcurrentBPlusTree(M);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            for (int i = 0; i < 50000; i++) {
+                int k = random.nextInt(3000);
+                if (random.nextInt(3) == 0) {
+                    tree.delete(k);
+                    expected.remove(k);
+                } else {
+                    double v = random.nextDouble();
+                    tree.insert(k, v);
+                    expected.putIfAbsent(k, v);
+                }
+            }
+            for (int k = 0; k < 3000; k++) {
+                Double v = expected.get(k);
+                assertEquals(v == null ? Double.NaN : v, tree.get(k), 0);
+            }
+            double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+            assertArrayEquals(all, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+            for (int k : expected.keySet())
+                tree.delete(k);
+            assertEquals(0, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+        }
+    }
+
+    /**
+     * Writers own disjoint, interleaved key classes so the final content is
+     * deterministic, and mirror every update into a ConcurrentSkipListMap.
+     * Readers meanwhile check that every value they observe is plausible.
+     */
+    @Test
+    public void concurrentStressAgainstSkipList() throws InterruptedException {
+        final int WRITERS = 4, READERS = 2, OPS = 100000, KEY_SPACE = 20000;
+        for (int M : new int[]{4, 7, 32}) {
+            ConcurrentBPlusTree tree = new ConcurrentBPlusTree(M);
+            ConcurrentSkipListMap<Integer, Double> expected = new ConcurrentSkipListMap<>();
+            AtomicBoolean writing = new AtomicBoolean(true);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            CountDownLatch writersDone = new CountDownLatch(WRITERS);
+            Thread[] threads = new Thread[WRITERS + READERS];
+            for (int t = 0; t < WRITERS; t++) {
+                final int id = t;
+                threads[t] = new Thread(() -> {
+                    Random random = new Random(id);
+                    for (int i = 0; i < OPS; i++) {
+                        int k = random.nextInt(KEY_SPACE / WRITERS) * WRITERS + id;
+                        if (random.nextInt(5) < 2) {
+                            tree.delete(k);
+                            expected.remove(k);
+                        } else {
+                            tree.insert(k, valueOf(k));
+                            expected.put(k, valueOf(k));
+                        }
+                    }
+                    writersDone.countDown();
+                });
+            }
+            for (int t = WRITERS; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        while (writing.get()) {
+                            int k = random.nextInt(KEY_SPACE);
+                            double v = tree.get(k);
+                            assertTrue(Double.isNaN(v) || v == valueOf(k));
+                            int l = random.nextInt(KEY_SPACE), r = l + random.nextInt(500);
+                            double last = Double.NEGATIVE_INFINITY;
+                            for (double x : tree.range(l, r)) {
+                                assertTrue(x > last && x >= valueOf(l) && x <= valueOf(r));
+                                last = x;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+            for (Thread thread : threads)
+                thread.start();
+            writersDone.await();
+            writing.set(false);
+            for (Thread thread : threads)
+                thread.join();
+            if (failure.get() != null)
+                throw new AssertionError(failure.get());
+
+            for (int k = 0; k < KEY_SPACE; k++)
+                assertEquals(expected.containsKey(k) ? valueOf(k) : Double.NaN, tree.get(k), 0);
+            double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+            assertArrayEquals(all, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallOrder() {
+        new ConcurrentBPlusTree(3);
+    }
+}
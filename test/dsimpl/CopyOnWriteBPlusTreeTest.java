@@ -0,0 +1,151 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CopyOnWriteBPlusTreeTest {
+    private static void assertContent(TreeMap<Integer, Double> expected, CopyOnWriteBPlusTree.Snapshot snapshot,
+                                      int keySpace) {
+        assertEquals(expected.size(), snapshot.size());
+        for (int k = -1; k <= keySpace; k++) {
+            Double v = expected.get(k);
+            assertEquals(v == null ? Double.NaN : v, snapshot.get(k), 0);
+        }
+        double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+        assertArrayEquals(all, snapshot.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+        int l = keySpace / 3, r = 2 * keySpace / 3;
+        double[] part = expected.subMap(l, true, r, true).values().stream().mapToDouble(Double::doubleValue).toArray();
+        assertArrayEquals(part, snapshot.range(l, r), 0);
+    }
+
+    @Test
+    public void randomMixedOperationsAgainstTreeMap() {
+        final int KEY_SPACE = 3000;
+        Random random = new Random(3);
+        for (int M : new int[]{3, 4, 5, 20}) {
+            CopyOnWriteBPlusTree tree = new CopyOnWriteBPlusTree(M);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            for (int i = 0; i < 50000; i++) {
+                int k = random.nextInt(KEY_SPACE);
+                if (random.nextInt(3) == 0) {
+                    tree.delete(k);
+                    expected.remove(k);
+                } else {
+                    double v = random.nextDouble();
+                    tree.insert(k, v);
+                    expected.putIfAbsent(k, v);
+                }
+            }
+            assertContent(expected, tree.snapshot(), KEY_SPACE);
+
+            int[] keys = new int[2000];
+            double[] values = new double[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = random.nextInt(KEY_SPACE);
+                values[i] = random.nextDouble();
+                expected.putIfAbsent(keys[i], values[i]);
+            }
+            tree.insertAll(keys, values);
+            assertContent(expected, tree.snapshot(), KEY_SPACE);
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = random.nextInt(KEY_SPACE);
+            tree.deleteAll(keys);
+            for (int k : keys)
+                expected.remove(k);
+            assertContent(expected, tree.snapshot(), KEY_SPACE);
+
+            tree.deleteAll(expected.keySet().stream().mapToInt(Integer::intValue).toArray());
+            assertEquals(0, tree.size());
+            assertEquals(0, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+        }
+    }
+
+    @Test
+    public void snapshotsDoNotSeeLaterUpdates() {
+        final int KEY_SPACE = 5000;
+        Random random = new Random(8);
+        CopyOnWriteBPlusTree tree = new CopyOnWriteBPlusTree(6);
+        TreeMap<Integer, Double> expected = new TreeMap<>();
+        List<CopyOnWriteBPlusTree.Snapshot> snapshots = new ArrayList<>();
+        List<TreeMap<Integer, Double>> contents = new ArrayList<>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3000; i++) {
+                int k = random.nextInt(KEY_SPACE);
+                if (random.nextInt(2) == 0) {
+                    tree.delete(k);
+                    expected.remove(k);
+                } else {
+                    tree.insert(k, k + round);
+                    expected.putIfAbsent(k, (double) k + round);
+                }
+            }
+            snapshots.add(tree.snapshot());
+            contents.add(new TreeMap<>(expected));
+        }
+        for (int i = 0; i < snapshots.size(); i++)
+            assertContent(contents.get(i), snapshots.get(i), KEY_SPACE);
+    }
+
+    /**
+     * The writer only ever adds or removes the keys 2i and 2i + 1 together,
+     * in one batch, so any consistent scan sees both of them or neither.
+     */
+    @Test
+    public void scansSeeOnePointInTimeWhileWritersGoOn() throws InterruptedException {
+        final int PAIRS = 5000, READERS = 2;
+        CopyOnWriteBPlusTree tree = new CopyOnWriteBPlusTree(8);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            Random random = new Random(1);
+            for (int i = 0; i < 100000; i++) {
+                int p = random.nextInt(PAIRS);
+                int[] pair = {2 * p, 2 * p + 1};
+                if (random.nextBoolean())
+                    tree.insertAll(pair, new double[]{pair[0], pair[1]});
+                else
+                    tree.deleteAll(pair);
+            }
+            done.set(true);
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < READERS; t++) {
+            readers.add(new Thread(() -> {
+                try {
+                    do {
+                        CopyOnWriteBPlusTree.Snapshot snapshot = tree.snapshot();
+                        int[] count = {0};
+                        long[] last = {Long.MIN_VALUE};
+                        snapshot.range(Integer.MIN_VALUE, Integer.MAX_VALUE, (k, v) -> {
+                            assertTrue(k > last[0]);
+                            assertEquals(k, v, 0);
+                            if ((k & 1) == 1)
+                                assertEquals(k - 1, last[0]);
+                            last[0] = k;
+                            count[0]++;
+                        });
+                        assertEquals(snapshot.size(), count[0]);
+                        assertEquals(0, count[0] % 2);
+                    } while (!done.get());
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        writer.start();
+        writer.join();
+        for (Thread reader : readers)
+            reader.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+}
@@ -0,0 +1,54 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class DoubleFormatTest {
+    static void assertFormatsLikeToString(DoubleFormat format, double v) {
+        byte[] buf = new byte[DoubleFormat.MAX_LENGTH];
+        int n = format.format(v, buf, 0);
+        assertEquals(Double.toString(v), new String(buf, 0, n, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void specialValues() {
+        DoubleFormat format = new DoubleFormat();
+        // 2e23 and -7.0875382461867507E17 are spelled differently from JDK 19 on
+        double[] values = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE,
+                1.0, -1.0, 0.1, 0.001, 9.999999999999998E-4, 1e7, 9999999.999999998, 1e16, 1e17,
+                1e23, 2e23, 1.0E-5, 123456789012345678.0, 9.223372036854776E18, 0.30000000000000004,
+                -7.0875382461867507E17};
+        for (double v : values)
+            assertFormatsLikeToString(format, v);
+    }
+
+    @Test
+    public void randomValues() {
+        DoubleFormat format = new DoubleFormat();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < 1_000_000; i++) {
+            double v;
+            switch (i % 4) {
+                case 0:
+                    v = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    v = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-12, 20));
+                    break;
+                case 2:
+                    // short decimals
+                    v = Math.round(random.nextDouble() * 1e6) / Math.pow(10, random.nextInt(0, 9));
+                    break;
+                default:
+                    v = random.nextInt(-1000000, 1000000) * Math.pow(2, random.nextInt(-70, 70));
+                    break;
+            }
+            assertFormatsLikeToString(format, v);
+        }
+    }
+}
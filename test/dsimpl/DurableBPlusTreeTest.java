@@ -0,0 +1,126 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DurableBPlusTreeTest {
+    static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    static void assertSameContent(TreeMap<Integer, Double> expected, BPlusTree tree) {
+        for (int k : expected.keySet())
+            assertEquals(expected.get(k), tree.get(k), 0);
+        double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+        assertArrayEquals(all, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+    }
+
+    static void randomUpdates(DurableBPlusTree durable, TreeMap<Integer, Double> expected, Random random, int n)
+            throws IOException {
+        for (int i = 0; i < n; i++) {
+            int k = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                durable.delete(k);
+                expected.remove(k);
+            } else {
+                double v = random.nextDouble();
+                durable.insert(k, v);
+                expected.putIfAbsent(k, v);
+            }
+        }
+    }
+
+    @Test
+    public void recoversFromCheckpointAndLog() throws IOException {
+        Path directory = Files.createTempDirectory("bplustree-wal");
+        try {
+            Random random = new Random(13);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            // a small checkpoint budget so that recovery goes through both
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory, 4096, 0, 100000)) {
+                assertFalse(durable.isInitialized());
+                durable.initialize(7);
+                randomUpdates(durable, expected, random, 30000);
+            }
+            assertTrue(Files.exists(directory.resolve(DurableBPlusTree.CHECKPOINT_FILENAME)));
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory, 4096, 0, 100000)) {
+                assertSameContent(expected, durable.tree());
+                randomUpdates(durable, expected, random, 1000);
+                durable.sync();
+            }
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory)) {
+                assertSameContent(expected, durable.tree());
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void discardsTornTail() throws IOException {
+        Path directory = Files.createTempDirectory("bplustree-wal");
+        try {
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory, 1 << 20, 0, Long.MAX_VALUE)) {
+                durable.initialize(4);
+                durable.insert(1, 0.5);
+                durable.sync();
+                durable.insert(2, 0.25);
+            }
+            // a crash in the middle of writing the last group
+            Path log = directory.resolve(DurableBPlusTree.LOG_FILENAME);
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory, 1 << 20, 0, Long.MAX_VALUE)) {
+                assertEquals(0.5, durable.tree().get(1), 0);
+                assertTrue(Double.isNaN(durable.tree().get(2)));
+                durable.insert(3, 0.125);
+            }
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory)) {
+                assertEquals(0.5, durable.tree().get(1), 0);
+                assertEquals(0.125, durable.tree().get(3), 0);
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void rejectsUpdatesBeforeInitialize() throws IOException {
+        Path directory = Files.createTempDirectory("bplustree-wal");
+        try {
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory, 1, 0, Long.MAX_VALUE)) {
+                assertThrows(IllegalStateException.class, () -> durable.insert(1, 0.5));
+                assertThrows(IllegalStateException.class, () -> durable.delete(1));
+            }
+            try (DurableBPlusTree durable = new DurableBPlusTree(directory)) {
+                assertFalse(durable.isInitialized());
+                durable.initialize(4);
+                durable.insert(1, 0.5);
+            }
+            // a log that updates before initializing is corrupt, not a crash
+            Path log = directory.resolve(DurableBPlusTree.LOG_FILENAME);
+            Files.delete(log);
+            try (WriteAheadLog wal = new WriteAheadLog(log, 1, 0)) {
+                wal.appendInsert(1, 0.5);
+            }
+            assertThrows(IOException.class, () -> new DurableBPlusTree(directory).close());
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+}
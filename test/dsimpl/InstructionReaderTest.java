@@ -0,0 +1,150 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InstructionReaderTest {
+    static final String[] NUMBERS = {
+            "1", "-1", "+7", "0", "-0", "00012", "2147483647", "2147483648", "-2147483648", "-2147483649",
+            "99999999999", "", " ", "1 2", "x", "-", "+", "3.5", "1e3", "1.5", "-0.0", "1e10", "1E-5",
+            "2.5d", "3f", "NaN", "-Infinity", "0x1p3", "1.", ".", ".5", "-.5e-3", "1e400", "1e-400",
+            "4.9e-324", "123456789012345678901234567890", "9007199254740993", "1e", "1e+", "1_0",
+            "0.1000000000000000055511151231257827", "1.7976931348623157e308",
+    };
+
+    static String randomNumber(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return Integer.toString(random.nextInt());
+            case 1:
+                return Double.toString((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20));
+            case 2:
+                return String.format(Locale.ROOT, "%." + random.nextInt(20) + "f", (random.nextDouble() - 0.5) * 2000);
+            default:
+                return NUMBERS[random.nextInt(NUMBERS.length)];
+        }
+    }
+
+    static String randomLines(Random random, int n) {
+        String[] commands = {"Initialize", "Insert", "Delete", "Search", "search", "", " Insert", "Search\t"};
+        String[] delimiters = {"(", ",", ")", ", ", " ("};
+        String[] terminators = {"\n", "\r\n", "\r"};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(commands[random.nextInt(commands.length)]);
+            for (int j = random.nextInt(5); j > 0; j--)
+                sb.append(delimiters[random.nextInt(delimiters.length)]).append(randomNumber(random));
+            sb.append(new String[]{"", ")", ",", ",)", ") ", "x"}[random.nextInt(6)]);
+            if (i + 1 < n || random.nextBoolean())
+                sb.append(terminators[random.nextInt(terminators.length)]);
+        }
+        return sb.toString();
+    }
+
+    static String intOf(String token) {
+        try {
+            return Integer.toString(Integer.valueOf(token));
+        } catch (NumberFormatException e) {
+            return "NFE";
+        }
+    }
+
+    static String doubleOf(String token) {
+        try {
+            return Double.toString(Double.valueOf(token));
+        } catch (NumberFormatException e) {
+            return "NFE";
+        }
+    }
+
+    @Test
+    public void agreesWithSplitTrimAndValueOf() throws IOException {
+        Random random = new Random(3);
+        for (int bufferSize : new int[]{1, 7, 1 << 16}) {
+            String text = randomLines(random, 5000);
+            InstructionReader reader = new InstructionReader(
+                    new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), bufferSize);
+            BufferedReader expected = new BufferedReader(new StringReader(text));
+            String line;
+            while ((line = expected.readLine()) != null) {
+                assertTrue(reader.next());
+                String[] tokens = line.split("[\\(,\\)]");
+                assertEquals(line, tokens.length - 1, reader.argCount());
+                if (tokens.length == 0) continue;
+                String command = tokens[0].trim();
+                int c = command.equals("Initialize") ? InstructionReader.INITIALIZE
+                        : command.equals("Insert") ? InstructionReader.INSERT
+                        : command.equals("Delete") ? InstructionReader.DELETE
+                        : command.equals("Search") ? InstructionReader.SEARCH : InstructionReader.MALFORMED;
+                assertEquals(line, c, reader.command());
+                for (int i = 1; i < Math.min(tokens.length, 4); i++) {
+                    String token = tokens[i].trim();
+                    String intArg, doubleArg;
+                    try {
+                        intArg = Integer.toString(reader.intArg(i - 1));
+                    } catch (NumberFormatException e) {
+                        intArg = "NFE";
+                    }
+                    try {
+                        doubleArg = Double.toString(reader.doubleArg(i - 1));
+                    } catch (NumberFormatException e) {
+                        doubleArg = "NFE";
+                    }
+                    assertEquals(line, intOf(token), intArg);
+                    assertEquals(line, doubleOf(token), doubleArg);
+                }
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void lineTerminators() throws IOException {
+        String[] texts = {"", "a", "a\n", "a\r", "a\r\n", "a\r\rb", "\n\n", "a\r\n\nb\n"};
+        int[] lines = {0, 1, 1, 1, 1, 3, 2, 3};
+        for (int i = 0; i < texts.length; i++)
+            for (int bufferSize : new int[]{1, 2, 64}) {
+                InstructionReader reader = new InstructionReader(new ByteArrayInputStream(
+                        texts[i].getBytes(StandardCharsets.US_ASCII)), bufferSize);
+                int n = 0;
+                while (reader.next()) n++;
+                assertEquals(texts[i], lines[i], n);
+            }
+    }
+
+    @Test
+    public void readyOnlyWithAWholeLine() throws IOException {
+        PipedOutputStream sender = new PipedOutputStream();
+        InstructionReader reader = new InstructionReader(new PipedInputStream(sender, 64), 4);
+        assertFalse(reader.ready());
+        sender.write("Search(1)\nSea".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(reader.ready());
+        assertTrue(reader.next());
+        assertFalse(reader.ready());
+        sender.write("rch(2)\r".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(reader.ready());
+        assertTrue(reader.next());
+        assertEquals(2, reader.intArg(0));
+        // the '\n' ending the line "Search(2)\r" makes no line of its own
+        sender.write('\n');
+        assertFalse(reader.ready());
+        sender.write("Delete(3)".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(reader.ready());
+        sender.close();
+        assertTrue(reader.next());
+        assertEquals(InstructionReader.DELETE, reader.command());
+        assertTrue(reader.ready());
+        assertFalse(reader.next());
+    }
+}
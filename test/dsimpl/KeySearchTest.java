@@ -0,0 +1,47 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeySearchTest {
+    private static int naiveLowerBound(int[] keys, int size, long k) {
+        int i = 0;
+        while (i < size && keys[i] < k) i++;
+        return i;
+    }
+
+    @Test
+    public void agreesWithLinearScan() {
+        Random random = new Random(9);
+        for (int size = 0; size <= 300; size++) {
+            int[] keys = new int[size + 5];
+            for (int round = 0; round < 20; round++) {
+                int bound = round % 2 == 0 ? 4 * size + 1 : Integer.MAX_VALUE;
+                int[] sorted = random.ints(size, -bound, bound).sorted().distinct().toArray();
+                int n = sorted.length;
+                System.arraycopy(sorted, 0, keys, 0, n);
+                if (round == 0 && n > 1) {
+                    keys[0] = Integer.MIN_VALUE;
+                    keys[n - 1] = Integer.MAX_VALUE;
+                }
+                Arrays.fill(keys, n, keys.length, Integer.MIN_VALUE);// beyond size, must be ignored
+                int[] probes = {Integer.MIN_VALUE, Integer.MAX_VALUE, 0, random.nextInt(), -bound, bound - 1};
+                for (int k : probes) {
+                    assertEquals(naiveLowerBound(keys, n, k), KeySearch.lowerBound(keys, n, k));
+                    assertEquals(naiveLowerBound(keys, n, k + 1L), KeySearch.upperBound(keys, n, k));
+                }
+                for (int i = 0; i < n; i++) {
+                    for (int d = -1; d <= 1; d++) {
+                        int k = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, (long) keys[i] + d));
+                        assertEquals(naiveLowerBound(keys, n, k), KeySearch.lowerBound(keys, n, k));
+                        assertEquals(naiveLowerBound(keys, n, k + 1L), KeySearch.upperBound(keys, n, k));
+                    }
+                }
+            }
+        }
+    }
+}
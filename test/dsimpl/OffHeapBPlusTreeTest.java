@@ -0,0 +1,83 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class OffHeapBPlusTreeTest {
+    @Test
+    public void randomOperationsAgainstTreeMap() {
+        final int KEY_SPACE = 5000;
+        Random random = new Random(17);
+        for (int M : new int[]{3, 4, 5, 20, 128})
+            try (OffHeapBPlusTree tree = new OffHeapBPlusTree(M, 1024)) {
+                assertEquals(M, tree.order());
+                TreeMap<Integer, Double> expected = new TreeMap<>();
+                for (int i = 0; i < 40000; i++) {
+                    int k = random.nextInt(KEY_SPACE);
+                    if (random.nextInt(3) == 0) {
+                        tree.delete(k);
+                        expected.remove(k);
+                    } else {
+                        double v = random.nextDouble();
+                        tree.insert(k, v);
+                        expected.putIfAbsent(k, v);
+                    }
+                }
+                for (int k = 0; k < KEY_SPACE; k++) {
+                    Double v = expected.get(k);
+                    assertEquals(v == null ? Double.NaN : v, tree.get(k), 0);
+                }
+                double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+                assertArrayEquals(all, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+                int l = random.nextInt(KEY_SPACE), r = l + random.nextInt(KEY_SPACE - l);
+                double[] expectedRange = expected.subMap(l, true, r, true).values()
+                        .stream().mapToDouble(Double::doubleValue).toArray();
+                double[] buffer = new double[expectedRange.length + 1];
+                assertEquals(expectedRange.length, tree.range(l, r, buffer));
+                assertArrayEquals(expectedRange, Arrays.copyOf(buffer, expectedRange.length), 0);
+                assertEquals(expected.size(), tree.size());
+
+                for (int k : expected.keySet())
+                    tree.delete(k);
+                assertEquals(0, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+                assertEquals(1, tree.nodeCount());
+            }
+    }
+
+    @Test
+    public void freedNodesAreReused() {
+        try (OffHeapBPlusTree tree = new OffHeapBPlusTree(8, 4096)) {
+            for (int round = 0; round < 5; round++) {
+                for (int k = 0; k < 20000; k++)
+                    tree.insert(k, k);
+                for (int k = 0; k < 20000; k++)
+                    tree.delete(k);
+            }
+            long bytes = tree.nativeBytes();
+            for (int k = 0; k < 20000; k++)
+                tree.insert(k, k);
+            assertEquals(bytes, tree.nativeBytes());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedTreeRejectsOperations() {
+        OffHeapBPlusTree tree = new OffHeapBPlusTree(4);
+        tree.insert(1, 1);
+        tree.close();
+        tree.close();
+        assertEquals(0, tree.nativeBytes());
+        tree.get(1);
+    }
+
+    @Test
+    public void freesEagerlyOnAFullJdk() {
+        // jdk.unsupported is part of every full JDK image
+        assertTrue(OffHeapBPlusTree.freesEagerly());
+    }
+}
@@ -0,0 +1,75 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PackedLeafTest {
+    @Test
+    public void keysAndSearchAgreeWithPlainArrays() {
+        Random random = new Random(5);
+        for (int size = 0; size <= 130; size++)
+            for (int round = 0; round < 10; round++) {
+                int bound = round % 2 == 0 ? 3 * size + 1 : Integer.MAX_VALUE;
+                int[] keys = random.ints(size, -bound, bound).sorted().distinct().toArray();
+                int n = keys.length;
+                if (round == 1 && n > 1) {
+                    keys[0] = Integer.MIN_VALUE;
+                    keys[n - 1] = Integer.MAX_VALUE;
+                }
+                double[] values = random.doubles(n).toArray();
+                PackedLeaf leaf = PackedLeaf.pack(keys, values, n, round % 3 == 0);
+                for (int i = 0; i < n; i++) {
+                    assertEquals(keys[i], leaf.key(i));
+                    assertEquals(values[i], leaf.value(i), 0);
+                }
+                int[] probes = {Integer.MIN_VALUE, Integer.MAX_VALUE, 0, random.nextInt()};
+                for (int k : probes) {
+                    assertEquals(KeySearch.lowerBound(keys, n, k), leaf.lowerBound(k));
+                    assertEquals(KeySearch.upperBound(keys, n, k), leaf.upperBound(k));
+                }
+                for (int i = 0; i < n; i++)
+                    for (int d = -1; d <= 1; d++) {
+                        int k = keys[i] + d;// may wrap, which is just another probe
+                        assertEquals(KeySearch.lowerBound(keys, n, k), leaf.lowerBound(k));
+                        assertEquals(KeySearch.upperBound(keys, n, k), leaf.upperBound(k));
+                    }
+            }
+    }
+
+    @Test
+    public void compressedValuesRoundTripBitForBit() {
+        Random random = new Random(6);
+        double[][] cases = {
+                {},
+                {Math.PI},
+                {1, 1, 1, 1, 2, 2, 2},
+                {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                        Double.MIN_VALUE, Double.MAX_VALUE, -Double.MIN_VALUE, Double.NaN},
+                random.doubles(255).toArray(),
+                random.doubles(255).map(v -> Math.round(v * 100) / 4.0).toArray(),
+                random.longs(255).mapToDouble(Double::longBitsToDouble).toArray(),
+        };
+        for (double[] values : cases) {
+            int[] keys = new int[values.length];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = 7 * i;
+            PackedLeaf leaf = PackedLeaf.pack(keys, values, values.length, true);
+            double[] decoded = new double[values.length];
+            leaf.values(decoded, 0, values.length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoded[i]));
+                assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(leaf.value(i)));
+            }
+            for (int from = 0; from < values.length; from += 5) {
+                double[] part = new double[values.length];
+                int to = Math.min(values.length, from + 1 + from % 40);
+                leaf.values(part, from, to);
+                for (int i = from; i < to; i++)
+                    assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(part[i]));
+            }
+        }
+    }
+}
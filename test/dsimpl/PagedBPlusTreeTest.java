@@ -0,0 +1,68 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class PagedBPlusTreeTest {
+    static void assertSameContent(TreeMap<Integer, Double> expected, PagedBPlusTree tree, int keySpace) {
+        for (int k = 0; k < keySpace; k++) {
+            Double v = expected.get(k);
+            assertEquals(v == null ? Double.NaN : v, tree.get(k), 0);
+        }
+        double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+        assertArrayEquals(all, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+        assertEquals(expected.size(), tree.size());
+    }
+
+    @Test
+    public void randomOperationsSurviveEvictionAndReopen() throws IOException {
+        final int KEY_SPACE = 5000, PAGE_SIZE = 128;
+        Path file = Files.createTempFile("bplustree", ".pages");
+        try {
+            Random random = new Random(9);
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            try (PagedBPlusTree tree = new PagedBPlusTree(file, PAGE_SIZE, 8)) {
+                assertEquals(PagedBPlusTree.orderFor(PAGE_SIZE), tree.order());
+                for (int i = 0; i < 40000; i++) {
+                    int k = random.nextInt(KEY_SPACE);
+                    if (random.nextInt(3) == 0) {
+                        tree.delete(k);
+                        expected.remove(k);
+                    } else {
+                        double v = random.nextDouble();
+                        tree.insert(k, v);
+                        expected.putIfAbsent(k, v);
+                    }
+                }
+                assertSameContent(expected, tree, KEY_SPACE);
+                assertTrue(tree.hitRate() > 0 && tree.hitRate() < 1);
+            }
+            try (PagedBPlusTree tree = new PagedBPlusTree(file, PAGE_SIZE, 16)) {
+                assertSameContent(expected, tree, KEY_SPACE);
+                for (int k : expected.keySet())
+                    tree.delete(k);
+                assertEquals(0, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMismatchedPageSize() throws IOException {
+        Path file = Files.createTempFile("bplustree", ".pages");
+        try {
+            new PagedBPlusTree(file, 256, 8).close();
+            new PagedBPlusTree(file, 512, 8).close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
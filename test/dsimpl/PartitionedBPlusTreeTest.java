@@ -0,0 +1,74 @@
+package dsimpl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class PartitionedBPlusTreeTest {
+    static void assertSameContent(TreeMap<Integer, Double> expected, PartitionedBPlusTree tree) {
+        for (int k : expected.keySet())
+            assertEquals(expected.get(k), tree.get(k), 0);
+        double[] all = expected.values().stream().mapToDouble(Double::doubleValue).toArray();
+        assertArrayEquals(all, tree.range(Integer.MIN_VALUE, Integer.MAX_VALUE), 0);
+        assertEquals(expected.size(), Arrays.stream(tree.partitionSizes()).sum());
+    }
+
+    @Test
+    public void randomOperationsAgainstTreeMap() {
+        Random random = new Random(3);
+        try (PartitionedBPlusTree tree = new PartitionedBPlusTree(16, 8)) {
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            for (int i = 0; i < 50000; i++) {
+                int k = random.nextInt();
+                if (random.nextInt(4) == 0 && !expected.isEmpty()) {
+                    k = expected.ceilingKey(k) == null ? expected.firstKey() : expected.ceilingKey(k);
+                    tree.delete(k);
+                    expected.remove(k);
+                } else {
+                    double v = random.nextDouble();
+                    tree.insert(k, v);
+                    expected.putIfAbsent(k, v);
+                }
+            }
+            assertSameContent(expected, tree);
+            int l = random.nextInt(), r = random.nextInt();
+            if (l > r) {
+                int tmp = l;
+                l = r;
+                r = tmp;
+            }
+            double[] expectedRange = expected.subMap(l, true, r, true).values()
+                    .stream().mapToDouble(Double::doubleValue).toArray();
+            assertArrayEquals(expectedRange, tree.range(l, r), 0);
+        }
+    }
+
+    @Test
+    public void skewedInsertionsMoveBoundaries() {
+        final int N = 200000;
+        try (PartitionedBPlusTree tree = new PartitionedBPlusTree(32, 4)) {
+            TreeMap<Integer, Double> expected = new TreeMap<>();
+            // every key falls into the partition covering [0, 2^30)
+            for (int i = 0; i < N; i++) {
+                int k = i * 4099;
+                tree.insert(k, i);
+                expected.put(k, (double) i);
+            }
+            tree.rebalance();
+            int[] sizes = tree.partitionSizes();
+            assertTrue(Arrays.toString(sizes), sizes[2] < N);
+            assertTrue(Arrays.toString(sizes), sizes[3] > 0);
+            assertSameContent(expected, tree);
+            // keys moved away must still be updatable through the facade
+            for (int i = 0; i < N; i += 3) {
+                tree.delete(i * 4099);
+                expected.remove(i * 4099);
+            }
+            assertSameContent(expected, tree);
+        }
+    }
+}